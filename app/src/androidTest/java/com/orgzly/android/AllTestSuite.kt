@@ -42,6 +42,7 @@ import org.junit.runners.Suite
         BookParsingTest::class,
         CreatedAtPropertyTest::class,
         DataTest::class,
+        NotePositionsTest::class,
         SettingsTest::class,
         StateChangeTest::class,
         StructureTest::class,
@@ -69,6 +70,7 @@ import org.junit.runners.Suite
 
         AgendaUtilsTest::class,
         EncodingDetectTest::class,
+        EncodingDetectingReaderTest::class,
         MiscUtilsTest::class,
         OrgFormatterLinkTest::class,
         OrgFormatterMiscTest::class,
@@ -3,6 +3,7 @@ package com.orgzly.android.data
 import com.google.gson.Gson
 import com.orgzly.android.OrgzlyTest
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.user.InternalQueryParser
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertTrue
 import org.junit.Test
@@ -297,4 +298,226 @@ class DataRepositoryTest : OrgzlyTest() {
             )
         }
     }
+
+    @Test
+    fun testBulkImportMatchesOneByOneImport() {
+        val content = """
+            Preface
+
+            * TODO Note 1 :tag1:
+            SCHEDULED: <2018-01-01 Mon>
+            :PROPERTIES:
+            :CREATED: [2018-01-01 Mon 09:00]
+            :END:
+
+            Meeting at <2018-01-02 Tue 10:00>
+
+            ** Note 1.1
+            *** Note 1.1.1
+            DEADLINE: <2018-01-03 Wed>
+            ** Note 1.2 :tag2:
+            * DONE Note 2
+            CLOSED: [2018-01-01 Mon 10:00] SCHEDULED: <2018-01-01 Mon>
+            ** Note 2.1
+            :PROPERTIES:
+            :NAME: value
+            :OTHER: <2018-01-04 Thu>
+            :END:
+        """.trimIndent()
+
+        AppPreferences.bulkBookImport(context, false)
+        testUtils.setupBook("book-one-by-one", content)
+
+        AppPreferences.bulkBookImport(context, true)
+        testUtils.setupBook("book-bulk", content)
+
+        assertEquals(describeBook("book-one-by-one"), describeBook("book-bulk"))
+    }
+
+    @Test
+    fun testFullTextSearchFollowsEdits() {
+        AppPreferences.searchWordBeginnings(context, true)
+
+        val book = testUtils.setupBook("book1", """
+            * Shopping :errands:
+            Buy apples
+            * Meeting
+            Discuss budget
+        """.trimIndent())
+
+        fun search(text: String): List<String> {
+            return dataRepository.selectNotesFromQuery(InternalQueryParser().parse(text)).map { it.note.title }
+        }
+
+        assertEquals(listOf("Shopping"), search("app"))
+        assertEquals(listOf("Shopping"), search("errand"))
+        assertEquals(listOf("Meeting"), search("BUDGET"))
+        assertEquals(listOf<String>(), search("pples"))
+
+        /* Quoted text still matches anywhere. */
+        assertEquals(listOf("Shopping"), search("\"pples\""))
+
+        val meeting = dataRepository.getLastNote("Meeting")!!
+        dataRepository.updateNoteContent(meeting.id, "Discuss apples")
+        assertEquals(listOf("Shopping", "Meeting"), search("apples"))
+
+        dataRepository.deleteNotes(book.book.id, setOf(meeting.id))
+        assertEquals(listOf("Shopping"), search("apples"))
+    }
+
+    @Test
+    fun testSearchMatchesAnywhereByDefault() {
+        testUtils.setupBook("book1", """
+            * Shopping
+            Buy apples
+        """.trimIndent())
+
+        val notes = dataRepository.selectNotesFromQuery(InternalQueryParser().parse("pples"))
+
+        assertEquals(listOf("Shopping"), notes.map { it.note.title })
+    }
+
+    @Test
+    fun testTagSearchFollowsEdits() {
+        testUtils.setupBook("book1", """
+            * Note A :work:
+            ** Note B :workshop:
+            * Note C
+            ** Note D
+        """.trimIndent())
+
+        fun search(query: String): List<String> {
+            return dataRepository.selectNotesFromQuery(InternalQueryParser().parse(query)).map { it.note.title }
+        }
+
+        /* Whole tags only. */
+        assertEquals(listOf("Note A", "Note B"), search("t.work"))
+        assertEquals(listOf("Note B"), search("t.workshop"))
+        assertEquals(listOf("Note A"), search("tn.work"))
+        assertEquals(listOf("Note A"), search("tn.WORK"))
+
+        /* Moved notes inherit tags of their new ancestors. */
+        dataRepository.demoteNotes(setOf(dataRepository.getLastNote("Note C")!!.id))
+        assertEquals(listOf("Note A", "Note B", "Note C", "Note D"), search("t.work"))
+
+        /* Descendants follow changes of own tags. */
+        val noteA = dataRepository.getLastNote("Note A")!!
+        dataRepository.updateNote(noteA.id, dataRepository.getNotePayload(noteA.id)!!.copy(tags = listOf("home")))
+        assertEquals(listOf("Note A", "Note B", "Note C", "Note D"), search("t.home"))
+        assertEquals(listOf<String>(), search("t.work"))
+
+        assertEquals(listOf("home", "workshop"), dataRepository.selectAllTags())
+    }
+
+    @Test
+    fun testReloadKeepsUnchangedNotes() {
+        val before = """
+            * Note 1
+            ** Note 1.1
+            * Note 2
+            :PROPERTIES:
+            :NAME: value
+            :END:
+            * Note 3
+        """.trimIndent()
+
+        val after = """
+            * Note 1
+            ** Note 1.1
+            Changed content
+            * Note 3
+            ** Note 2
+            :PROPERTIES:
+            :NAME: value
+            :END:
+            * Note 4
+        """.trimIndent()
+
+        AppPreferences.bulkBookImport(context, false)
+        testUtils.setupBook("book-one-by-one", after)
+
+        AppPreferences.bulkBookImport(context, true)
+        testUtils.setupBook("book-reloaded", before)
+
+        val idsBefore = dataRepository.getNotes("book-reloaded").associate { it.note.title to it.note.id }
+
+        testUtils.setupBook("book-reloaded", after)
+
+        val idsAfter = dataRepository.getNotes("book-reloaded").associate { it.note.title to it.note.id }
+
+        /* Unchanged, changed and moved notes keep their IDs. */
+        for (title in listOf("Note 1", "Note 1.1", "Note 2", "Note 3")) {
+            assertEquals(title, idsBefore[title], idsAfter[title])
+        }
+
+        assertEquals(describeBook("book-one-by-one"), describeBook("book-reloaded"))
+    }
+
+    @Test
+    fun testReloadWithPromotedAndDemotedSubtrees() {
+        val before = """
+            * Note 1
+            ** Note 1.1 :tag1:
+            *** Note 1.1.1
+            * Note 2 :tag2:
+            ** Note 2.1
+        """.trimIndent()
+
+        /* Note 1.1 promoted with its child, Note 2 demoted with its child. */
+        val after = """
+            * Note 1
+            * Note 1.1 :tag1:
+            ** Note 1.1.1
+            ** Note 2 :tag2:
+            *** Note 2.1
+        """.trimIndent()
+
+        AppPreferences.bulkBookImport(context, false)
+        testUtils.setupBook("book-one-by-one", after)
+
+        AppPreferences.bulkBookImport(context, true)
+        testUtils.setupBook("book-reloaded", before)
+
+        val idsBefore = dataRepository.getNotes("book-reloaded").associate { it.note.title to it.note.id }
+
+        testUtils.setupBook("book-reloaded", after)
+
+        val idsAfter = dataRepository.getNotes("book-reloaded").associate { it.note.title to it.note.id }
+
+        for (title in listOf("Note 1", "Note 1.1", "Note 1.1.1", "Note 2", "Note 2.1")) {
+            assertEquals(title, idsBefore[title], idsAfter[title])
+        }
+
+        assertEquals(describeBook("book-one-by-one"), describeBook("book-reloaded"))
+    }
+
+    private fun describeBook(name: String): List<String> {
+        val notes = dataRepository.getNotes(name)
+        val titles = notes.associate { it.note.id to it.note.title }
+
+        return notes.map { view ->
+            val note = view.note
+
+            listOf(
+                    note.title,
+                    note.state,
+                    note.tags,
+                    view.inheritedTags,
+                    note.content,
+                    note.position.lft,
+                    note.position.rgt,
+                    note.position.level,
+                    note.position.descendantsCount,
+                    note.position.isFolded,
+                    titles[note.position.parentId],
+                    titles[note.position.foldedUnderId],
+                    view.scheduledRangeString,
+                    view.deadlineRangeString,
+                    view.closedRangeString,
+                    dataRepository.getNoteAncestors(note.id).map { it.title },
+                    dataRepository.getNoteProperties(note.id).map { "${it.position} ${it.name} ${it.value}" },
+                    dataRepository.getNoteEvents(note.id).size
+            ).joinToString(" | ")
+        }
+    }
 }
@@ -364,7 +364,7 @@ public class QueryFragmentTest extends OrgzlyTest {
     @Test
     public void testInheritedTagSearchWhenMultipleAncestorsMatch() {
         testUtils.setupBook("notebook-1",
-                "* Note A :tagtag:\n" +
+                "* Note A :tag:\n" +
                 "** Note B :tag:\n" +
                 "*** Note C\n" +
                 "*** Note D\n" +
@@ -0,0 +1,66 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.entity.NotePosition
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.ui.note.NotePayload
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class NotePositionsTest : OrgzlyTest() {
+
+    /**
+     * Creates many notes in a large book, counting existing notes whose lft or rgt changed.
+     * Compares that to the number of notes which had to be shifted before gaps were used:
+     * every note after the new one, and its ancestors.
+     */
+    @Test
+    fun testCreatingNotesRewritesFewPositions() {
+        val noteCount = 1000
+        val inserts = 200
+
+        val titles = (1..noteCount).map { "Note $it" }.toMutableList()
+
+        val book = testUtils.setupBook("book", titles.joinToString("\n") { "* $it" })
+
+        val random = Random(1)
+
+        var rewritten = 0
+        var shifted = 0
+
+        repeat(inserts) { i ->
+            val before = positions()
+
+            /* Every other note goes to the top, where the gap is used up the fastest. */
+            val index = if (i % 2 == 0) 0 else random.nextInt(titles.size)
+            val target = dataRepository.getLastNote(titles[index])!!
+
+            val note = dataRepository.createNote(
+                    NotePayload("New $i"), NotePlace(book.book.id, target.id, Place.ABOVE))
+
+            titles.add(index, "New $i")
+
+            val after = positions()
+
+            rewritten += before.count { (title, position) ->
+                after.getValue(title).let { it.lft != position.lft || it.rgt != position.rgt }
+            }
+
+            shifted += after.count { (title, position) ->
+                title != note.title && position.rgt > note.position.lft
+            }
+        }
+
+        /* Order of notes is kept. */
+        assertEquals(titles, dataRepository.getNotes("book").map { it.note.title })
+
+        assertTrue("$rewritten notes rewritten, $shifted before", rewritten * 20 < shifted)
+    }
+
+    private fun positions(): Map<String, NotePosition> {
+        return dataRepository.getNotes("book").associate { it.note.title to it.note.position }
+    }
+}
@@ -388,6 +388,7 @@ class StructureTest : OrgzlyTest() {
 
             for (i in 1..999) {
                 append("** Note A-01 ($i)\n")
+                append(":PROPERTIES:\n:N: $i\n:END:\n")
             }
 
             append("* Note A-02\n")
@@ -401,6 +402,13 @@ class StructureTest : OrgzlyTest() {
         getNote("Note A-02").let { note ->
             UseCaseRunner.run(NotePaste(note.position.bookId, note.id, Place.BELOW))
         }
+
+        Assert.assertEquals(1001, dataRepository.getNotes("Book A").size)
+
+        listOf(1, 500, 501, 999).forEach { i ->
+            val properties = dataRepository.getNoteProperties(getNote("Note A-01 ($i)").id)
+            Assert.assertEquals(listOf("N" to "$i"), properties.map { it.name to it.value })
+        }
     }
 
     @Test
@@ -18,7 +18,7 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
     fun testScheduledWithinHours1() {
         // Parse query
         val queryString = "s.le.2h"
-        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(
+        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_timestamp != 0 AND scheduled_timestamp < " + TimeUtils.timeFromNow(
             Calendar.HOUR_OF_DAY, 2+1) + "))"
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
@@ -43,7 +43,7 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
     fun testScheduledWithinHours2() {
         // Parse query
         val queryString = "s.le.+2h"
-        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(
+        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_timestamp != 0 AND scheduled_timestamp < " + TimeUtils.timeFromNow(
             Calendar.HOUR_OF_DAY, 2+1) + "))"
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
@@ -68,7 +68,7 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
     fun testClosedRecently() {
         // Parse query
         val queryString = "c.gt.-1h"
-        val expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 0)} <= closed_time_timestamp))"
+        val expectedSqlSelection = "((closed_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 0)} <= closed_timestamp))"
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -3,6 +3,7 @@ package com.orgzly.android.reminders
 import com.orgzly.android.OrgzlyTest
 import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.reminders.NoteReminders.getNoteReminders
+import com.orgzly.org.datetime.OrgDateTime
 import org.joda.time.Instant
 import org.junit.Assert
 import org.junit.Test
@@ -133,4 +134,54 @@ class NoteRemindersTest : OrgzlyTest() {
             Assert.assertEquals("2017-03-16T09:00:00.000", runTime.toLocalDateTime().toString())
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testRemindersFollowChangedScheduledTime() {
+        testUtils.setupBook(
+                "notebook",
+                """
+                    * Note 1
+                    SCHEDULED: <2017-03-20 Mon>
+                """.trimIndent())
+
+        val now = Instant.parse("2017-03-15T13:00:00")
+
+        getNoteReminders(context, dataRepository, now, LastRun(), NoteReminders.INTERVAL_FROM_NOW).apply {
+            Assert.assertEquals(1, size.toLong())
+            Assert.assertEquals("2017-03-20T09:00:00.000", this[0].runTime.toLocalDateTime().toString())
+        }
+
+        val note = dataRepository.getLastNote("Note 1")!!
+        dataRepository.setNotesScheduledTime(setOf(note.id), OrgDateTime.parse("<2017-03-18 Sat 10:00>"))
+
+        getNoteReminders(context, dataRepository, now, LastRun(), NoteReminders.INTERVAL_FROM_NOW).apply {
+            Assert.assertEquals(1, size.toLong())
+            Assert.assertEquals("2017-03-18T10:00:00.000", this[0].runTime.toLocalDateTime().toString())
+        }
+    }
+
+    @Test
+    fun testNextNoteReminder() {
+        testUtils.setupBook(
+                "notebook",
+                """
+                    * DONE Note 1
+                    SCHEDULED: <2017-03-16 Thu>
+                    * Note 2
+                    SCHEDULED: <2017-03-20 Mon 16:00>
+                    * Note 3
+                    DEADLINE: <2017-03-17 Fri 12:00>
+                    * Note 4
+                    SCHEDULED: <2017-03-14 Tue>
+                """.trimIndent())
+
+        val now = Instant.parse("2017-03-15T13:00:00")
+
+        val next = NoteReminders.getNextNoteReminder(context, dataRepository, now)
+
+        Assert.assertNotNull(next)
+        Assert.assertEquals("Note 3", next!!.payload.title)
+        Assert.assertEquals(ReminderTimeDao.DEADLINE_TIME, next.payload.timeType)
+        Assert.assertEquals("2017-03-17T12:00:00.000", next.runTime.toLocalDateTime().toString())
+    }
+}
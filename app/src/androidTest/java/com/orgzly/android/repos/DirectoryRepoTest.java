@@ -8,6 +8,9 @@ import com.orgzly.android.LocalStorage;
 import com.orgzly.android.OrgzlyTest;
 import com.orgzly.android.db.entity.BookView;
 import com.orgzly.android.db.entity.Repo;
+import com.orgzly.android.sync.BookNamesake;
+import com.orgzly.android.sync.BookSyncStatus;
+import com.orgzly.android.sync.SyncUtils;
 import com.orgzly.android.util.MiscUtils;
 
 import org.junit.After;
@@ -18,9 +21,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assume.assumeTrue;
 
 public class DirectoryRepoTest extends OrgzlyTest {
@@ -141,6 +146,27 @@ public class DirectoryRepoTest extends OrgzlyTest {
     }
 
 
+    @Test
+    public void testGroupModifiedNotebooks() throws IOException {
+        testUtils.setupRepo(RepoType.DIRECTORY, repoUriString);
+        testUtils.setupBook("booky", "* Note");
+        testUtils.sync();
+
+        dataRepository.updateNoteContent(dataRepository.getLastNote("Note").getId(), "Content");
+
+        Map<String, BookNamesake> namesakes = SyncUtils.groupModifiedNotebooksByName(dataRepository);
+
+        assertNotNull(namesakes);
+        assertEquals(1, namesakes.size());
+        assertEquals(BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED, namesakes.get("booky").getStatus());
+
+        /* Remote book modified as well. */
+        File file = new File(dirFile, "booky.org");
+        file.setLastModified(file.lastModified() + 60_000);
+
+        assertNull(SyncUtils.groupModifiedNotebooksByName(dataRepository));
+    }
+
     @Test
     public void testSyncWithDirectoryContainingPercent() throws FileNotFoundException {
         String localBaseDir = context.getExternalCacheDir().getAbsolutePath();
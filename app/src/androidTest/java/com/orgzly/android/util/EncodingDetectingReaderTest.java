@@ -0,0 +1,133 @@
+package com.orgzly.android.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EncodingDetectingReaderTest {
+    private static final String PATH = "assets/encoding";
+
+    private byte[] getFromResource(String name) throws IOException {
+        String resourcePath = new File(PATH, name).getPath();
+
+        try (InputStream is = this.getClass().getClassLoader().getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                throw new IllegalArgumentException("Resource " + resourcePath + " could not be loaded");
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[1000];
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            result.append(buf, 0, n);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Same encoding is detected as when running the detector over the whole file,
+     * and the content is decoded the same.
+     */
+    private void assertSameAsFullDetection(String name) throws IOException {
+        byte[] bytes = getFromResource(name);
+
+        String expectedDetected = EncodingDetect.getInstance(new ByteArrayInputStream(bytes)).getEncoding();
+        String expectedUsed = expectedDetected != null ? expectedDetected : "UTF-8";
+
+        EncodingDetectingReader reader = new EncodingDetectingReader(new ByteArrayInputStream(bytes), null);
+        String content = readAll(reader);
+
+        assertEquals(expectedDetected, reader.getEncoding().getDetected());
+        assertEquals(expectedUsed, reader.getEncoding().getUsed());
+        assertNull(reader.getEncoding().getSelected());
+
+        assertEquals(readAll(new InputStreamReader(new ByteArrayInputStream(bytes), expectedUsed)), content);
+    }
+
+    @Test
+    public void testOrgBlogArticles() throws IOException {
+        assertSameAsFullDetection("org-blog-articles.org");
+    }
+
+    @Test
+    public void testPeople() throws IOException {
+        assertSameAsFullDetection("org-people.org");
+    }
+
+    @Test
+    public void testAscii() throws IOException {
+        assertSameAsFullDetection("ascii.org");
+    }
+
+    @Test
+    public void testChinese() throws IOException {
+        assertSameAsFullDetection("few_chinese_characters.org");
+    }
+
+    @Test
+    public void testChineseLipsum() throws IOException {
+        assertSameAsFullDetection("Chinese-Lipsum.org");
+    }
+
+    @Test
+    public void ISO_8859_15_dos() throws IOException {
+        assertSameAsFullDetection("iso-8859-15-dos.org");
+    }
+
+    @Test
+    public void testByteOrderMark() throws IOException {
+        byte[] bytes = { (byte) 0xFF, (byte) 0xFE, 'A', 0, 'B', 0 };
+
+        EncodingDetectingReader reader = new EncodingDetectingReader(new ByteArrayInputStream(bytes), null);
+
+        assertEquals("\uFEFFAB", readAll(reader));
+        assertEquals("UTF-16LE", reader.getEncoding().getDetected());
+    }
+
+    @Test
+    public void testUtf8AfterLongAsciiPrefix() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < EncodingDetectingReader.WINDOW_SIZE / 10; i++) {
+            text.append("* Note ").append(i).append('\n');
+        }
+        text.append("Übung macht den Meister\n");
+
+        EncodingDetectingReader reader = new EncodingDetectingReader(
+                new ByteArrayInputStream(text.toString().getBytes("UTF-8")), null);
+
+        assertEquals(text.toString(), readAll(reader));
+        assertEquals("UTF-8", reader.getEncoding().getDetected());
+    }
+
+    @Test
+    public void testSelectedEncoding() throws IOException {
+        byte[] bytes = "Übung".getBytes("UTF-8");
+
+        EncodingDetectingReader reader = new EncodingDetectingReader(new ByteArrayInputStream(bytes), "ISO-8859-1");
+
+        assertEquals(new String(bytes, "ISO-8859-1"), readAll(reader));
+        assertNull(reader.getEncoding().getDetected());
+        assertEquals("ISO-8859-1", reader.getEncoding().getUsed());
+        assertEquals("ISO-8859-1", reader.getEncoding().getSelected());
+    }
+}
@@ -5,6 +5,7 @@ public class AppIntent {
     public static final String ACTION_DB_CLEARED = "com.orgzly.intent.action.DB_CLEARED";
     public static final String ACTION_UPDATING_NOTES_STARTED = "com.orgzly.intent.action.UPDATING_NOTES_STARTED";
     public static final String ACTION_UPDATING_NOTES_ENDED = "com.orgzly.intent.action.UPDATING_NOTES_ENDED";
+    public static final String ACTION_UPDATING_NOTES_PROGRESS = "com.orgzly.intent.action.UPDATING_NOTES_PROGRESS";
 
     public static final String ACTION_NOTE_MARK_AS_DONE = "com.orgzly.intent.action.NOTE_MARK_AS_DONE";
 
@@ -60,4 +61,6 @@ public class AppIntent {
     public static final String EXTRA_SAVED_SEARCH_ID = "com.orgzly.intent.extra.SAVED_SEARCH_ID";
     public static final String EXTRA_IS_AUTOMATIC = "com.orgzly.intent.extra.IS_AUTOMATIC";
     public static final String EXTRA_REMINDER_EVENT = "com.orgzly.intent.extra.REMINDER_EVENT";
+    public static final String EXTRA_PROGRESS_PROCESSED = "com.orgzly.intent.extra.PROGRESS_PROCESSED";
+    public static final String EXTRA_PROGRESS_TOTAL = "com.orgzly.intent.extra.PROGRESS_TOTAL";
 }
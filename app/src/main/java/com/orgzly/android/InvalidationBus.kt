@@ -0,0 +1,125 @@
+package com.orgzly.android
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import com.orgzly.BuildConfig
+import com.orgzly.android.reminders.RemindersScheduler
+import com.orgzly.android.util.LogUtils
+import com.orgzly.android.widgets.ListWidgetProvider
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Collects changes of local data and passes them to reminders, list widget
+ * and sharing shortcuts once per burst of changes.
+ *
+ * Each of those rescans data when notified, so doing it after every change
+ * (like toggling a few checkboxes in a row) is wasteful.
+ */
+object InvalidationBus {
+    private val TAG = InvalidationBus::class.java.name
+
+    /* Changes are delivered after this much time without new ones... */
+    const val DEBOUNCE_MS = 300L
+
+    /* ...but not later than this after the first one. */
+    const val MAX_DELAY_MS = 2000L
+
+    /**
+     * @property bookIds books whose name, settings or existence changed, null if unknown
+     * @property noteIds notes which changed, null if unknown
+     */
+    data class Invalidation(val bookIds: Set<Long>?, val noteIds: Set<Long>?) {
+        fun hasBooks() = bookIds == null || bookIds.isNotEmpty()
+
+        fun hasNotes() = noteIds == null || noteIds.isNotEmpty()
+
+        operator fun plus(other: Invalidation) = Invalidation(
+                union(bookIds, other.bookIds),
+                union(noteIds, other.noteIds))
+
+        private fun union(a: Set<Long>?, b: Set<Long>?): Set<Long>? {
+            return if (a == null || b == null) null else a + b
+        }
+    }
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    private val deliverRunnable = Runnable { deliver() }
+
+    /* Guarded by this. */
+    private var pending: Invalidation? = null
+    private var pendingSince = 0L
+
+    private val absorbed = AtomicInteger()
+
+    private val delivered = AtomicInteger()
+
+    /**
+     * Number of invalidations merged into an already pending one.
+     */
+    @JvmStatic
+    fun absorbedCount(): Int = absorbed.get()
+
+    /**
+     * Number of times pending invalidation was delivered.
+     */
+    @JvmStatic
+    fun deliveredCount(): Int = delivered.get()
+
+    @JvmStatic
+    fun invalidate(bookIds: Set<Long>?, noteIds: Set<Long>?) {
+        val invalidation = Invalidation(bookIds, noteIds)
+
+        if (!invalidation.hasBooks() && !invalidation.hasNotes()) {
+            return
+        }
+
+        val now = SystemClock.uptimeMillis()
+
+        synchronized(this) {
+            val current = pending
+
+            if (current == null) {
+                pending = invalidation
+                pendingSince = now
+            } else {
+                pending = current + invalidation
+                absorbed.incrementAndGet()
+            }
+
+            handler.removeCallbacks(deliverRunnable)
+            handler.postAtTime(deliverRunnable, minOf(now + DEBOUNCE_MS, pendingSince + MAX_DELAY_MS))
+        }
+    }
+
+    @JvmStatic
+    fun invalidateAll() {
+        invalidate(null, null)
+    }
+
+    private fun deliver() {
+        val invalidation = synchronized(this) {
+            pending.also { pending = null }
+        } ?: return
+
+        delivered.incrementAndGet()
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Delivering $invalidation (absorbed so far: ${absorbed.get()})")
+
+        deliver(App.getAppContext(), invalidation)
+    }
+
+    private fun deliver(context: Context, invalidation: Invalidation) {
+        if (invalidation.hasNotes()) {
+            RemindersScheduler.notifyDataSetChanged(context)
+        }
+
+        ListWidgetProvider.notifyDataSetChanged(context)
+
+        if (invalidation.hasBooks()) {
+            SharingShortcutsManager().replaceDynamicShortcuts(context, invalidation.bookIds)
+        }
+    }
+}
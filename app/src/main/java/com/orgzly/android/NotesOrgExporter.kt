@@ -1,11 +1,14 @@
 package com.orgzly.android
 
+import android.database.Cursor
 import android.util.Log
 import com.orgzly.R
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.data.mappers.OrgMapper
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.org.OrgHead
+import com.orgzly.org.OrgProperties
 import com.orgzly.org.parser.OrgParserSettings
 import com.orgzly.org.parser.OrgParserWriter
 import java.io.File
@@ -28,23 +31,88 @@ class NotesOrgExporter(val dataRepository: DataRepository) {
         }
     }
 
+    /**
+     * Streams notes to [writer] as they are read from the database, one note at a time.
+     * Properties come from the same query, so memory use does not depend on the book size.
+     */
     @Throws(IOException::class)
     fun exportBook(book: Book, writer: Writer) {
         val orgParserSettings = getOrgParserSettingsFromPreferences()
         val orgWriter = OrgParserWriter(orgParserSettings)
 
+        val isIndented = book.isIndented == true
+
         // Write preface
         writer.write(orgWriter.whiteSpacedFilePreface(book.preface))
 
-        // Write each note
-        dataRepository.getNotes(book.name).forEach { noteView ->
-            val note = noteView.note
+        // Write each note, once all of its properties are read
+        dataRepository.useNotesWithPropertiesCursor(book.id) { cursor ->
+            val columns = Columns(cursor)
+
+            var noteId = 0L
+            var level = 0
+            var head: OrgHead? = null
 
-            val head = OrgMapper.toOrgHead(noteView).apply {
-                properties = OrgMapper.toOrgProperties(dataRepository.getNoteProperties(note.id))
+            while (cursor.moveToNext()) {
+                val id = cursor.getLong(columns.id)
+
+                if (id != noteId) {
+                    head?.let {
+                        writer.write(orgWriter.whiteSpacedHead(it, level, isIndented))
+                    }
+
+                    noteId = id
+                    level = cursor.getInt(columns.level)
+                    head = toOrgHead(cursor, columns)
+                }
+
+                if (!cursor.isNull(columns.propertyName)) {
+                    head?.properties?.put(
+                            cursor.getString(columns.propertyName),
+                            cursor.getString(columns.propertyValue))
+                }
             }
 
-            writer.write(orgWriter.whiteSpacedHead(head, note.position.level, book.isIndented == true))
+            head?.let {
+                writer.write(orgWriter.whiteSpacedHead(it, level, isIndented))
+            }
+        }
+    }
+
+    private class Columns(cursor: Cursor) {
+        val id = cursor.getColumnIndexOrThrow("id")
+        val level = cursor.getColumnIndexOrThrow("level")
+        val title = cursor.getColumnIndexOrThrow("title")
+        val tags = cursor.getColumnIndexOrThrow("tags")
+        val state = cursor.getColumnIndexOrThrow("state")
+        val priority = cursor.getColumnIndexOrThrow("priority")
+        val content = cursor.getColumnIndexOrThrow("content")
+        val scheduled = cursor.getColumnIndexOrThrow("scheduled_range_string")
+        val deadline = cursor.getColumnIndexOrThrow("deadline_range_string")
+        val closed = cursor.getColumnIndexOrThrow("closed_range_string")
+        val clock = cursor.getColumnIndexOrThrow("clock_range_string")
+        val propertyName = cursor.getColumnIndexOrThrow("property_name")
+        val propertyValue = cursor.getColumnIndexOrThrow("property_value")
+    }
+
+    /**
+     * [OrgHead] of the note at cursor's position, with empty properties.
+     */
+    private fun toOrgHead(cursor: Cursor, columns: Columns): OrgHead {
+        fun string(index: Int): String? = if (cursor.isNull(index)) null else cursor.getString(index)
+
+        return OrgMapper.toOrgHead(
+                cursor.getString(columns.title),
+                string(columns.tags),
+                string(columns.state),
+                string(columns.priority),
+                string(columns.scheduled),
+                string(columns.deadline),
+                string(columns.closed),
+                string(columns.clock),
+                string(columns.content)
+        ).apply {
+            properties = OrgProperties()
         }
     }
 
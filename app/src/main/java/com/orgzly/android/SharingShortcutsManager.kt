@@ -23,51 +23,72 @@ class SharingShortcutsManager {
         App.appComponent.inject(this)
     }
 
-    fun replaceDynamicShortcuts(context: Context) {
+    /**
+     * @param bookIds books to update shortcuts for, all shortcuts are replaced if null
+     */
+    @JvmOverloads
+    fun replaceDynamicShortcuts(context: Context, bookIds: Set<Long>? = null) {
         App.EXECUTORS.diskIO().execute {
             val t1 = System.currentTimeMillis()
 
-            val shortcuts = createShortcuts(context)
-                .take(ShortcutManagerCompat.getMaxShortcutCountPerActivity(context))
+            if (bookIds == null) {
+                val shortcuts = dataRepository.getBooks()
+                    .mapNotNull { bookView -> createShortcut(context, bookView.book) } // FIXME: ANR
+                    .take(ShortcutManagerCompat.getMaxShortcutCountPerActivity(context))
 
-            ShortcutManagerCompat.removeAllDynamicShortcuts(context)
-            ShortcutManagerCompat.addDynamicShortcuts(context, shortcuts)
+                ShortcutManagerCompat.removeAllDynamicShortcuts(context)
+                ShortcutManagerCompat.addDynamicShortcuts(context, shortcuts)
 
-            if (BuildConfig.LOG_DEBUG) {
-                val t2 = System.currentTimeMillis()
-                LogUtils.d(TAG, "Published ${shortcuts.size} shortcuts in ${t2 - t1}ms")
+                if (BuildConfig.LOG_DEBUG) {
+                    val t2 = System.currentTimeMillis()
+                    LogUtils.d(TAG, "Published ${shortcuts.size} shortcuts in ${t2 - t1}ms")
+                }
+
+            } else {
+                bookIds.forEach { bookId ->
+                    val shortcut = dataRepository.getBook(bookId)?.let { book ->
+                        createShortcut(context, book)
+                    }
+
+                    if (shortcut != null) {
+                        ShortcutManagerCompat.pushDynamicShortcut(context, shortcut)
+                    } else {
+                        ShortcutManagerCompat.removeDynamicShortcuts(context, listOf(shortcutIdFromBookId(bookId)))
+                    }
+                }
+
+                if (BuildConfig.LOG_DEBUG) {
+                    val t2 = System.currentTimeMillis()
+                    LogUtils.d(TAG, "Updated shortcuts for ${bookIds.size} books in ${t2 - t1}ms")
+                }
             }
         }
     }
 
-    private fun createShortcuts(context: Context): List<ShortcutInfoCompat> {
-        return dataRepository.getBooks().mapNotNull { bookView -> // FIXME: ANR
-            val book = bookView.book
-
-            if (hasRequestedDirectShare(book)) {
-                val bookId = book.id
+    private fun createShortcut(context: Context, book: Book): ShortcutInfoCompat? {
+        if (!hasRequestedDirectShare(book)) {
+            return null
+        }
 
-                val id = shortcutIdFromBookId(bookId)
-                val name = book.name
-                val title = BookUtils.getFragmentTitleForBook(book)
-                val icon = IconCompat.createWithResource(context, R.mipmap.cic_shortcut_notebook)
-                val categories = setOf(categoryTextShareTarget)
-                val intent = ShareActivity.createNewNoteIntent(context).apply {
-                    putExtra(AppIntent.EXTRA_BOOK_ID, bookId);
-                }
+        val bookId = book.id
 
-                ShortcutInfoCompat.Builder(context, id)
-                    .setShortLabel(name)
-                    .setLongLabel(title)
-                    .setIcon(icon)
-                    .setCategories(categories)
-                    .setIntent(intent)
-                    // .setRank(1)
-                    .build()
-            } else {
-                null
-            }
+        val id = shortcutIdFromBookId(bookId)
+        val name = book.name
+        val title = BookUtils.getFragmentTitleForBook(book)
+        val icon = IconCompat.createWithResource(context, R.mipmap.cic_shortcut_notebook)
+        val categories = setOf(categoryTextShareTarget)
+        val intent = ShareActivity.createNewNoteIntent(context).apply {
+            putExtra(AppIntent.EXTRA_BOOK_ID, bookId);
         }
+
+        return ShortcutInfoCompat.Builder(context, id)
+            .setShortLabel(name)
+            .setLongLabel(title)
+            .setIcon(icon)
+            .setCategories(categories)
+            .setIntent(intent)
+            // .setRank(1)
+            .build()
     }
 
     private fun hasRequestedDirectShare(book: Book): Boolean {
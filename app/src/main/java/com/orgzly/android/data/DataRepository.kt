@@ -4,6 +4,7 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
 import android.content.res.Resources
+import android.database.Cursor
 import android.media.MediaScannerConnection
 import android.net.Uri
 import android.os.Build
@@ -11,7 +12,6 @@ import android.os.Handler
 import android.text.TextUtils
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
-import androidx.lifecycle.map
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
 import androidx.sqlite.db.SupportSQLiteQuery
 import androidx.sqlite.db.SupportSQLiteQueryBuilder
@@ -21,24 +21,29 @@ import com.google.gson.JsonSyntaxException
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.*
-import com.orgzly.android.data.mappers.OrgMapper
+import com.orgzly.android.db.BulkNoteLoader
+import com.orgzly.android.db.NotePositions
 import com.orgzly.android.db.NotesClipboard
 import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.dao.NoteDao
 import com.orgzly.android.db.dao.NoteDao.NoteIdBookId
 import com.orgzly.android.db.dao.NoteViewDao
+import com.orgzly.android.db.dao.ReminderOccurrenceDao
 import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.db.entity.*
 import com.orgzly.android.db.mappers.OrgTimestampMapper
+import com.orgzly.android.git.GitLastCommitIndex
+import com.orgzly.android.git.GitPreferencesFromRepoPrefs
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.RepoPreferences
 import com.orgzly.android.query.Query
-import com.orgzly.android.query.sql.SqliteQueryBuilder
-import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.query.QueryCache
 import com.orgzly.android.repos.*
 import com.orgzly.android.repos.Rook
 import com.orgzly.android.repos.VersionedRook
 import com.orgzly.android.savedsearch.FileSavedSearchStore
 import com.orgzly.android.sync.BookSyncStatus
+import com.orgzly.android.sync.SyncWriter
 import com.orgzly.android.ui.NotePlace
 import com.orgzly.android.ui.Place
 import com.orgzly.android.ui.note.NoteBuilder
@@ -55,7 +60,6 @@ import com.orgzly.org.datetime.OrgRange
 import com.orgzly.org.parser.OrgNestedSetParserListener
 import com.orgzly.org.parser.OrgNodeInSet
 import com.orgzly.org.parser.OrgParser
-import com.orgzly.org.parser.OrgParserWriter
 import com.orgzly.org.utils.StateChangeLogic
 import java.io.*
 import java.util.*
@@ -118,7 +122,8 @@ class DataRepository @Inject constructor(
                     BookAction.Type.PROGRESS,
                     resources.getString(R.string.force_saving_to_uri, repoEntity)))
 
-            saveBookToRepo(repoEntity, repositoryPath, book, BookFormat.ORG)
+            saveBookToRepo(repoEntity, repositoryPath, book, BookFormat.ORG,
+                    pushToGit = AppPreferences.gitPushSingleBookImmediately(context))
 
             val savedBook = getBookView(bookId)
 
@@ -143,6 +148,9 @@ class DataRepository @Inject constructor(
      * Exports `Book`, uploads it to repo and link it to newly created
      * [com.orgzly.android.repos.VersionedRook].
      *
+     * Database is updated through [writer], after the upload.
+     *
+     * @param pushToGit false to only commit to Git repository, with the push made by the caller
      * @return [Book]
      * @throws IOException
      */
@@ -151,7 +159,9 @@ class DataRepository @Inject constructor(
             repoEntity: Repo,
             repositoryPath: String,
             bookView: BookView,
-            @Suppress("UNUSED_PARAMETER") format: BookFormat) {
+            @Suppress("UNUSED_PARAMETER") format: BookFormat,
+            writer: SyncWriter = SyncWriter.DIRECT,
+            pushToGit: Boolean = true) {
 
         val uploadedBook: VersionedRook
 
@@ -163,16 +173,22 @@ class DataRepository @Inject constructor(
             NotesOrgExporter(this).exportBook(bookView.book, tmpFile)
 
             /* Upload to repo. */
-            uploadedBook = repo.storeBook(tmpFile, repositoryPath)
+            uploadedBook = if (repo is GitRepo) {
+                repo.storeBook(tmpFile, repositoryPath, pushToGit)
+            } else {
+                repo.storeBook(tmpFile, repositoryPath)
+            }
 
         } finally {
             /* Delete temporary file. */
             tmpFile.delete()
         }
 
-        updateBookLinkAndSync(bookView.book.id, uploadedBook)
+        writer.write {
+            updateBookLinkAndSync(bookView.book.id, uploadedBook)
 
-        updateBookIsModified(bookView.book.id, false)
+            updateBookIsModified(bookView.book.id, false)
+        }
 
     }
 
@@ -676,11 +692,9 @@ class DataRepository @Inject constructor(
                 targetPosition: $targetPosition
 
                 levelOffset: $levelOffset
-
-                Clipboard entries: ${clipboard.entries}
                 """.trimIndent())
 
-        makeSpaceForNewNotes(clipboard.count, targetNote, place)
+        val space = makeSpaceForNewNotes(clipboard.count, targetNote, place)
 
         var lastNoteId = 0L
         val parentIds = ArrayDeque<Long>().apply {
@@ -688,51 +702,65 @@ class DataRepository @Inject constructor(
         }
         val idsMap = mutableMapOf<Long, Long>()
 
-        for (entry in clipboard.entries) {
-            val level = levelOffset + entry.note.position.level
+        /* Entries are read as they are pasted, properties are inserted per batch. */
+        clipboard.useEntries { entries ->
+            entries.chunked(PASTE_BATCH_SIZE).forEach { batch ->
+                val batchProperties = mutableListOf<NoteProperty>()
 
-            val lft = targetPosition.lft + entry.note.position.lft - 1
-            val rgt = targetPosition.lft + entry.note.position.rgt - 1
+                for (entry in batch) {
+                    val level = levelOffset + entry.note.position.level
 
-            val foldedUnderId = idsMap[entry.note.position.foldedUnderId]
-                    ?: if (targetPosition.foldedUnder != 0L) targetPosition.foldedUnder else 0
+                    val lft = space.position(entry.note.position.lft)
+                    val rgt = space.position(entry.note.position.rgt)
 
-            while (lastNoteId != 0L && entry.note.position.level > parentIds.size) {
-                parentIds.addLast(lastNoteId)
-            }
+                    val foldedUnderId = idsMap[entry.note.position.foldedUnderId]
+                            ?: if (targetPosition.foldedUnder != 0L) targetPosition.foldedUnder else 0
 
-            while (parentIds.size > 0 && entry.note.position.level < parentIds.size) {
-                parentIds.removeLast()
-            }
+                    while (lastNoteId != 0L && entry.note.position.level > parentIds.size) {
+                        parentIds.addLast(lastNoteId)
+                    }
+
+                    while (parentIds.size > 0 && entry.note.position.level < parentIds.size) {
+                        parentIds.removeLast()
+                    }
 
-            val note = entry.note.copy(
-                    id = 0,
-                    position = entry.note.position.copy(
-                            bookId = targetNote.position.bookId,
-                            lft = lft,
-                            rgt = rgt,
-                            level = level,
-                            parentId = parentIds.peekLast() ?: 0,
-                            foldedUnderId = foldedUnderId
+                    val note = entry.note.copy(
+                            id = 0,
+                            position = entry.note.position.copy(
+                                    bookId = targetNote.position.bookId,
+                                    lft = lft,
+                                    rgt = rgt,
+                                    level = level,
+                                    parentId = parentIds.peekLast() ?: 0,
+                                    foldedUnderId = foldedUnderId
+                            )
                     )
-            )
 
-            lastNoteId = db.note().insert(note)
+                    lastNoteId = db.note().insert(note)
 
-            val properties = OrgProperties().apply {
-                entry.properties.forEach {
-                    put(it.name, it.value)
-                }
-            }
+                    db.noteTag().replaceOwn(lastNoteId, Note.dbDeSerializeTags(note.tags))
 
-            insertNoteProperties(lastNoteId, properties)
-            insertNoteEvents(lastNoteId, note.title, note.content, properties)
+                    val properties = OrgProperties().apply {
+                        entry.properties.forEach {
+                            put(it.name, it.value)
+                        }
+                    }
 
-            idsMap[entry.note.id] = lastNoteId
+                    properties.all.forEachIndexed { i, property ->
+                        batchProperties.add(NoteProperty(lastNoteId, i + 1, property.name, property.value))
+                    }
+
+                    insertNoteEvents(lastNoteId, note.title, note.content, properties)
+
+                    idsMap[entry.note.id] = lastNoteId
 
-            pastedNoteIds.add(lastNoteId)
+                    pastedNoteIds.add(lastNoteId)
+
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Inserted $lastNoteId $note")
+                }
 
-            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Inserted $lastNoteId $note")
+                db.noteProperty().insert(batchProperties)
+            }
         }
 
         db.noteAncestor().insertAncestorsForNotes(pastedNoteIds)
@@ -860,8 +888,7 @@ class DataRepository @Inject constructor(
 
         db.noteAncestor().deleteForSubtrees(selectedIds)
 
-        makeSpaceForNewNotes(alignedNotes.size, targetNote, place)
-
+        val space = makeSpaceForNewNotes(alignedNotes.size, targetNote, place)
 
         val ids = mutableSetOf<Long>()
         val sourceBookIds = mutableSetOf<Long>()
@@ -872,8 +899,8 @@ class DataRepository @Inject constructor(
                     note.id,
                     targetNote.position.bookId,
                     targetPosition.level + note.position.level - 1,
-                    targetPosition.lft + note.position.lft - 1,
-                    targetPosition.lft + note.position.rgt - 1,
+                    space.position(note.position.lft),
+                    space.position(note.position.rgt),
                     // Set parent ID for top-level notes
                     if (note.position.level == 1) {
                         targetPosition.parentId
@@ -917,14 +944,12 @@ class DataRepository @Inject constructor(
     }
 
     data class TargetPosition(
-            val lft: Long = 0,
             val level: Int = 0,
             val parentId: Long = 0,
             val foldedUnder: Long = 0) {
 
         companion object {
             fun getInstance(db: OrgzlyDatabase, targetNote: Note, place: Place): TargetPosition {
-                val lft: Long
                 val level: Int
                 val parentId: Long
 
@@ -936,7 +961,6 @@ class DataRepository @Inject constructor(
 
                 when (place) {
                     Place.ABOVE -> {
-                        lft = targetNote.position.lft
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -948,17 +972,7 @@ class DataRepository @Inject constructor(
                         if (BuildConfig.LOG_DEBUG)
                             LogUtils.d(TAG, "lastDescendant: $lastDescendant")
 
-
-                        if (lastDescendant != null) {
-                            // Insert after last descendant with highest level
-                            lft = lastDescendant.position.rgt + 1
-                            level = lastDescendant.position.level
-
-                        } else {
-                            // Insert just under the target note
-                            lft = targetNote.position.lft + 1
-                            level = targetNote.position.level + 1
-                        }
+                        level = lastDescendant?.position?.level ?: (targetNote.position.level + 1)
 
                         if (targetNote.position.isFolded) {
                             foldedUnder = targetNote.id
@@ -968,7 +982,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.UNDER_AS_FIRST -> {
-                        lft = targetNote.position.lft + 1
                         level = targetNote.position.level + 1
 
                         if (targetNote.position.isFolded) {
@@ -979,7 +992,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.BELOW -> {
-                        lft = targetNote.position.rgt + 1
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -987,7 +999,7 @@ class DataRepository @Inject constructor(
                     else -> throw IllegalArgumentException("Unsupported place: $place")
                 }
 
-                return TargetPosition(lft, level, parentId, foldedUnder)
+                return TargetPosition(level, parentId, foldedUnder)
             }
         }
     }
@@ -1187,9 +1199,7 @@ class DataRepository @Inject constructor(
     }
 
     fun selectNotesFromQueryLiveData(queryString: String): LiveData<List<NoteView>> {
-        val parser = InternalQueryParser()
-
-        val query = parser.parse(queryString)
+        val query = QueryCache.parse(queryString)
 
         val sqlQuery = buildSqlQuery(query)
 
@@ -1203,18 +1213,24 @@ class DataRepository @Inject constructor(
     }
 
     private fun buildSqlQuery(query: Query): SupportSQLiteQuery {
-        val queryBuilder = SqliteQueryBuilder(context)
-
-        val (selection, selectionArgs, having, orderBy) = queryBuilder.build(query)
+        val (selection, selectionArgs, having, orderBy, noteSelection) = QueryCache.build(context, query)
 
         val s = mutableListOf<String>()
 
+        /* Conditions on notes, checked before joins. */
+        val n = mutableListOf<String>()
+
         if (query.condition != null) {
             s.add(selection)
         }
 
+        if (noteSelection.isNotEmpty()) {
+            n.add(noteSelection)
+        }
+
         if (query.options.agendaDays > 0) {
-            s.add("((scheduled_range_id IS NOT NULL AND scheduled_is_active = 1) OR (deadline_range_id IS NOT NULL AND deadline_is_active = 1) OR event_timestamp IS NOT NULL)")
+            s.add("(scheduled_is_active = 1 OR deadline_is_active = 1 OR event_timestamp IS NOT NULL)")
+            n.add("(notes.scheduled_is_active = 1 OR notes.deadline_is_active = 1 OR notes.id IN (SELECT note_id FROM note_events))")
         }
 
         if (!s.isEmpty() || !query.sortOrders.isEmpty()) {
@@ -1230,8 +1246,10 @@ class DataRepository @Inject constructor(
             "id"
         }
 
+        val notes = if (n.isEmpty()) "" else "WHERE " + TextUtils.join(" AND ", n)
+
         val supportQuery = SupportSQLiteQueryBuilder
-                .builder("(${NoteViewDao.QUERY_WITH_NOTE_EVENTS})")
+                .builder("(${NoteViewDao.QUERY_WITH_NOTE_EVENTS} $notes ${NoteViewDao.GROUP_BY_NOTE_EVENTS})")
                 .selection(selection2, selectionArgs.toTypedArray())
                 .groupBy(groupBy)
                 .having(having)
@@ -1249,6 +1267,16 @@ class DataRepository @Inject constructor(
         return db.noteView().getBookNotes(bookName)
     }
 
+    /**
+     * Passes book's notes joined with their properties to [block], for streaming large books.
+     * Cursor is read in a transaction, so all rows come from the same state of the book.
+     */
+    fun <T> useNotesWithPropertiesCursor(bookId: Long, block: (Cursor) -> T): T {
+        return db.runInTransaction(Callable {
+            db.noteView().getBookNotesWithPropertiesCursor(bookId).use(block)
+        })
+    }
+
     fun getVisibleNotesLiveData(bookId: Long, noteId: Long? = null): LiveData<List<NoteView>> {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, bookId)
 
@@ -1346,6 +1374,13 @@ class DataRepository @Inject constructor(
         return db.noteProperty().get(noteId)
     }
 
+    /**
+     * Properties of all notes, fetched at once, in their positions.
+     */
+    fun getNotesProperties(noteIds: Collection<Long>): Map<Long, List<NoteProperty>> {
+        return db.noteProperty().getForNotes(noteIds).groupBy { it.noteId }
+    }
+
     private fun setNoteProperty(noteId: Long, name: String, value: String) {
         db.noteProperty().upsert(noteId, name, value)
     }
@@ -1422,80 +1457,51 @@ class DataRepository @Inject constructor(
             }
         }
 
-        val newNotePosition = when (target.place) {
-            Place.ABOVE -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
+        /* If target note is not used, add note at the end with level 1. */
+        val (place, placeNote) = if (target.place == Place.UNSPECIFIED) {
+            Pair(Place.UNDER, db.note().getRootNode(target.bookId) ?: throw IOException("Root note not found"))
+        } else {
+            Pair(target.place, targetNote ?: throw IOException("Target note not found"))
+        }
 
-                NotePosition(
-                        bookId = target.bookId,
-                        lft = targetNote.position.lft,
-                        rgt = targetNote.position.lft + 1,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId)
-            }
+        if (place == Place.UNDER_AS_FIRST) {
+            TODO("Insert UNDER_AS_FIRST not implemented")
+        }
 
-            Place.BELOW -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
+        // Make space for new note
+        val space = makeSpaceForNewNotes(1, placeNote, place)
 
+        val newNotePosition = when (place) {
+            Place.ABOVE, Place.BELOW -> {
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt + 1,
-                        rgt = targetNote.position.rgt + 2,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId
-                )
+                        lft = space.position(1),
+                        rgt = space.position(2),
+                        level = placeNote.position.level,
+                        parentId = placeNote.position.parentId)
             }
 
             Place.UNDER -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
-
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt,
-                        rgt = targetNote.position.rgt + 1,
-                        level = targetNote.position.level + 1,
-                        parentId = targetNote.id,
-                        foldedUnderId = if (targetNote.position.isFolded) targetNote.id else 0
+                        lft = space.position(1),
+                        rgt = space.position(2),
+                        level = placeNote.position.level + 1,
+                        parentId = placeNote.id,
+                        foldedUnderId = if (placeNote.position.isFolded) placeNote.id else 0
                 )
             }
 
-            Place.UNDER_AS_FIRST -> {
-                TODO("Insert UNDER_AS_FIRST not implemented")
-            }
-
-            Place.UNSPECIFIED -> {
-                /* If target note is not used, add note at the end with level 1. */
-                val rootRgt = db.note().getMaxRgtForBook(target.bookId) ?: 0
-                val rootId = db.note().getRootNodeId(target.bookId) ?: 0
-
-                NotePosition(
-                        bookId = target.bookId,
-                        lft = rootRgt,
-                        rgt = rootRgt + 1,
-                        level = 1,
-                        parentId = rootId
-                )
-            }
+            else -> throw IllegalArgumentException("Unsupported place $place")
         }
 
-        // Make space for new note
         if (target.place != Place.UNSPECIFIED) {
-            makeSpaceForNewNotes(1, targetNote!!, target.place)
-
             val count = db.note().incrementDescendantsCountForAncestors(
                     target.bookId, newNotePosition.lft, newNotePosition.rgt)
 
             if (BuildConfig.LOG_DEBUG)
                 LogUtils.d(TAG, "Updated descendants_count for $count notes (${target.bookId}, ${newNotePosition.lft}, ${newNotePosition.rgt})")
-
         }
-        db.note().incrementRgtForRootNote(target.bookId)
 
         val noteEntity = Note(
                 0,
@@ -1516,6 +1522,8 @@ class DataRepository @Inject constructor(
 
         val noteId = db.note().insert(noteEntity)
 
+        db.noteTag().replaceOwn(noteId, notePayload.tags)
+
         replaceNoteProperties(noteId, notePayload.properties)
         replaceNoteEvents(noteId, notePayload.title, notePayload.content, notePayload.properties)
 
@@ -1531,36 +1539,10 @@ class DataRepository @Inject constructor(
     }
 
     /**
-     * Increment notes' lft and rgt to make space for new notes.
+     * Find or make space for new notes, renumbering the book only if there is no gap left.
      */
-    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place) {
-        val spaceRequired = numberOfNotes * 2
-
-        val bookId = targetNote.position.bookId
-
-        when (place) {
-            Place.ABOVE -> {
-                db.note().incrementLftForLftGe(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
-            }
-
-            Place.UNDER -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGeOrRoot(bookId, targetNote.position.rgt, spaceRequired)
-            }
-
-            Place.UNDER_AS_FIRST -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
-            }
-
-            Place.BELOW -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.rgt, spaceRequired)
-            }
-
-            else -> throw IllegalArgumentException("Unsupported paste relative position $place")
-        }
+    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place): NotePositions.Space {
+        return NotePositions(db).makeSpace(targetNote, place, numberOfNotes)
     }
 
 
@@ -1594,6 +1576,10 @@ class DataRepository @Inject constructor(
 
             val count = db.note().update(newNote)
 
+            if (newNote.tags != note.tags) {
+                db.noteTag().replaceOwn(noteId, notePayload.tags)
+            }
+
             // first we try to update our title in case we have child tasks or checkboxes
             tryUpdateTitleCookies(newNote)
 
@@ -1715,15 +1701,24 @@ class DataRepository @Inject constructor(
         }
     }
 
+    @JvmOverloads
     @Throws(IOException::class)
-    fun loadBookFromRepo(rook: Rook): BookView? {
+    fun loadBookFromRepo(rook: Rook, writer: SyncWriter = SyncWriter.DIRECT): BookView? {
         val repoRelativePath = BookName.getRepoRelativePath(rook.repoUri, rook.uri)
 
-        return loadBookFromRepo(rook.repoId, rook.repoType, rook.repoUri.toString(), repoRelativePath)
+        return loadBookFromRepo(rook.repoId, rook.repoType, rook.repoUri.toString(), repoRelativePath, writer)
     }
 
+    /**
+     * Downloads the book on the calling thread and stores it through [writer].
+     */
     @Throws(IOException::class)
-    fun loadBookFromRepo(repoId: Long, repoType: RepoType, repoUrl: String, repoRelativePath: String): BookView? {
+    fun loadBookFromRepo(
+            repoId: Long,
+            repoType: RepoType,
+            repoUrl: String,
+            repoRelativePath: String,
+            writer: SyncWriter = SyncWriter.DIRECT): BookView? {
         val book: BookView?
 
         val repo = getRepoInstance(repoId, repoType, repoUrl)
@@ -1736,7 +1731,7 @@ class DataRepository @Inject constructor(
             val bookName = BookName.fromRepoRelativePath(repoRelativePath)
 
             /* Store from file to Shelf. */
-            book = loadBookFromFile(bookName.name, bookName.format, tmpFile, vrook)
+            book = writer.write { loadBookFromFile(bookName.name, bookName.format, tmpFile, vrook) }
 
         } finally {
             tmpFile.delete()
@@ -1787,15 +1782,10 @@ class DataRepository @Inject constructor(
             selectedEncoding: String?): Long {
 
         try {
-            val encoding = Encoding.detect(filePath, selectedEncoding)
+            val reader = EncodingDetectingReader(FileInputStream(File(filePath)), selectedEncoding)
 
             return db.runInTransaction(Callable {
-                loadBookFromReader(
-                        bookName,
-                        vrook,
-                        InputStreamReader(FileInputStream(File(filePath)), encoding.used),
-                        encoding
-                )
+                loadBookFromReader(bookName, vrook, reader) { reader.encoding }
             })
 
         } catch (e: IOException) {
@@ -1813,7 +1803,7 @@ class DataRepository @Inject constructor(
             bookName: String,
             vrook: VersionedRook?,
             inReader: Reader,
-            encoding: Encoding): Long {
+            encoding: () -> Encoding): Long {
 
         val startedAt = System.currentTimeMillis()
 
@@ -1821,8 +1811,17 @@ class DataRepository @Inject constructor(
 
         val bookId = db.book().getOrInsert(bookName)
 
-        // Delete all notes from this book
-        db.note().deleteByBookId(bookId)
+        val prefs = AppPreferences.snapshot(context)
+
+        val bulkImport = prefs.bulkBookImport
+
+        /* Keep existing notes and only write the differences. */
+        val reconcile = bulkImport && db.note().getRootNodeId(bookId) != null
+
+        if (!reconcile) {
+            // Delete all notes from this book
+            db.note().deleteByBookId(bookId)
+        }
 
         /*
          * Maps node's lft to database id.
@@ -1835,121 +1834,78 @@ class DataRepository @Inject constructor(
         val notesWithParentSet = HashSet<Long>()
 
 
-        val useCreatedAtProperty = AppPreferences.createdAt(context)
-        val createdAtProperty = AppPreferences.createdAtProperty(context)
-        val startFolded = AppPreferences.notebooksStartFolded(context)
+        val useCreatedAtProperty = prefs.createdAt
+        val createdAtProperty = prefs.createdAtProperty
+        val startFolded = prefs.notebooksStartFolded
 
-        BufferedReader(inReader).use { reader ->
-            /*
-             * Create and run parser.
-             * When multiple formats are supported, decide which parser to use here.
-             */
-            OrgParser.Builder()
-                    .setInput(reader)
-                    .setTodoKeywords(AppPreferences.todoKeywordsSet(context))
-                    .setDoneKeywords(AppPreferences.doneKeywordsSet(context))
-                    .setListener(object : OrgNestedSetParserListener {
-                        @Throws(IOException::class)
-                        override fun onNode(node: OrgNodeInSet) {
-
-                            val scheduledRangeId = getOrgRangeId(node.head.scheduled)
-                            val deadlineRangeId = getOrgRangeId(node.head.deadline)
-                            val closedRangeId = getOrgRangeId(node.head.closed)
-                            val clockRangeId = getOrgRangeId(node.head.clock)
-
-                            var content: String? = null
-                            var contentLineCount = 0
-
-                            if (node.head.hasContent()) {
-                                content = node.head.content
-                                contentLineCount = MiscUtils.lineCount(node.head.content)
-                            }
-
-                            val position = NotePosition(
-                                    bookId = bookId,
-                                    lft = node.lft,
-                                    rgt = node.rgt,
-                                    level = node.level,
-                                    parentId = 0,
-                                    foldedUnderId = 0,
-                                    isFolded = startFolded && node.level > 0,
-                                    descendantsCount = node.descendantsCount)
-
-                            val note = Note(
-                                    0,
-                                    title = node.head.title,
-                                    priority = node.head.priority,
-                                    state = node.head.state,
-                                    scheduledRangeId = scheduledRangeId,
-                                    deadlineRangeId = deadlineRangeId,
-                                    closedRangeId = closedRangeId,
-                                    clockRangeId = clockRangeId,
-                                    tags = if (node.head.hasTags()) Note.dbSerializeTags(node.head.tags) else null,
-                                    createdAt = getCreatedAtFromProperty(node, useCreatedAtProperty, createdAtProperty),
-                                    content = content,
-                                    contentLineCount = contentLineCount,
-                                    position = position
-                            )
+        val bulkLoader = if (bulkImport) {
+            BulkNoteLoader(db, bookId, startFolded, reconcile)
+        } else {
+            null
+        }
 
-                            val noteId = db.note().insert(note)
-
-                            insertNoteProperties(noteId, node.head.properties)
-                            insertNoteEvents(noteId, note.title, note.content, node.head.properties)
-
-                            /*
-                             * Update notes' parent IDs and insert ancestors.
-                             * Going through all descendants - nodes between lft and rgt.
-                             *
-                             *  lft:  1    2    3    4    5   6
-                             *            L2   l1   r2   R2
-                             */
-                            lft2id[node.lft] = noteId
-                            for (index in node.lft + 1 until node.rgt) {
-                                val descendantId = lft2id[index]
-                                if (descendantId != null) {
-                                    if (!notesWithParentSet.contains(descendantId)) {
-                                        db.note().updateParentForNote(descendantId, noteId)
-
-                                        if (startFolded && position.level > 0) {
-                                            db.note().setFoldedUnder(descendantId, noteId)
-                                        }
-
-                                        notesWithParentSet.add(descendantId)
-                                    }
-
-                                    db.noteAncestor().insert(NoteAncestor(
-                                            noteId = descendantId,
-                                            bookId = bookId,
-                                            ancestorNoteId = noteId))
+        bulkLoader.use {
+            BufferedReader(inReader).use { reader ->
+                /*
+                 * Create and run parser.
+                 * When multiple formats are supported, decide which parser to use here.
+                 */
+                OrgParser.Builder()
+                        .setInput(reader)
+                        .setTodoKeywords(prefs.todoKeywords)
+                        .setDoneKeywords(prefs.doneKeywords)
+                        .setListener(object : OrgNestedSetParserListener {
+                            @Throws(IOException::class)
+                            override fun onNode(node: OrgNodeInSet) {
+                                val createdAt = getCreatedAtFromProperty(node, useCreatedAtProperty, createdAtProperty)
+
+                                if (bulkLoader != null) {
+                                    bulkLoader.add(node, createdAt)
+                                } else {
+                                    insertNode(bookId, node, createdAt, startFolded, lft2id, notesWithParentSet)
                                 }
                             }
-                        }
 
-                        @Throws(IOException::class)
-                        override fun onFile(file: OrgFile) {
-                            val book = Book(
-                                    bookId,
-                                    bookName,
-                                    mtime = vrook?.mtime, // Set book's mtime to remote book's
-                                    preface = file.preface, // TODO: Move to and rename OrgFileSettings
-                                    isIndented = file.settings.isIndented,
-                                    title = file.settings.title,
-                                    isDummy = false,
-                                    usedEncoding = encoding.used,
-                                    detectedEncoding = encoding.detected,
-                                    selectedEncoding = encoding.selected
-                            )
+                            @Throws(IOException::class)
+                            override fun onFile(file: OrgFile) {
+                                /* Decided by now, as the whole file has been read. */
+                                val (usedEncoding, detectedEncoding, selectedEncoding) = encoding()
+
+                                val book = Book(
+                                        bookId,
+                                        bookName,
+                                        mtime = vrook?.mtime, // Set book's mtime to remote book's
+                                        preface = file.preface, // TODO: Move to and rename OrgFileSettings
+                                        isIndented = file.settings.isIndented,
+                                        title = file.settings.title,
+                                        isDummy = false,
+                                        usedEncoding = usedEncoding,
+                                        detectedEncoding = detectedEncoding,
+                                        selectedEncoding = selectedEncoding
+                                )
+
+                                db.book().update(book)
+
+                                // Parse and store any properties in the book's preface
+                                if (file.preface.isNotEmpty())
+                                    setBookPropertiesFromPreface(bookId, file.preface)
+                            }
 
-                            db.book().update(book)
+                        })
+                        .build()
+                        .parse()
+            }
 
-                            // Parse and store any properties in the book's preface
-                            if (file.preface.isNotEmpty())
-                                setBookPropertiesFromPreface(bookId, file.preface)
-                        }
+            bulkLoader?.finish()?.let { stats ->
+                val totalMs = System.currentTimeMillis() - startedAt
+                val message = "$bookName: Loaded in $totalMs ms (writing ${stats.totalNanos / 1_000_000} ms): $stats"
 
-                    })
-                    .build()
-                    .parse()
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, message)
+
+                if (LogMajorEvents.isEnabled()) {
+                    db.appLog().insert(AppLog(0, System.currentTimeMillis(), LogMajorEvents.BOOK_LOAD, message))
+                }
+            }
         }
 
         if (BuildConfig.LOG_DEBUG)
@@ -1965,6 +1921,93 @@ class DataRepository @Inject constructor(
         return bookId
     }
 
+    /**
+     * Inserts a single parsed node and its related rows one by one.
+     * Used when bulk import is disabled, to compare against [BulkNoteLoader].
+     */
+    private fun insertNode(
+            bookId: Long,
+            node: OrgNodeInSet,
+            createdAt: Long?,
+            startFolded: Boolean,
+            lft2id: HashMap<Long, Long>,
+            notesWithParentSet: HashSet<Long>) {
+
+        val scheduledRangeId = getOrgRangeId(node.head.scheduled)
+        val deadlineRangeId = getOrgRangeId(node.head.deadline)
+        val closedRangeId = getOrgRangeId(node.head.closed)
+        val clockRangeId = getOrgRangeId(node.head.clock)
+
+        var content: String? = null
+        var contentLineCount = 0
+
+        if (node.head.hasContent()) {
+            content = node.head.content
+            contentLineCount = MiscUtils.lineCount(node.head.content)
+        }
+
+        val position = NotePosition(
+                bookId = bookId,
+                lft = NotePositions.spread(node.lft),
+                rgt = NotePositions.spread(node.rgt),
+                level = node.level,
+                parentId = 0,
+                foldedUnderId = 0,
+                isFolded = startFolded && node.level > 0,
+                descendantsCount = node.descendantsCount)
+
+        val note = Note(
+                0,
+                title = node.head.title,
+                priority = node.head.priority,
+                state = node.head.state,
+                scheduledRangeId = scheduledRangeId,
+                deadlineRangeId = deadlineRangeId,
+                closedRangeId = closedRangeId,
+                clockRangeId = clockRangeId,
+                tags = if (node.head.hasTags()) Note.dbSerializeTags(node.head.tags) else null,
+                createdAt = createdAt,
+                content = content,
+                contentLineCount = contentLineCount,
+                position = position
+        )
+
+        val noteId = db.note().insert(note)
+
+        db.noteTag().replaceOwn(noteId, Note.dbDeSerializeTags(note.tags))
+
+        insertNoteProperties(noteId, node.head.properties)
+        insertNoteEvents(noteId, note.title, note.content, node.head.properties)
+
+        /*
+         * Update notes' parent IDs and insert ancestors.
+         * Going through all descendants - nodes between lft and rgt.
+         *
+         *  lft:  1    2    3    4    5   6
+         *            L2   l1   r2   R2
+         */
+        lft2id[node.lft] = noteId
+        for (index in node.lft + 1 until node.rgt) {
+            val descendantId = lft2id[index]
+            if (descendantId != null) {
+                if (!notesWithParentSet.contains(descendantId)) {
+                    db.note().updateParentForNote(descendantId, noteId)
+
+                    if (startFolded && position.level > 0) {
+                        db.note().setFoldedUnder(descendantId, noteId)
+                    }
+
+                    notesWithParentSet.add(descendantId)
+                }
+
+                db.noteAncestor().insert(NoteAncestor(
+                        noteId = descendantId,
+                        bookId = bookId,
+                        ancestorNoteId = noteId))
+            }
+        }
+    }
+
     private fun setBookPropertiesFromPreface(bookId: Long, preface: String) {
         for (property: OrgProperty in OrgProperties.fromString(preface).all) {
             db.bookProperty().upsert(bookId, property.name, property.value)
@@ -2268,6 +2311,14 @@ class DataRepository @Inject constructor(
     }
 
     fun deleteRepo(id: Long) {
+        val repo = db.repo().get(id)
+
+        /* Directory can be set in repository's preferences, find it before they are deleted. */
+        if (repo?.type == RepoType.GIT) {
+            val prefs = GitPreferencesFromRepoPrefs(RepoPreferences(context, id, Uri.parse(repo.url)))
+            GitLastCommitIndex.remove(File(prefs.repositoryFilepath()))
+        }
+
         db.repo().delete(id)
 
         AppPreferences.repoPropsMapDelete(context, id)
@@ -2277,71 +2328,106 @@ class DataRepository @Inject constructor(
      * Times
      */
 
-    fun times(): List<ReminderTimeDao.NoteTime> {
-        return db.reminderTime().getAll()
+    fun times(noteId: Long, timeType: Int): List<ReminderTimeDao.NoteTime> {
+        return db.reminderTime().get(noteId, timeType)
+    }
+
+    /**
+     * Computes reminder occurrences for notes whose times changed since the last refresh.
+     *
+     * @param runTimes fire times of the note's time
+     * @return number of refreshed note times
+     */
+    fun refreshReminderOccurrences(runTimes: (ReminderTimeDao.NoteTime) -> List<Long>): Int {
+        return db.runInTransaction(Callable {
+            val times = db.reminderTime().getForStaleNotes()
+
+            val occurrences = times.flatMap { noteTime ->
+                runTimes(noteTime).map { runTime ->
+                    ReminderOccurrence(noteTime.noteId, noteTime.timeType, noteTime.orgTimestampString, runTime)
+                }
+            }
+
+            db.reminderOccurrence().deleteForStaleNotes()
+            db.reminderOccurrence().insert(occurrences)
+            db.reminderOccurrence().deleteStaleNotes()
+
+            times.size
+        })
+    }
+
+    /**
+     * Have occurrences of all notes computed again on the next refresh.
+     */
+    fun invalidateReminderOccurrences() {
+        db.reminderOccurrence().markAllStale()
+    }
+
+    fun firstReminderOccurrences(
+            timeType: Int, from: Long, before: Long, doneStates: Collection<String>
+    ): List<ReminderOccurrenceDao.NoteOccurrence> {
+        return db.reminderOccurrence().getFirstInInterval(timeType, from, before, doneStates)
+    }
+
+    fun nextReminderOccurrence(
+            from: Long, timeTypes: Collection<Int>, doneStates: Collection<String>
+    ): ReminderOccurrenceDao.NoteOccurrence? {
+        return db.reminderOccurrence().getNext(from, timeTypes, doneStates)
     }
 
     /**
      * Return all known tags
      */
     fun selectAllTagsLiveData(): LiveData<List<String>> {
-        return db.note().getDistinctTagsLiveData().map { tagsList ->
-            tagsList.flatMap { Note.dbDeSerializeTags(it) }.distinct().sorted()
-        }
+        return db.note().getDistinctTagsLiveData()
     }
 
     fun selectAllTags(): List<String> {
         return db.note().getDistinctTags()
-                .flatMap { tagsList ->
-                    Note.dbDeSerializeTags(tagsList)
-                }
-                .distinct()
     }
 
     /**
      * Using current states configuration, update states and titles for all notes.
      * Keywords that were part of the title can become states and vice versa.
+     *
+     * Headings are read in pages, with [progress] called after each page
+     * with the number of notes processed so far and the total.
      */
-    @Throws(IOException::class)
-    fun reParseNotesStateAndTitles(): Int {
-        val parserBuilder = OrgParser.Builder()
-                .setTodoKeywords(AppPreferences.todoKeywordsSet(context))
-                .setDoneKeywords(AppPreferences.doneKeywordsSet(context))
+    @JvmOverloads
+    fun reParseNotesStateAndTitles(progress: ((Int, Int) -> Unit)? = null): Int {
+        val prefs = AppPreferences.snapshot(context)
 
-        var updated = 0
+        val reparser = NoteHeadReparser(prefs.todoKeywords, prefs.doneKeywords)
 
-        val parserWriter = OrgParserWriter()
+        var updated = 0
 
         db.runInTransaction {
-            db.noteView().getAll().forEach { noteView ->
-                val note = noteView.note
-
-                val head = OrgMapper.toOrgHead(noteView)
+            val total = db.note().getCountForReparse()
 
-                val headString = parserWriter.whiteSpacedHead(head, note.position.level, false)
+            var processed = 0
+            var lastId = 0L
 
-                /* Re-parse heading using current setting of keywords. */
-                val file = parserBuilder
-                        .setInput(headString)
-                        .build()
-                        .parse()
+            do {
+                val notes = db.note().getForReparse(lastId, REPARSE_PAGE_SIZE)
 
-                if (file.headsInList.size != 1) {
-                    throw IOException("Got ${file.headsInList.size} notes after parsing \"$headString\" generated from $note")
+                notes.forEach { note ->
+                    reparser.reparse(note.state, note.priority, note.title)?.let { head ->
+                        updated += db.note().update(note.id, head.title, head.state, head.priority)
+                    }
                 }
 
-                val newHead = file.headsInList[0].head
-
-                /* Update if state, title or priority are different. */
-                if (!TextUtils.equals(newHead.state, head.state) ||
-                        !TextUtils.equals(newHead.title, head.title) ||
-                        !TextUtils.equals(newHead.priority, head.priority)) {
+                if (notes.isNotEmpty()) {
+                    lastId = notes.last().id
+                    processed += notes.size
 
-                    updated += db.note().update(note.id, newHead.title, newHead.state, newHead.priority)
+                    progress?.invoke(processed, total)
                 }
-            }
+
+            } while (notes.size == REPARSE_PAGE_SIZE)
         }
 
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Re-parsed headings, updated $updated notes")
+
         return updated
     }
 
@@ -2507,9 +2593,13 @@ class DataRepository @Inject constructor(
     fun updateTimestamps() {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
 
-        db.orgTimestamp().getAll().forEach {
-            val timestamp = OrgDateTime.doParse(it.string).calendar.timeInMillis
-            db.orgTimestamp().update(it.copy(timestamp = timestamp))
+        db.runInTransaction {
+            db.orgTimestamp().getAll().forEach {
+                val timestamp = OrgDateTime.doParse(it.string).calendar.timeInMillis
+                db.orgTimestamp().update(it.copy(timestamp = timestamp))
+            }
+
+            db.note().updatePlanningTimes()
         }
     }
 
@@ -2552,5 +2642,9 @@ class DataRepository @Inject constructor(
         private val TAG = DataRepository::class.java.name
 
         const val GETTING_STARTED_NOTEBOOK_RESOURCE_ID = R.raw.orgzly_getting_started
+
+        private const val REPARSE_PAGE_SIZE = 1000
+
+        private const val PASTE_BATCH_SIZE = 500
     }
 }
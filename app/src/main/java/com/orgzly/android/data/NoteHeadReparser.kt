@@ -0,0 +1,52 @@
+package com.orgzly.android.data
+
+/**
+ * Splits note's heading into state, priority and title using current keywords,
+ * the way the parser does when loading a book.
+ *
+ * Keywords are compiled into a single pattern once, so that headings of
+ * all notes can be checked without building a parser for each.
+ */
+class NoteHeadReparser(todoKeywords: Collection<String>, doneKeywords: Collection<String>) {
+    data class Head(val state: String?, val priority: String?, val title: String)
+
+    private val stateMatcher: Regex? = (todoKeywords + doneKeywords).let { keywords ->
+        if (keywords.isEmpty()) {
+            null
+        } else {
+            Regex("^(" + keywords.joinToString("|") { Regex.escape(it) } + ")(?:[ \\t]+|$)")
+        }
+    }
+
+    /**
+     * Returns new state, priority and title, or null if they remain the same.
+     */
+    fun reparse(state: String?, priority: String?, title: String): Head? {
+        /* Heading as it would be written to a file. */
+        val heading = listOfNotNull(state, priority?.let { "[#$it]" }, title).joinToString(" ")
+
+        val head = parse(heading)
+
+        return if (head == Head(state, priority, title)) null else head
+    }
+
+    fun parse(heading: String): Head {
+        var rest = heading
+
+        val state = stateMatcher?.find(rest)?.let { match ->
+            rest = rest.substring(match.range.last + 1)
+            match.groupValues[1]
+        }
+
+        val priority = PRIORITY_MATCHER.find(rest)?.let { match ->
+            rest = rest.substring(match.range.last + 1)
+            match.groupValues[1]
+        }
+
+        return Head(state, priority, rest)
+    }
+
+    companion object {
+        private val PRIORITY_MATCHER = Regex("^\\[#([A-Za-z0-9])](?:[ \\t]+|$)")
+    }
+}
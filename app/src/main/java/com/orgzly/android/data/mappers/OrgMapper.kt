@@ -26,21 +26,47 @@ object OrgMapper {
     fun toOrgHead(noteView: NoteView): OrgHead {
         val note = noteView.note
 
+        return toOrgHead(
+                note.title,
+                note.tags,
+                note.state,
+                note.priority,
+                noteView.scheduledRangeString,
+                noteView.deadlineRangeString,
+                noteView.closedRangeString,
+                noteView.clockRangeString,
+                note.content)
+    }
+
+    /**
+     * [OrgHead] without properties, from note's columns as stored in the database.
+     */
+    fun toOrgHead(
+            title: String,
+            tags: String?,
+            state: String?,
+            priority: String?,
+            scheduledRangeString: String?,
+            deadlineRangeString: String?,
+            closedRangeString: String?,
+            clockRangeString: String?,
+            content: String?): OrgHead {
+
         return OrgHead().apply {
-            title = note.title
+            this.title = title
 
-            setTags(Note.dbDeSerializeTags(note.tags).toTypedArray())
+            setTags(Note.dbDeSerializeTags(tags).toTypedArray())
 
-            state = note.state
+            this.state = state
 
-            priority = note.priority
+            this.priority = priority
 
-            scheduled = noteView.scheduledRangeString?.let { OrgRange.parse(it) }
-            deadline = noteView.deadlineRangeString?.let { OrgRange.parse(it) }
-            closed = noteView.closedRangeString?.let { OrgRange.parse(it) }
-            clock = noteView.clockRangeString?. let { OrgRange.parse(it) }
+            scheduled = scheduledRangeString?.let { OrgRange.parse(it) }
+            deadline = deadlineRangeString?.let { OrgRange.parse(it) }
+            closed = closedRangeString?.let { OrgRange.parse(it) }
+            clock = clockRangeString?.let { OrgRange.parse(it) }
 
-            content = note.content
+            this.content = content
         }
     }
 
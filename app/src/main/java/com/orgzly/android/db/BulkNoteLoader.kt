@@ -0,0 +1,698 @@
+package com.orgzly.android.db
+
+import androidx.sqlite.db.SupportSQLiteStatement
+import com.orgzly.android.db.dao.NoteDao.NoteForReconcile
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.OrgRange
+import com.orgzly.android.db.mappers.OrgTimestampMapper
+import com.orgzly.android.util.MiscUtils
+import com.orgzly.org.OrgActiveTimestamps
+import com.orgzly.org.datetime.OrgDateTime
+import com.orgzly.org.parser.OrgNodeInSet
+import java.io.Closeable
+import java.util.concurrent.TimeUnit
+import com.orgzly.org.datetime.OrgRange as OrgRangeValue
+
+/**
+ * Writes parsed nodes of a single book to the database.
+ *
+ * Nodes are collected in batches and written using compiled statements which are
+ * reused for every row. Ranges and timestamps are interned in memory, so each
+ * distinct string is looked up in the database at most once per load.
+ *
+ * Parents, folded-under IDs and ancestors are resolved from nested set values
+ * in one pass after all nodes are written (see [NoteTreeResolver]).
+ * Nested set values are stored spread apart (see [NotePositions]).
+ *
+ * In reconcile mode, the book's existing notes are kept. Parsed nodes are matched to them
+ * by content, then by title and then by position. Only the rows which differ are written,
+ * so matched notes keep their IDs and folding, and unchanged notes are not touched at all.
+ *
+ * Must be used inside a transaction.
+ */
+class BulkNoteLoader(
+        private val db: OrgzlyDatabase,
+        private val bookId: Long,
+        private val startFolded: Boolean,
+        private val reconcile: Boolean = false,
+        private val batchSize: Int = DEFAULT_BATCH_SIZE
+) : Closeable {
+
+    private val sqlite = db.openHelper.writableDatabase
+
+    private val insertNote = sqlite.compileStatement(INSERT_NOTE)
+    private val updateNote = sqlite.compileStatement(UPDATE_NOTE)
+    private val updatePosition = sqlite.compileStatement(UPDATE_POSITION)
+    private val deleteNote = sqlite.compileStatement(DELETE_NOTE)
+    private val insertProperty = sqlite.compileStatement(INSERT_PROPERTY)
+    private val deleteProperties = sqlite.compileStatement(DELETE_PROPERTIES)
+    private val insertEvent = sqlite.compileStatement(INSERT_EVENT)
+    private val deleteEvents = sqlite.compileStatement(DELETE_EVENTS)
+    private val insertTag = sqlite.compileStatement(INSERT_TAG)
+    private val deleteTags = sqlite.compileStatement(DELETE_TAGS)
+    private val insertAncestor = sqlite.compileStatement(INSERT_ANCESTOR)
+    private val deleteAncestors = sqlite.compileStatement(DELETE_ANCESTORS)
+    private val updateParent = sqlite.compileStatement(UPDATE_PARENT)
+
+    /** Interned org_ranges and org_timestamps IDs, keyed by their string. */
+    private val rangeIds = HashMap<String, Long>()
+    private val timestampIds = HashMap<String, Long>()
+
+    /* Batch to write in normal mode, the whole book in reconcile mode. */
+    private val pending = ArrayList<PendingNode>(batchSize)
+
+    /* Parents and ancestors are resolved once all nodes are written. */
+    private val tree = NoteTreeResolver()
+
+    /* State of every written or kept note, keyed by its ID. */
+    private val written = HashMap<Long, WrittenNote>()
+
+    private val stats = Stats()
+
+    private class PendingNode(val node: OrgNodeInSet, val createdAt: Long?) {
+        val signature by lazy { NoteSignature.of(node, createdAt) }
+    }
+
+    private class WrittenNote(
+            val parentId: Long,
+            val foldedUnderId: Long,
+            val isFolded: Boolean,
+            val isNew: Boolean,
+            val rewriteChain: Boolean)
+
+    fun add(node: OrgNodeInSet, createdAt: Long?) {
+        pending.add(PendingNode(node, createdAt))
+
+        if (!reconcile && pending.size >= batchSize) {
+            flush()
+        }
+    }
+
+    /**
+     * Writes all remaining nodes, their parents and ancestors.
+     * Returns the statistics for the whole load.
+     */
+    fun finish(): Stats {
+        if (reconcile) {
+            reconcileWithExisting()
+        } else {
+            flush()
+        }
+
+        timed({ stats.ancestorsNanos += it }) {
+            writeParentsAndAncestors()
+        }
+
+        return stats
+    }
+
+    private fun flush() {
+        if (pending.isEmpty()) {
+            return
+        }
+
+        for (item in pending) {
+            val noteId = insertNote(item.node, item.createdAt)
+
+            addToTree(noteId, item.node)
+        }
+
+        stats.nodes += pending.size
+        stats.batches++
+
+        pending.clear()
+    }
+
+    private fun addToTree(noteId: Long, node: OrgNodeInSet) {
+        tree.add(noteId, node.lft, node.rgt, node.level)
+
+        written[noteId] = WrittenNote(0, 0, startFolded && node.level > 0, true, true)
+    }
+
+    private fun keepInTree(note: NoteForReconcile, node: OrgNodeInSet) {
+        tree.add(note.id, node.lft, node.rgt, node.level)
+
+        /* Level change means different ancestors, even if the parent is the same note. */
+        written[note.id] = WrittenNote(
+                note.parentId, note.foldedUnderId, note.isFolded, false, note.level != node.level)
+    }
+
+    private fun reconcileWithExisting() {
+        val existing = db.note().getForReconcile(bookId)
+
+        val existingProperties = db.noteProperty().getForBook(bookId).groupBy(
+                { it.noteId }, { NoteSignature.property(it.name, it.value) })
+
+        val existingSignatures = existing.associate {
+            it.id to NoteSignature.of(it, existingProperties[it.id].orEmpty())
+        }
+
+        val incoming = pending.sortedBy { it.node.lft }
+
+        val matches = arrayOfNulls<NoteForReconcile>(incoming.size)
+        val unmatched = existing.mapTo(LinkedHashSet()) { it.id }
+
+        fun matchFirstUnmatched(i: Int, candidates: ArrayDeque<NoteForReconcile>?) {
+            while (candidates != null && candidates.isNotEmpty()) {
+                val candidate = candidates.removeFirst()
+                if (unmatched.remove(candidate.id)) {
+                    matches[i] = candidate
+                    return
+                }
+            }
+        }
+
+        /* The book's root (level 0) always stays the same note. */
+        val roots = ArrayDeque(existing.filter { it.level == 0 })
+        incoming.forEachIndexed { i, item ->
+            if (item.node.level == 0) {
+                matchFirstUnmatched(i, roots)
+            }
+        }
+
+        /* Same content, in order of appearance. */
+        val bySignature = existing.groupBy { existingSignatures.getValue(it.id) }.mapValues { ArrayDeque(it.value) }
+        incoming.forEachIndexed { i, item ->
+            if (matches[i] == null) {
+                matchFirstUnmatched(i, bySignature[item.signature])
+            }
+        }
+
+        /* Same title, in order of appearance. */
+        val byTitle = existing.groupBy { it.title }.mapValues { ArrayDeque(it.value) }
+        incoming.forEachIndexed { i, item ->
+            if (matches[i] == null) {
+                matchFirstUnmatched(i, byTitle[item.node.head.title])
+            }
+        }
+
+        /* Same position. */
+        val byLft = existing.groupBy { it.lft }.mapValues { ArrayDeque(it.value) }
+        incoming.forEachIndexed { i, item ->
+            if (matches[i] == null) {
+                matchFirstUnmatched(i, byLft[NotePositions.spread(item.node.lft)])
+            }
+        }
+
+        timed({ stats.notesNanos += it }) {
+            unmatched.forEach { noteId ->
+                with(deleteNote) {
+                    clearBindings()
+                    bindLong(1, noteId)
+                    executeUpdateDelete()
+                }
+            }
+        }
+
+        incoming.forEachIndexed { i, item ->
+            val node = item.node
+            val note = matches[i]
+
+            when {
+                note == null -> {
+                    addToTree(insertNote(node, item.createdAt), node)
+                    stats.inserted++
+                }
+
+                existingSignatures[note.id] == item.signature -> {
+                    val isMoved = note.lft != NotePositions.spread(node.lft)
+                            || note.rgt != NotePositions.spread(node.rgt)
+                            || note.level != node.level
+                            || note.descendantsCount != node.descendantsCount
+
+                    if (isMoved) {
+                        timed({ stats.notesNanos += it }) {
+                            with(updatePosition) {
+                                clearBindings()
+                                bindLong(1, NotePositions.spread(node.lft))
+                                bindLong(2, NotePositions.spread(node.rgt))
+                                bindLong(3, node.level.toLong())
+                                bindLong(4, node.descendantsCount.toLong())
+                                bindLong(5, note.id)
+                                executeUpdateDelete()
+                            }
+                        }
+                        stats.moved++
+                    } else {
+                        stats.unchanged++
+                    }
+
+                    keepInTree(note, node)
+                }
+
+                else -> {
+                    updateNote(note, node, item.createdAt)
+                    stats.updated++
+
+                    keepInTree(note, node)
+                }
+            }
+        }
+
+        stats.nodes += incoming.size
+        stats.deleted += unmatched.size
+
+        pending.clear()
+    }
+
+    private fun insertNote(node: OrgNodeInSet, createdAt: Long?): Long {
+        val head = node.head
+
+        val ranges = timed({ stats.rangesNanos += it }) { getOrgRangeIds(node) }
+
+        val content = if (head.hasContent()) head.content else null
+
+        val noteId = timed({ stats.notesNanos += it }) {
+            with(insertNote) {
+                clearBindings()
+                bindNullable(1, createdAt)
+                bindString(2, head.title)
+                bindNullable(3, if (head.hasTags()) Note.dbSerializeTags(head.tags) else null)
+                bindNullable(4, head.state)
+                bindNullable(5, head.priority)
+                bindNullable(6, content)
+                bindLong(7, if (content != null) MiscUtils.lineCount(content).toLong() else 0)
+                bindNullable(8, ranges[0])
+                bindNullable(9, ranges[1])
+                bindNullable(10, ranges[2])
+                bindNullable(11, ranges[3])
+                bindLong(12, bookId)
+                bindLong(13, NotePositions.spread(node.lft))
+                bindLong(14, NotePositions.spread(node.rgt))
+                bindLong(15, node.level.toLong())
+                bindLong(16, if (startFolded && node.level > 0) 1 else 0)
+                bindLong(17, node.descendantsCount.toLong())
+                executeInsert()
+            }
+        }
+
+        writeTags(noteId, node)
+
+        writePropertiesAndEvents(noteId, node)
+
+        return noteId
+    }
+
+    private fun updateNote(note: NoteForReconcile, node: OrgNodeInSet, createdAt: Long?) {
+        val noteId = note.id
+
+        val head = node.head
+
+        val tags = if (head.hasTags()) Note.dbSerializeTags(head.tags) else null
+
+        val ranges = timed({ stats.rangesNanos += it }) { getOrgRangeIds(node) }
+
+        val content = if (head.hasContent()) head.content else null
+
+        timed({ stats.notesNanos += it }) {
+            with(updateNote) {
+                clearBindings()
+                bindNullable(1, createdAt)
+                bindString(2, head.title)
+                bindNullable(3, tags)
+                bindNullable(4, head.state)
+                bindNullable(5, head.priority)
+                bindNullable(6, content)
+                bindLong(7, if (content != null) MiscUtils.lineCount(content).toLong() else 0)
+                bindNullable(8, ranges[0])
+                bindNullable(9, ranges[1])
+                bindNullable(10, ranges[2])
+                bindNullable(11, ranges[3])
+                bindLong(12, NotePositions.spread(node.lft))
+                bindLong(13, NotePositions.spread(node.rgt))
+                bindLong(14, node.level.toLong())
+                bindLong(15, node.descendantsCount.toLong())
+                bindLong(16, noteId)
+                executeUpdateDelete()
+            }
+
+            with(deleteProperties) {
+                bindLong(1, noteId)
+                executeUpdateDelete()
+            }
+
+            with(deleteEvents) {
+                bindLong(1, noteId)
+                executeUpdateDelete()
+            }
+        }
+
+        /* Rewriting own tags also rewrites tags inherited by descendants. */
+        if (tags != note.tags) {
+            timed({ stats.tagsNanos += it }) {
+                with(deleteTags) {
+                    bindLong(1, noteId)
+                    executeUpdateDelete()
+                }
+            }
+
+            writeTags(noteId, node)
+        }
+
+        writePropertiesAndEvents(noteId, node)
+    }
+
+    /**
+     * Own tags only. Inherited ones are added by triggers, once ancestors are written.
+     */
+    private fun writeTags(noteId: Long, node: OrgNodeInSet) {
+        if (!node.head.hasTags()) {
+            return
+        }
+
+        timed({ stats.tagsNanos += it }) {
+            node.head.tags.forEach { tag ->
+                with(insertTag) {
+                    clearBindings()
+                    bindLong(1, noteId)
+                    bindString(2, tag)
+                    executeInsert()
+                }
+            }
+        }
+    }
+
+    private fun writePropertiesAndEvents(noteId: Long, node: OrgNodeInSet) {
+        val head = node.head
+
+        timed({ stats.propertiesNanos += it }) {
+            var position = 1L
+
+            head.properties.all.forEach { property ->
+                with(insertProperty) {
+                    clearBindings()
+                    bindLong(1, noteId)
+                    bindLong(2, position++)
+                    bindString(3, property.name)
+                    bindString(4, property.value)
+                    executeInsert()
+                }
+            }
+        }
+
+        timed({ stats.eventsNanos += it }) {
+            /* Events may come from the note's title, content or properties. */
+            if (head.title.isNotEmpty()) {
+                writeEvents(noteId, head.title)
+            }
+
+            if (head.hasContent()) {
+                writeEvents(noteId, head.content)
+            }
+
+            head.properties.all.forEach { property ->
+                writeEvents(noteId, property.value)
+            }
+        }
+    }
+
+    private fun writeEvents(noteId: Long, str: String) {
+        OrgActiveTimestamps.parse(str).forEach { range ->
+            getOrgRangeId(range)?.let { orgRangeId ->
+                with(insertEvent) {
+                    clearBindings()
+                    bindLong(1, noteId)
+                    bindLong(2, orgRangeId)
+                    executeInsert()
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates parent and folded-under IDs which changed and inserts ancestors
+     * of notes whose chain of ancestors changed, in a single pass over the book.
+     */
+    private fun writeParentsAndAncestors() {
+        /* Notes whose ancestors are (re)written. Their descendants must follow. */
+        val changedChains = HashSet<Long>()
+
+        tree.resolve { noteId, ancestorIds, ancestorLevels, depth ->
+            val note = written.getValue(noteId)
+
+            val parentId = if (depth > 0) ancestorIds[depth - 1] else 0
+
+            /* Hidden under the closest folded ancestor. */
+            var foldedUnderId = 0L
+            for (d in depth - 1 downTo 0) {
+                if (ancestorLevels[d] > 0 && written.getValue(ancestorIds[d]).isFolded) {
+                    foldedUnderId = ancestorIds[d]
+                    break
+                }
+            }
+
+            if (parentId != note.parentId || foldedUnderId != note.foldedUnderId) {
+                with(updateParent) {
+                    clearBindings()
+                    bindLong(1, parentId)
+                    bindLong(2, foldedUnderId)
+                    bindLong(3, noteId)
+                    executeUpdateDelete()
+                }
+            }
+
+            val isChainChanged = note.rewriteChain
+                    || parentId != note.parentId
+                    || (depth > 0 && ancestorIds[depth - 1] in changedChains)
+
+            if (isChainChanged) {
+                changedChains.add(noteId)
+
+                /* Kept notes still have their old ancestors. */
+                if (!note.isNew) {
+                    with(deleteAncestors) {
+                        bindLong(1, noteId)
+                        executeUpdateDelete()
+                    }
+                }
+
+                for (d in 0 until depth) {
+                    with(insertAncestor) {
+                        clearBindings()
+                        bindLong(1, bookId)
+                        bindLong(2, noteId)
+                        bindLong(3, ancestorIds[d])
+                        executeInsert()
+                    }
+                }
+            }
+        }
+    }
+
+    private fun getOrgRangeIds(node: OrgNodeInSet): Array<Long?> {
+        return arrayOf(
+                getOrgRangeId(node.head.scheduled),
+                getOrgRangeId(node.head.deadline),
+                getOrgRangeId(node.head.closed),
+                getOrgRangeId(node.head.clock))
+    }
+
+    private fun getOrgRangeId(range: OrgRangeValue?): Long? {
+        if (range == null) {
+            return null
+        }
+
+        val str = range.toString()
+
+        return rangeIds.getOrPut(str) {
+            db.orgRange().getByString(str)?.id ?: run {
+                val startId = getOrgDateTimeId(range.startTime)
+                val endId = range.endTime?.let { getOrgDateTimeId(it) }
+
+                db.orgRange().insert(OrgRange(0, str, startId, endId))
+            }
+        }
+    }
+
+    private fun getOrgDateTimeId(timestamp: OrgDateTime): Long {
+        val str = timestamp.toString()
+
+        return timestampIds.getOrPut(str) {
+            db.orgTimestamp().getByString(str)?.id
+                    ?: db.orgTimestamp().insert(OrgTimestampMapper.fromOrgDateTime(timestamp))
+        }
+    }
+
+    override fun close() {
+        insertNote.close()
+        updateNote.close()
+        updatePosition.close()
+        deleteNote.close()
+        insertProperty.close()
+        deleteProperties.close()
+        insertEvent.close()
+        deleteEvents.close()
+        insertTag.close()
+        deleteTags.close()
+        insertAncestor.close()
+        deleteAncestors.close()
+        updateParent.close()
+    }
+
+    /**
+     * Everything stored for a note that comes from its heading.
+     * Used to find existing notes which did not change.
+     */
+    private data class NoteSignature(
+            val title: String,
+            val tags: String?,
+            val state: String?,
+            val priority: String?,
+            val content: String?,
+            val createdAt: Long?,
+            val scheduled: String?,
+            val deadline: String?,
+            val closed: String?,
+            val clock: String?,
+            val properties: List<String>
+    ) {
+        companion object {
+            fun of(node: OrgNodeInSet, createdAt: Long?): NoteSignature {
+                val head = node.head
+
+                return NoteSignature(
+                        head.title,
+                        if (head.hasTags()) Note.dbSerializeTags(head.tags) else null,
+                        head.state,
+                        head.priority,
+                        if (head.hasContent()) head.content else null,
+                        createdAt,
+                        head.scheduled?.toString(),
+                        head.deadline?.toString(),
+                        head.closed?.toString(),
+                        head.clock?.toString(),
+                        head.properties.all.map { property(it.name, it.value) })
+            }
+
+            fun of(note: NoteForReconcile, properties: List<String>): NoteSignature {
+                return NoteSignature(
+                        note.title,
+                        note.tags,
+                        note.state,
+                        note.priority,
+                        note.content,
+                        note.createdAt,
+                        note.scheduled,
+                        note.deadline,
+                        note.closed,
+                        note.clock,
+                        properties)
+            }
+
+            fun property(name: String, value: String) = "$name\u0000$value"
+        }
+    }
+
+    /**
+     * Time spent in each phase of the load.
+     */
+    class Stats {
+        var nodes = 0
+        var batches = 0
+
+        /* Reconcile mode only. */
+        var unchanged = 0
+        var moved = 0
+        var updated = 0
+        var inserted = 0
+        var deleted = 0
+
+        var rangesNanos = 0L
+        var notesNanos = 0L
+        var tagsNanos = 0L
+        var propertiesNanos = 0L
+        var eventsNanos = 0L
+        var ancestorsNanos = 0L
+
+        val totalNanos: Long
+            get() = rangesNanos + notesNanos + tagsNanos + propertiesNanos + eventsNanos + ancestorsNanos
+
+        override fun toString(): String {
+            val counts = if (batches > 0) {
+                "$nodes nodes in $batches batches"
+            } else {
+                "$nodes nodes ($unchanged unchanged, $moved moved, $updated updated, $inserted inserted, $deleted deleted)"
+            }
+
+            return "$counts: " +
+                    "ranges ${ms(rangesNanos)} ms, " +
+                    "notes ${ms(notesNanos)} ms, " +
+                    "tags ${ms(tagsNanos)} ms, " +
+                    "properties ${ms(propertiesNanos)} ms, " +
+                    "events ${ms(eventsNanos)} ms, " +
+                    "ancestors ${ms(ancestorsNanos)} ms"
+        }
+
+        private fun ms(nanos: Long) = TimeUnit.NANOSECONDS.toMillis(nanos)
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 500
+
+        private const val INSERT_NOTE = """
+            INSERT INTO notes (
+                is_cut, created_at, title, tags, state, priority, content, content_line_count,
+                scheduled_range_id, deadline_range_id, closed_range_id, clock_range_id,
+                book_id, lft, rgt, level, parent_id, folded_under_id, is_folded, descendants_count)
+            VALUES (0, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0, ?, ?)
+        """
+
+        private const val UPDATE_NOTE = """
+            UPDATE notes SET
+                created_at = ?, title = ?, tags = ?, state = ?, priority = ?, content = ?, content_line_count = ?,
+                scheduled_range_id = ?, deadline_range_id = ?, closed_range_id = ?, clock_range_id = ?,
+                lft = ?, rgt = ?, level = ?, descendants_count = ?
+            WHERE id = ?
+        """
+
+        private const val UPDATE_POSITION =
+                "UPDATE notes SET lft = ?, rgt = ?, level = ?, descendants_count = ? WHERE id = ?"
+
+        private const val DELETE_NOTE =
+                "DELETE FROM notes WHERE id = ?"
+
+        private const val INSERT_PROPERTY =
+                "INSERT INTO note_properties (note_id, position, name, value) VALUES (?, ?, ?, ?)"
+
+        private const val DELETE_PROPERTIES =
+                "DELETE FROM note_properties WHERE note_id = ?"
+
+        private const val INSERT_EVENT =
+                "INSERT OR REPLACE INTO note_events (note_id, org_range_id) VALUES (?, ?)"
+
+        private const val DELETE_EVENTS =
+                "DELETE FROM note_events WHERE note_id = ?"
+
+        private const val INSERT_TAG =
+                "INSERT OR IGNORE INTO note_tags (note_id, tag, is_inherited) VALUES (?, ?, 0)"
+
+        private const val DELETE_TAGS =
+                "DELETE FROM note_tags WHERE note_id = ? AND is_inherited = 0"
+
+        private const val INSERT_ANCESTOR =
+                "INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id) VALUES (?, ?, ?)"
+
+        private const val DELETE_ANCESTORS =
+                "DELETE FROM note_ancestors WHERE note_id = ?"
+
+        private const val UPDATE_PARENT =
+                "UPDATE notes SET parent_id = ?, folded_under_id = ? WHERE id = ?"
+
+        private inline fun <T> timed(record: (Long) -> Unit, block: () -> T): T {
+            val startedAt = System.nanoTime()
+            try {
+                return block()
+            } finally {
+                record(System.nanoTime() - startedAt)
+            }
+        }
+
+        private fun SupportSQLiteStatement.bindNullable(index: Int, value: Long?) {
+            if (value != null) bindLong(index, value) else bindNull(index)
+        }
+
+        private fun SupportSQLiteStatement.bindNullable(index: Int, value: String?) {
+            if (value != null) bindString(index, value) else bindNull(index)
+        }
+    }
+}
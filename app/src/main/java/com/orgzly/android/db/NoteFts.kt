@@ -0,0 +1,58 @@
+package com.orgzly.android.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Full-text index of notes' title, content and tags.
+ *
+ * External content FTS4 table, backed by `notes` and kept up to date by triggers.
+ * Updates of other columns (lft, rgt, folding...) do not touch the index.
+ *
+ * Not a Room entity, as Room's content sync triggers fire on every update of `notes`.
+ */
+object NoteFts {
+    const val TABLE = "notes_fts"
+
+    private val CREATE = listOf(
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `$TABLE` USING FTS4(`title`, `content`, `tags`, content=`notes`, tokenize=unicode61)",
+
+            "CREATE TRIGGER IF NOT EXISTS `notes_fts_before_update` BEFORE UPDATE OF `title`, `content`, `tags` ON `notes` BEGIN DELETE FROM `$TABLE` WHERE `docid` = OLD.`id`; END",
+            "CREATE TRIGGER IF NOT EXISTS `notes_fts_after_update` AFTER UPDATE OF `title`, `content`, `tags` ON `notes` BEGIN INSERT INTO `$TABLE` (`docid`, `title`, `content`, `tags`) VALUES (NEW.`id`, NEW.`title`, NEW.`content`, NEW.`tags`); END",
+            "CREATE TRIGGER IF NOT EXISTS `notes_fts_before_delete` BEFORE DELETE ON `notes` BEGIN DELETE FROM `$TABLE` WHERE `docid` = OLD.`id`; END",
+            "CREATE TRIGGER IF NOT EXISTS `notes_fts_after_insert` AFTER INSERT ON `notes` BEGIN INSERT INTO `$TABLE` (`docid`, `title`, `content`, `tags`) VALUES (NEW.`id`, NEW.`title`, NEW.`content`, NEW.`tags`); END"
+    )
+
+    /** Letters and digits of scripts which separate words with spaces. */
+    private val WORD = Regex("[\\p{IsLatin}\\p{IsCyrillic}\\p{IsGreek}\\p{N}]+")
+
+    /**
+     * SQL selection matching notes which contain a word starting with the argument.
+     */
+    const val SELECTION = "id IN (SELECT `docid` FROM `$TABLE` WHERE `$TABLE` MATCH ?)"
+
+    fun create(db: SupportSQLiteDatabase) {
+        CREATE.forEach { db.execSQL(it) }
+    }
+
+    /**
+     * Re-indexes all notes.
+     */
+    fun rebuild(db: SupportSQLiteDatabase) {
+        db.execSQL("INSERT INTO `$TABLE` (`$TABLE`) VALUES ('rebuild')")
+    }
+
+    /**
+     * Whether the index can be used to search for the text.
+     * It only contains whole words, so the text must be a single word.
+     */
+    fun isSearchable(text: String): Boolean {
+        return WORD.matches(text)
+    }
+
+    /**
+     * Argument for [SELECTION]: words starting with [text].
+     */
+    fun prefixMatch(text: String): String {
+        return "\"$text*\""
+    }
+}
@@ -0,0 +1,81 @@
+package com.orgzly.android.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Triggers copying start times of scheduled, deadline and closed ranges to `notes`,
+ * so searches can filter and sort notes by them using indices and without joins.
+ *
+ * Ranges and timestamps are not modified once inserted, so only changes of
+ * range ids need handling. Timestamps recalculated after time zone change
+ * are copied again using [UPDATE_ALL].
+ */
+object NotePlanning {
+    private const val START_TIMESTAMP =
+            "FROM `org_ranges` r JOIN `org_timestamps` t ON (t.`id` = r.`start_timestamp_id`) WHERE r.`id` = `notes`."
+
+    /* Midnight in local time, in milliseconds. */
+    private const val START_OF_DAY =
+            "strftime('%s', t.`timestamp` / 1000, 'unixepoch', 'localtime', 'start of day', 'utc') * 1000"
+
+    private const val SET_SCHEDULED = """
+            `scheduled_timestamp` = (SELECT t.`timestamp` $START_TIMESTAMP`scheduled_range_id`),
+            `scheduled_start_of_day` = (SELECT $START_OF_DAY $START_TIMESTAMP`scheduled_range_id`),
+            `scheduled_hour` = (SELECT t.`hour` $START_TIMESTAMP`scheduled_range_id`),
+            `scheduled_is_active` = (SELECT t.`is_active` $START_TIMESTAMP`scheduled_range_id`)
+            """
+
+    private const val SET_DEADLINE = """
+            `deadline_timestamp` = (SELECT t.`timestamp` $START_TIMESTAMP`deadline_range_id`),
+            `deadline_start_of_day` = (SELECT $START_OF_DAY $START_TIMESTAMP`deadline_range_id`),
+            `deadline_hour` = (SELECT t.`hour` $START_TIMESTAMP`deadline_range_id`),
+            `deadline_is_active` = (SELECT t.`is_active` $START_TIMESTAMP`deadline_range_id`)
+            """
+
+    private const val SET_CLOSED = """
+            `closed_timestamp` = (SELECT t.`timestamp` $START_TIMESTAMP`closed_range_id`),
+            `closed_start_of_day` = (SELECT $START_OF_DAY $START_TIMESTAMP`closed_range_id`),
+            `closed_hour` = (SELECT t.`hour` $START_TIMESTAMP`closed_range_id`),
+            `closed_is_active` = (SELECT t.`is_active` $START_TIMESTAMP`closed_range_id`)
+            """
+
+    const val UPDATE_ALL = """
+            UPDATE `notes` SET $SET_SCHEDULED, $SET_DEADLINE, $SET_CLOSED
+            WHERE `scheduled_range_id` IS NOT NULL OR `deadline_range_id` IS NOT NULL OR `closed_range_id` IS NOT NULL
+            """
+
+    private val CREATE_TRIGGERS = listOf(
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_planning_after_insert` AFTER INSERT ON `notes`
+            WHEN NEW.`scheduled_range_id` IS NOT NULL OR NEW.`deadline_range_id` IS NOT NULL OR NEW.`closed_range_id` IS NOT NULL BEGIN
+                UPDATE `notes` SET $SET_SCHEDULED, $SET_DEADLINE, $SET_CLOSED WHERE `id` = NEW.`id`;
+            END
+            """,
+
+            /* Room updates all columns, so only react to actually changed ranges. */
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_planning_after_scheduled_update` AFTER UPDATE OF `scheduled_range_id` ON `notes`
+            WHEN NEW.`scheduled_range_id` IS NOT OLD.`scheduled_range_id` BEGIN
+                UPDATE `notes` SET $SET_SCHEDULED WHERE `id` = NEW.`id`;
+            END
+            """,
+
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_planning_after_deadline_update` AFTER UPDATE OF `deadline_range_id` ON `notes`
+            WHEN NEW.`deadline_range_id` IS NOT OLD.`deadline_range_id` BEGIN
+                UPDATE `notes` SET $SET_DEADLINE WHERE `id` = NEW.`id`;
+            END
+            """,
+
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_planning_after_closed_update` AFTER UPDATE OF `closed_range_id` ON `notes`
+            WHEN NEW.`closed_range_id` IS NOT OLD.`closed_range_id` BEGIN
+                UPDATE `notes` SET $SET_CLOSED WHERE `id` = NEW.`id`;
+            END
+            """
+    )
+
+    fun createTriggers(db: SupportSQLiteDatabase) {
+        CREATE_TRIGGERS.forEach { db.execSQL(it) }
+    }
+}
@@ -0,0 +1,147 @@
+package com.orgzly.android.db
+
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.ui.Place
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Sparse numbering of notes' nested set values (lft and rgt).
+ *
+ * Loaded and renumbered books have [GAP] unused values between any two positions.
+ * New notes take their values from the gap at their place, so no other note moves.
+ * Only once the gap is used up, notes around it are renumbered.
+ */
+class NotePositions(private val db: OrgzlyDatabase) {
+
+    /**
+     * Unused values following [after], used [step] apart.
+     */
+    data class Space(val after: Long, val step: Long) {
+        /**
+         * Position for a new note's lft or rgt, given as if
+         * new notes were alone in a book, starting from 1.
+         */
+        fun position(relative: Long): Long {
+            return after + step * relative
+        }
+    }
+
+    /**
+     * Finds (or makes) space for [count] new notes at [place] relative to [targetNote].
+     */
+    fun makeSpace(targetNote: Note, place: Place, count: Int): Space {
+        val bookId = targetNote.position.bookId
+
+        val (after, before) = bounds(targetNote, place)
+
+        val required = 2L * count
+
+        if (before - after > required) {
+            return Space(after, minOf((before - after) / (required + 1), GAP))
+        }
+
+        return renumber(bookId, after, required)
+    }
+
+    /**
+     * Adjacent positions between which the new notes go.
+     */
+    private fun bounds(targetNote: Note, place: Place): Pair<Long, Long> {
+        val bookId = targetNote.position.bookId
+        val lft = targetNote.position.lft
+        val rgt = targetNote.position.rgt
+
+        return when (place) {
+            Place.ABOVE -> Pair(checkNotNull(db.note().getPositionBefore(bookId, lft)), lft)
+
+            Place.UNDER -> Pair(checkNotNull(db.note().getPositionBefore(bookId, rgt)), rgt)
+
+            Place.UNDER_AS_FIRST -> Pair(lft, checkNotNull(db.note().getPositionAfter(bookId, lft)))
+
+            Place.BELOW -> Pair(rgt, checkNotNull(db.note().getPositionAfter(bookId, rgt)))
+
+            else -> throw IllegalArgumentException("Unsupported paste relative position $place")
+        }
+    }
+
+    /**
+     * Spreads out positions around the used up gap after [after], leaving room
+     * for [required] new positions in it.
+     *
+     * Only the smallest window of positions around the gap which is sparse enough is renumbered.
+     * The window doubles in size until its positions can be at least [GAP] / (2 * half-size) apart,
+     * so a gap used up again and again takes more and more notes with it, but rarely.
+     */
+    private fun renumber(bookId: Long, after: Long, required: Long): Space {
+        val startedAt = System.currentTimeMillis()
+
+        val notes = db.note().getPositions(bookId)
+
+        val values = LongArray(notes.size * 2).also { values ->
+            notes.forEachIndexed { i, note ->
+                values[2 * i] = note.lft
+                values[2 * i + 1] = note.rgt
+            }
+            values.sort()
+        }
+
+        /* Index of the first position after the gap. */
+        val gapAt = values.binarySearch(after) + 1
+
+        var half = 1
+
+        while (true) {
+            val lo = maxOf(0, gapAt - half)
+            val hi = minOf(values.size - 1, gapAt + half - 1)
+
+            val slots = hi - lo + 1 + required
+
+            val lower = if (lo > 0) values[lo - 1] else 0L
+            val upper = if (hi < values.size - 1) values[hi + 1] else lower + (slots + 1) * GAP
+
+            val step = (upper - lower) / (slots + 1)
+
+            if (step >= maxOf(GAP / (2 * half), 1L)) {
+                val renumbered = HashMap<Long, Long>(hi - lo + 1)
+                for (i in lo..hi) {
+                    val slot = i - lo + 1 + if (i >= gapAt) required else 0L
+                    renumbered[values[i]] = lower + step * slot
+                }
+
+                var updated = 0
+                for (note in notes) {
+                    val lft = renumbered[note.lft] ?: note.lft
+                    val rgt = renumbered[note.rgt] ?: note.rgt
+
+                    if (lft != note.lft || rgt != note.rgt) {
+                        db.note().updateLftRgt(note.id, lft, rgt)
+                        updated++
+                    }
+                }
+
+                if (BuildConfig.LOG_DEBUG)
+                    LogUtils.d(TAG, "Renumbered $updated of ${notes.size} notes in book $bookId in ${System.currentTimeMillis() - startedAt} ms")
+
+                return Space(renumbered.getValue(after), step)
+            }
+
+            half *= 2
+        }
+    }
+
+    companion object {
+        private val TAG = NotePositions::class.java.name
+
+        /** Unused values between two positions, after loading or renumbering. */
+        const val GAP = 1L shl 16
+
+        /**
+         * Sparse value for a dense one (1, 2, 3...), as when loading a book.
+         */
+        @JvmStatic
+        fun spread(value: Long): Long {
+            return 1 + (value - 1) * GAP
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.orgzly.android.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.orgzly.android.db.entity.Note
+
+/**
+ * Triggers keeping inherited tags in `note_tags` up to date.
+ *
+ * Own tags are written by the app, as splitting `notes.tags` is not possible
+ * in a trigger. Inherited tags follow own tags of ancestors and changes of
+ * `note_ancestors`, so moving, cutting and pasting notes needs no extra work.
+ */
+object NoteTags {
+    private val CREATE_TRIGGERS = listOf(
+            /* New own tag is inherited by all descendants. */
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_tags_after_own_insert` AFTER INSERT ON `note_tags` WHEN NEW.`is_inherited` = 0 BEGIN
+                INSERT OR IGNORE INTO `note_tags` (`note_id`, `tag`, `is_inherited`)
+                SELECT `note_id`, NEW.`tag`, 1 FROM `note_ancestors` WHERE `ancestor_note_id` = NEW.`note_id`;
+            END
+            """,
+
+            /* Removed own tag is removed from descendants, unless they inherit it from another ancestor. */
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_tags_after_own_delete` AFTER DELETE ON `note_tags` WHEN OLD.`is_inherited` = 0 BEGIN
+                DELETE FROM `note_tags`
+                WHERE `is_inherited` = 1 AND `tag` = OLD.`tag`
+                AND `note_id` IN (SELECT `note_id` FROM `note_ancestors` WHERE `ancestor_note_id` = OLD.`note_id`)
+                AND NOT EXISTS (
+                    SELECT 1 FROM `note_ancestors` a JOIN `note_tags` t ON (t.`note_id` = a.`ancestor_note_id`)
+                    WHERE a.`note_id` = `note_tags`.`note_id` AND t.`tag` = OLD.`tag` AND t.`is_inherited` = 0);
+            END
+            """,
+
+            /* New ancestor passes its own tags down. */
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_tags_after_ancestor_insert` AFTER INSERT ON `note_ancestors` BEGIN
+                INSERT OR IGNORE INTO `note_tags` (`note_id`, `tag`, `is_inherited`)
+                SELECT NEW.`note_id`, `tag`, 1 FROM `note_tags` WHERE `note_id` = NEW.`ancestor_note_id` AND `is_inherited` = 0;
+            END
+            """,
+
+            /* Removed ancestor takes away tags no other ancestor has. */
+            """
+            CREATE TRIGGER IF NOT EXISTS `note_tags_after_ancestor_delete` AFTER DELETE ON `note_ancestors` BEGIN
+                DELETE FROM `note_tags`
+                WHERE `note_id` = OLD.`note_id` AND `is_inherited` = 1
+                AND `tag` NOT IN (
+                    SELECT t.`tag` FROM `note_ancestors` a JOIN `note_tags` t ON (t.`note_id` = a.`ancestor_note_id`)
+                    WHERE a.`note_id` = OLD.`note_id` AND t.`is_inherited` = 0);
+            END
+            """
+    )
+
+    /**
+     * Notes having the tag, own or inherited.
+     */
+    const val SELECTION = "id IN (SELECT `note_id` FROM `note_tags` WHERE `tag` = ?)"
+
+    /**
+     * Notes having the tag as their own.
+     */
+    const val SELECTION_OWN = "id IN (SELECT `note_id` FROM `note_tags` WHERE `tag` = ? AND `is_inherited` = 0)"
+
+    fun createTriggers(db: SupportSQLiteDatabase) {
+        CREATE_TRIGGERS.forEach { db.execSQL(it) }
+    }
+
+    /**
+     * Fills the table from `notes.tags`. Inherited tags are added by triggers.
+     */
+    fun populate(db: SupportSQLiteDatabase) {
+        db.compileStatement("INSERT OR IGNORE INTO `note_tags` (`note_id`, `tag`, `is_inherited`) VALUES (?, ?, 0)").use { insert ->
+            db.query("SELECT `id`, `tags` FROM `notes` WHERE `tags` IS NOT NULL AND `tags` != ''").use { cursor ->
+                while (cursor.moveToNext()) {
+                    val noteId = cursor.getLong(0)
+
+                    Note.dbDeSerializeTags(cursor.getString(1)).forEach { tag ->
+                        insert.clearBindings()
+                        insert.bindLong(1, noteId)
+                        insert.bindString(2, tag)
+                        insert.executeInsert()
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.orgzly.android.db
+
+/**
+ * Resolves parents and ancestors of notes from their nested set values.
+ *
+ * Notes can be added in any order (the parser emits them in post-order, children first).
+ * [resolve] then walks them once in `lft` order, keeping the chain of open ancestors on
+ * a stack, so the cost is linear in the number of notes plus the number of ancestor pairs.
+ */
+class NoteTreeResolver(initialCapacity: Int = 64) {
+    private var ids = LongArray(initialCapacity)
+    private var lfts = LongArray(initialCapacity)
+    private var rgts = LongArray(initialCapacity)
+    private var levels = IntArray(initialCapacity)
+
+    var size = 0
+        private set
+
+    fun add(id: Long, lft: Long, rgt: Long, level: Int) {
+        if (size == ids.size) {
+            val capacity = maxOf(size * 2, 16)
+            ids = ids.copyOf(capacity)
+            lfts = lfts.copyOf(capacity)
+            rgts = rgts.copyOf(capacity)
+            levels = levels.copyOf(capacity)
+        }
+
+        ids[size] = id
+        lfts[size] = lft
+        rgts[size] = rgt
+        levels[size] = level
+
+        size++
+    }
+
+    /**
+     * Visits every note in `lft` order.
+     *
+     * [onNote] receives the note's ancestors, outermost first. The last one is the parent.
+     * Arrays are reused between calls and only the first `depth` elements are valid.
+     */
+    fun resolve(onNote: (noteId: Long, ancestorIds: LongArray, ancestorLevels: IntArray, depth: Int) -> Unit) {
+        if (size == 0) {
+            return
+        }
+
+        val order = sortedByLft()
+
+        /* Open ancestors. */
+        val stack = IntArray(size)
+        val stackIds = LongArray(size)
+        val stackLevels = IntArray(size)
+        var depth = 0
+
+        for (i in order) {
+            /* Close ancestors which ended before this note. */
+            while (depth > 0 && rgts[stack[depth - 1]] < lfts[i]) {
+                depth--
+            }
+
+            onNote(ids[i], stackIds, stackLevels, depth)
+
+            stack[depth] = i
+            stackIds[depth] = ids[i]
+            stackLevels[depth] = levels[i]
+            depth++
+        }
+    }
+
+    /**
+     * Values of lft are unique within a book and bounded by 2 * size,
+     * so indexes are placed directly into the slot of their lft.
+     */
+    private fun sortedByLft(): IntArray {
+        var min = Long.MAX_VALUE
+        var max = Long.MIN_VALUE
+
+        for (i in 0 until size) {
+            if (lfts[i] < min) min = lfts[i]
+            if (lfts[i] > max) max = lfts[i]
+        }
+
+        val span = max - min + 1
+
+        if (span > size.toLong() * 4) {
+            /* Sparse values, fall back to sorting. */
+            return (0 until size).sortedBy { lfts[it] }.toIntArray()
+        }
+
+        val slots = IntArray(span.toInt()) { -1 }
+        for (i in 0 until size) {
+            slots[(lfts[i] - min).toInt()] = i
+        }
+
+        return slots.filter { it != -1 }.toIntArray()
+    }
+}
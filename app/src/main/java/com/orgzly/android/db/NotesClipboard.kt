@@ -2,33 +2,49 @@ package com.orgzly.android.db
 
 import com.google.gson.Gson
 import com.google.gson.annotations.SerializedName
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonWriter
 import com.orgzly.android.App
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NoteProperty
 import com.orgzly.android.prefs.AppPreferences
-import com.orgzly.android.util.MiscUtils
 import java.io.File
-import java.io.StringWriter
-
-data class NotesClipboard(val entries: List<Entry> = emptyList()) {
+import java.io.IOException
+
+/**
+ * Cut or copied notes, stored in a file as a JSON array of entries.
+ *
+ * Entries are written and read one at a time, so large subtrees are never
+ * held in memory as a single string.
+ *
+ * @param entries entries of a new clipboard, null to read them from the file
+ */
+class NotesClipboard private constructor(val count: Int, private val entries: Sequence<Entry>?) {
 
     data class Entry(
             @SerializedName("note") val note: Note,
             @SerializedName("properties") val properties: List<NoteProperty>
     )
 
-    val count: Int
-        get() = entries.count()
-
-
     fun save() {
+        val entries = entries ?: return
+
         try {
-            val writer = StringWriter()
-            Gson().toJson(entries, writer)
-            val content = writer.toString()
+            val file = dataFile()
+            val tmpFile = File(file.path + ".tmp")
+
+            JsonWriter(tmpFile.bufferedWriter()).use { writer ->
+                writer.beginArray()
+                entries.forEach { entry ->
+                    gson.toJson(entry, Entry::class.java, writer)
+                }
+                writer.endArray()
+            }
 
-            MiscUtils.writeStringToFile(content, dataFile())
+            if (!tmpFile.renameTo(file)) {
+                throw IllegalStateException("Failed renaming $tmpFile to $file")
+            }
 
             AppPreferences.notesClipboard(App.getAppContext(), "$count")
         } catch (e: Exception) {
@@ -36,34 +52,69 @@ data class NotesClipboard(val entries: List<Entry> = emptyList()) {
         }
     }
 
+    /**
+     * Passes entries to [block], reading them from the file as they are iterated.
+     *
+     * @throws IOException if the file is broken or has other than [count] entries
+     */
+    fun useEntries(block: (Sequence<Entry>) -> Unit) {
+        if (entries != null) {
+            block(entries)
+            return
+        }
+
+        if (count == 0) {
+            block(emptySequence())
+            return
+        }
+
+        JsonReader(dataFile().bufferedReader()).use { reader ->
+            var read = 0
+
+            reader.beginArray()
+
+            block(generateSequence {
+                if (reader.hasNext()) {
+                    read++
+                    gson.fromJson<Entry>(reader, Entry::class.java)
+                } else {
+                    null
+                }
+            })
+
+            if (read != count) {
+                throw IOException("Read $read notes from clipboard, expected $count")
+            }
+        }
+    }
 
     companion object {
+        private val gson = Gson()
+
         fun count(): Int {
             return AppPreferences.notesClipboard(App.getAppContext())?.toInt() ?: 0
         }
 
         fun create(dataRepository: DataRepository, ids: Set<Long>): NotesClipboard {
-            val alignedNotes = dataRepository.getSubtreesAligned(ids).map { note ->
-                Entry(note, dataRepository.getNoteProperties(note.id))
+            val alignedNotes = dataRepository.getSubtreesAligned(ids)
+
+            val properties = dataRepository.getNotesProperties(alignedNotes.map { it.id })
+
+            val entries = alignedNotes.asSequence().map { note ->
+                Entry(note, properties[note.id].orEmpty())
             }
 
-            return NotesClipboard(alignedNotes)
+            return NotesClipboard(alignedNotes.size, entries)
         }
 
         fun load(): NotesClipboard {
-            if (count() > 0) {
-                try {
-                    val data = MiscUtils.readStringFromFile(dataFile())
-
-                    val notes = Gson().fromJson(data, Array<Entry>::class.java).toMutableList()
+            val count = count()
 
-                    return NotesClipboard(notes)
-                } catch (e: Exception) {
-                    e.printStackTrace()
-                }
+            if (count > 0 && dataFile().exists()) {
+                return NotesClipboard(count, null)
             }
 
-            return NotesClipboard()
+            return NotesClipboard(0, emptySequence())
         }
 
         @JvmStatic
@@ -77,4 +128,4 @@ data class NotesClipboard(val entries: List<Entry> = emptyList()) {
             return File(App.getAppContext().filesDir, "clipboard.json")
         }
     }
-}
\ No newline at end of file
+}
@@ -22,9 +22,11 @@ import com.orgzly.android.db.dao.NoteAncestorDao
 import com.orgzly.android.db.dao.NoteDao
 import com.orgzly.android.db.dao.NoteEventDao
 import com.orgzly.android.db.dao.NotePropertyDao
+import com.orgzly.android.db.dao.NoteTagDao
 import com.orgzly.android.db.dao.NoteViewDao
 import com.orgzly.android.db.dao.OrgRangeDao
 import com.orgzly.android.db.dao.OrgTimestampDao
+import com.orgzly.android.db.dao.ReminderOccurrenceDao
 import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.db.dao.RepoDao
 import com.orgzly.android.db.dao.RookDao
@@ -41,8 +43,11 @@ import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NoteAncestor
 import com.orgzly.android.db.entity.NoteEvent
 import com.orgzly.android.db.entity.NoteProperty
+import com.orgzly.android.db.entity.NoteTag
 import com.orgzly.android.db.entity.OrgRange
 import com.orgzly.android.db.entity.OrgTimestamp
+import com.orgzly.android.db.entity.ReminderOccurrence
+import com.orgzly.android.db.entity.ReminderStaleNote
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.db.entity.Rook
 import com.orgzly.android.db.entity.RookUrl
@@ -64,9 +69,12 @@ import java.util.Calendar
             Note::class,
             NoteAncestor::class,
             NoteProperty::class,
+            NoteTag::class,
             NoteEvent::class,
             OrgRange::class,
             OrgTimestamp::class,
+            ReminderOccurrence::class,
+            ReminderStaleNote::class,
             Repo::class,
             Rook::class,
             RookUrl::class,
@@ -75,7 +83,7 @@ import java.util.Calendar
             AppLog::class
         ],
 
-        version = 157
+        version = 163
 )
 @TypeConverters(com.orgzly.android.db.TypeConverters::class)
 abstract class OrgzlyDatabase : RoomDatabase() {
@@ -89,9 +97,11 @@ abstract class OrgzlyDatabase : RoomDatabase() {
     abstract fun note(): NoteDao
     abstract fun noteView(): NoteViewDao
     abstract fun noteProperty(): NotePropertyDao
+    abstract fun noteTag(): NoteTagDao
     abstract fun noteEvent(): NoteEventDao
     abstract fun orgRange(): OrgRangeDao
     abstract fun reminderTime(): ReminderTimeDao
+    abstract fun reminderOccurrence(): ReminderOccurrenceDao
     abstract fun orgTimestamp(): OrgTimestampDao
     abstract fun repo(): RepoDao
     abstract fun rook(): RookDao
@@ -111,10 +121,27 @@ abstract class OrgzlyDatabase : RoomDatabase() {
         /// Defined in sqlite3.c: The maximum value of a ?nnn wildcard that the parser will accept
         const val SQLITE_MAX_VARIABLE_NUMBER = 999
 
+        /**
+         * @param queryCallback receives every executed statement, used by tests to check query plans
+         */
         @JvmStatic
-        fun forMemory(context: Context): OrgzlyDatabase {
+        @JvmOverloads
+        fun forMemory(context: Context, queryCallback: QueryCallback? = null): OrgzlyDatabase {
             return Room.inMemoryDatabaseBuilder(context.applicationContext, OrgzlyDatabase::class.java)
                     .allowMainThreadQueries()
+                    .apply {
+                        if (queryCallback != null) {
+                            setQueryCallback(queryCallback) { it.run() }
+                        }
+                    }
+                    .addCallback(object : Callback() {
+                        override fun onCreate(db: SupportSQLiteDatabase) {
+                            NoteFts.create(db)
+                            NoteTags.createTriggers(db)
+                            ReminderOccurrences.createTriggers(db)
+                            NotePlanning.createTriggers(db)
+                        }
+                    })
                     .build()
         }
 
@@ -151,12 +178,23 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                             MIGRATION_153_154,
                             MIGRATION_154_155,
                             MIGRATION_155_156,
-                            MIGRATION_156_157
+                            MIGRATION_156_157,
+                            MIGRATION_157_158,
+                            MIGRATION_158_159,
+                            MIGRATION_159_160,
+                            MIGRATION_160_161,
+                            MIGRATION_161_162,
+                            MIGRATION_162_163
                     )
                     .addCallback(object : Callback() {
                         override fun onCreate(db: SupportSQLiteDatabase) {
                             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Database created")
 
+                            NoteFts.create(db)
+                            NoteTags.createTriggers(db)
+                            ReminderOccurrences.createTriggers(db)
+                            NotePlanning.createTriggers(db)
+
                             insertDefaultSearches(db)
                         }
 
@@ -611,5 +649,83 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                 db.execSQL("CREATE INDEX IF NOT EXISTS `index_book_properties_value` ON `book_properties` (`value`)")
             }
         }
+
+        private val MIGRATION_157_158 = object : Migration(157, 158) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                /* Full-text index of existing notes. */
+                NoteFts.create(db)
+                NoteFts.rebuild(db)
+            }
+        }
+
+        private val MIGRATION_158_159 = object : Migration(158, 159) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_tags` (`note_id` INTEGER NOT NULL, `tag` TEXT NOT NULL COLLATE NOCASE, `is_inherited` INTEGER NOT NULL, PRIMARY KEY(`note_id`, `tag`, `is_inherited`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_tag_is_inherited_note_id` ON `note_tags` (`tag`, `is_inherited`, `note_id`)")
+
+                /* Triggers first, so they add inherited tags while own tags are inserted. */
+                NoteTags.createTriggers(db)
+                NoteTags.populate(db)
+            }
+        }
+
+        private val MIGRATION_159_160 = object : Migration(159, 160) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `reminder_occurrences` (`note_id` INTEGER NOT NULL, `time_type` INTEGER NOT NULL, `org_timestamp_string` TEXT NOT NULL, `run_time` INTEGER NOT NULL, PRIMARY KEY(`note_id`, `time_type`, `org_timestamp_string`, `run_time`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_occurrences_run_time` ON `reminder_occurrences` (`run_time`)")
+                db.execSQL("CREATE TABLE IF NOT EXISTS `reminder_stale_notes` (`note_id` INTEGER NOT NULL, PRIMARY KEY(`note_id`))")
+
+                ReminderOccurrences.createTriggers(db)
+
+                /* Occurrences of existing notes are computed on the next reminders run. */
+                db.execSQL("INSERT OR IGNORE INTO `reminder_stale_notes` (`note_id`) SELECT `id` FROM `notes` WHERE `scheduled_range_id` IS NOT NULL OR `deadline_range_id` IS NOT NULL UNION SELECT `note_id` FROM `note_events`")
+            }
+        }
+
+        /* Replace single-column indices with composite ones matching DAO queries. */
+        private val MIGRATION_160_161 = object : Migration(160, 161) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                listOf("title", "tags", "content", "book_id", "is_cut", "lft", "rgt", "is_folded", "parent_id", "descendants_count").forEach {
+                    db.execSQL("DROP INDEX IF EXISTS `index_notes_$it`")
+                }
+
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_book_id_lft` ON `notes` (`book_id`, `lft`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_book_id_is_cut_folded_under_id` ON `notes` (`book_id`, `is_cut`, `folded_under_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_parent_id_lft` ON `notes` (`parent_id`, `lft`)")
+            }
+        }
+
+        private val MIGRATION_161_162 = object : Migration(161, 162) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `scheduled_timestamp` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `scheduled_start_of_day` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `scheduled_hour` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `scheduled_is_active` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `deadline_timestamp` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `deadline_start_of_day` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `deadline_hour` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `deadline_is_active` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `closed_timestamp` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `closed_start_of_day` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `closed_hour` INTEGER")
+                db.execSQL("ALTER TABLE `notes` ADD COLUMN `closed_is_active` INTEGER")
+
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_scheduled_is_active_scheduled_timestamp` ON `notes` (`scheduled_is_active`, `scheduled_timestamp`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_deadline_is_active_deadline_timestamp` ON `notes` (`deadline_is_active`, `deadline_timestamp`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_closed_timestamp` ON `notes` (`closed_timestamp`)")
+
+                NotePlanning.createTriggers(db)
+
+                db.execSQL(NotePlanning.UPDATE_ALL)
+            }
+        }
+
+        private val MIGRATION_162_163 = object : Migration(162, 163) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `books` ADD COLUMN `note_count` INTEGER NOT NULL DEFAULT 0")
+
+                db.execSQL("UPDATE `books` SET `note_count` = ${BookDao.NOTE_COUNT}")
+            }
+        }
     }
 }
@@ -0,0 +1,47 @@
+package com.orgzly.android.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Triggers marking notes whose times changed, so that only their
+ * reminder occurrences are computed again.
+ *
+ * Fire times are computed by the app, as parsing org timestamps is not
+ * possible in a trigger. Occurrences of deleted notes are removed by the
+ * foreign key. State, title, tags and book are read when reminders are
+ * queried, so changing them needs no extra work.
+ */
+object ReminderOccurrences {
+    private val CREATE_TRIGGERS = listOf(
+            """
+            CREATE TRIGGER IF NOT EXISTS `reminder_stale_after_note_insert` AFTER INSERT ON `notes`
+            WHEN NEW.`scheduled_range_id` IS NOT NULL OR NEW.`deadline_range_id` IS NOT NULL BEGIN
+                INSERT OR IGNORE INTO `reminder_stale_notes` (`note_id`) VALUES (NEW.`id`);
+            END
+            """,
+
+            /* Room updates all columns, so only react to actually changed times. */
+            """
+            CREATE TRIGGER IF NOT EXISTS `reminder_stale_after_note_update` AFTER UPDATE OF `scheduled_range_id`, `deadline_range_id` ON `notes`
+            WHEN NEW.`scheduled_range_id` IS NOT OLD.`scheduled_range_id` OR NEW.`deadline_range_id` IS NOT OLD.`deadline_range_id` BEGIN
+                INSERT OR IGNORE INTO `reminder_stale_notes` (`note_id`) VALUES (NEW.`id`);
+            END
+            """,
+
+            """
+            CREATE TRIGGER IF NOT EXISTS `reminder_stale_after_event_insert` AFTER INSERT ON `note_events` BEGIN
+                INSERT OR IGNORE INTO `reminder_stale_notes` (`note_id`) VALUES (NEW.`note_id`);
+            END
+            """,
+
+            """
+            CREATE TRIGGER IF NOT EXISTS `reminder_stale_after_event_delete` AFTER DELETE ON `note_events` BEGIN
+                INSERT OR IGNORE INTO `reminder_stale_notes` (`note_id`) VALUES (OLD.`note_id`);
+            END
+            """
+    )
+
+    fun createTriggers(db: SupportSQLiteDatabase) {
+        CREATE_TRIGGERS.forEach { db.execSQL(it) }
+    }
+}
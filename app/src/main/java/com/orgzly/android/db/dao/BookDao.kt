@@ -47,10 +47,10 @@ abstract class BookDao : BaseDao<Book> {
     @Query("UPDATE books SET is_dummy = :dummy WHERE id = :id")
     abstract fun updateDummy(id: Long, dummy: Boolean)
 
-    @Query("UPDATE books SET mtime = :mtime, is_modified = 1 WHERE id IN (:ids)")
+    @Query("UPDATE books SET mtime = :mtime, is_modified = 1, note_count = $NOTE_COUNT WHERE id IN (:ids)")
     abstract fun setIsModified(ids: Set<Long>, mtime: Long): Int
 
-    @Query("UPDATE books SET is_modified = 0 WHERE id IN (:ids)")
+    @Query("UPDATE books SET is_modified = 0, note_count = $NOTE_COUNT WHERE id IN (:ids)")
     abstract fun setIsNotModified(ids: Set<Long>): Int
 
     @Query("""
@@ -65,4 +65,12 @@ abstract class BookDao : BaseDao<Book> {
             get(name).let {
                 it?.id ?: insert(Book(0, name, isDummy = true))
             }
+
+    companion object {
+        /*
+         * Notes are counted whenever their book is marked as (not) modified,
+         * which every write of notes does in the same transaction.
+         */
+        const val NOTE_COUNT = "(SELECT count(*) FROM notes WHERE notes.book_id = books.id AND notes.is_cut = 0 AND notes.level > 0)"
+    }
 }
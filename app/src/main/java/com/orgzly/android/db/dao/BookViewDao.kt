@@ -8,22 +8,22 @@ import org.intellij.lang.annotations.Language
 
 @Dao
 abstract class BookViewDao {
-    @Query("$QUERY WHERE books.id = :id GROUP BY books.id")
+    @Query("$QUERY WHERE books.id = :id")
     abstract fun get(id: Long): BookView?
 
-    @Query("$QUERY WHERE books.name = :name GROUP BY books.id")
+    @Query("$QUERY WHERE books.name = :name")
     abstract fun get(name: String): BookView?
 
-    @Query("$QUERY GROUP BY books.id ORDER BY $ORDER_BY_NAME")
+    @Query("$QUERY ORDER BY $ORDER_BY_NAME")
     abstract fun getAllFOrderByNameLiveData(): LiveData<List<BookView>>
 
-    @Query("$QUERY GROUP BY books.id ORDER BY $ORDER_BY_TIME")
+    @Query("$QUERY ORDER BY $ORDER_BY_TIME")
     abstract fun getAllOrderByTimeLiveData(): LiveData<List<BookView>>
 
-    @Query("$QUERY GROUP BY books.id ORDER BY $ORDER_BY_NAME")
+    @Query("$QUERY ORDER BY $ORDER_BY_NAME")
     abstract fun getAllFOrderByName(): List<BookView>
 
-    @Query("$QUERY GROUP BY books.id ORDER BY $ORDER_BY_TIME")
+    @Query("$QUERY ORDER BY $ORDER_BY_TIME")
     abstract fun getAllOrderByTime(): List<BookView>
 
     companion object {
@@ -33,7 +33,7 @@ abstract class BookViewDao {
 
             books.*,
 
-            count(notes.id) as noteCount,
+            books.note_count as noteCount,
 
             link_repos.id as link_repo_id,
             link_repos.type as link_repo_type,
@@ -48,8 +48,6 @@ abstract class BookViewDao {
 
             FROM books
 
-            LEFT JOIN notes ON (books.id = notes.book_id AND notes.is_cut = 0 AND notes.level > 0)
-
             LEFT JOIN book_links ON (books.id = book_links.book_id)
             LEFT JOIN repos AS link_repos ON (book_links.repo_id = link_repos.id)
 
@@ -4,6 +4,8 @@ import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Query
 import androidx.room.Transaction
+import com.orgzly.android.db.NotePlanning
+import com.orgzly.android.db.NotePositions
 import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NotePosition
@@ -42,10 +44,10 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("SELECT * FROM notes WHERE parent_id = :id AND $WHERE_EXISTING_NOTES ORDER BY lft")
     abstract fun getChildren(id: Long): List<Note>
 
-    @Query("SELECT DISTINCT tags FROM notes WHERE tags IS NOT NULL AND tags != ''")
+    @Query("SELECT DISTINCT tag FROM note_tags WHERE is_inherited = 0 ORDER BY tag")
     abstract fun getDistinctTagsLiveData(): LiveData<List<String>>
 
-    @Query("SELECT DISTINCT tags FROM notes WHERE tags IS NOT NULL AND tags != ''")
+    @Query("SELECT DISTINCT tag FROM note_tags WHERE is_inherited = 0 ORDER BY tag")
     abstract fun getDistinctTags(): List<String>
 
     @Query("DELETE FROM notes WHERE id IN ($SELECT_SUBTREE_IDS_FOR_IDS)")
@@ -152,9 +154,6 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun incrementDescendantsCountForAncestors(bookId: Long, lft: Long, rgt: Long): Int
 
-    @Query("UPDATE notes SET rgt = rgt + 2 WHERE book_id = :bookId AND level = 0")
-    abstract fun incrementRgtForRootNote(bookId: Long)
-
     @Query("SELECT id FROM notes WHERE book_id = :bookId AND level = 0")
     abstract fun getRootNodeId(bookId: Long): Long?
 
@@ -274,17 +273,35 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun unfoldDescendantsUnderId(bookId: Long, noteId: Long, lft: Long, rgt: Long)
 
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft >= :value")
-    abstract fun incrementLftForLftGe(bookId: Long, value: Long, inc: Int)
+    /**
+     * Closest lft or rgt of any note (including the root) before the position.
+     */
+    @Query("""
+        SELECT MAX(position) FROM (
+            SELECT MAX(lft) AS position FROM notes WHERE book_id = :bookId AND is_cut = 0 AND lft < :position
+            UNION ALL
+            SELECT MAX(rgt) AS position FROM notes WHERE book_id = :bookId AND is_cut = 0 AND rgt < :position
+        )
+    """)
+    abstract fun getPositionBefore(bookId: Long, position: Long): Long?
 
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft > :value")
-    abstract fun incrementLftForLftGt(bookId: Long, value: Long, inc: Int)
+    /**
+     * Closest lft or rgt of any note (including the root) after the position.
+     */
+    @Query("""
+        SELECT MIN(position) FROM (
+            SELECT MIN(lft) AS position FROM notes WHERE book_id = :bookId AND is_cut = 0 AND lft > :position
+            UNION ALL
+            SELECT MIN(rgt) AS position FROM notes WHERE book_id = :bookId AND is_cut = 0 AND rgt > :position
+        )
+    """)
+    abstract fun getPositionAfter(bookId: Long, position: Long): Long?
 
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt > :value")
-    abstract fun incrementRgtForRgtGtOrRoot(bookId: Long, value: Long, inc: Int)
+    @Query("SELECT id, lft, rgt FROM notes WHERE book_id = :bookId AND is_cut = 0")
+    abstract fun getPositions(bookId: Long): List<NoteLftRgt>
 
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt >= :value")
-    abstract fun incrementRgtForRgtGeOrRoot(bookId: Long, value: Long, inc: Int)
+    @Query("UPDATE notes SET lft = :lft, rgt = :rgt WHERE id = :id")
+    abstract fun updateLftRgt(id: Long, lft: Long, rgt: Long)
 
     @Transaction
     open fun unfoldNotesFoldedUnderOthers(ids: Set<Long>) {
@@ -351,15 +368,45 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("""SELECT DISTINCT book_id FROM notes WHERE id IN (:ids) AND COALESCE(state, "") != COALESCE(:state, "")""")
     abstract fun getBookIdsForNotesNotMatchingState(ids: Set<Long>, state: String?): List<Long>
 
-    @Query("SELECT MAX(rgt) FROM notes WHERE book_id = :bookId AND is_cut = 0")
-    abstract fun getMaxRgtForBook(bookId: Long): Long?
-
     @Query("SELECT * FROM notes WHERE book_id = :bookId AND level > 0 ORDER BY lft LIMIT 1")
     abstract fun getFirstNoteInBook(bookId: Long): Note?
 
     @Query("UPDATE notes SET created_at= :time WHERE id = :noteId")
     abstract fun updateCreatedAtTime(noteId: Long, time: Long)
 
+    @Query("SELECT count(*) FROM notes WHERE level > 0")
+    abstract fun getCountForReparse(): Int
+
+    /**
+     * Page of note headings, in order of ids, following [afterId].
+     */
+    @Query("SELECT id, state, priority, title FROM notes WHERE id > :afterId AND level > 0 ORDER BY id LIMIT :limit")
+    abstract fun getForReparse(afterId: Long, limit: Int): List<NoteForReparse>
+
+    /**
+     * Copies planning times again, after their timestamps were recalculated.
+     */
+    @Query(NotePlanning.UPDATE_ALL)
+    abstract fun updatePlanningTimes()
+
+    @Query("""
+        SELECT notes.id, notes.lft, notes.rgt, notes.level, notes.descendants_count AS descendantsCount,
+        notes.parent_id AS parentId, notes.folded_under_id AS foldedUnderId, notes.is_folded AS isFolded,
+        notes.title, notes.tags, notes.state, notes.priority, notes.content, notes.created_at AS createdAt,
+        sr.string AS scheduled, dr.string AS deadline, cr.string AS closed, clr.string AS clock
+
+        FROM notes
+
+        LEFT JOIN org_ranges sr ON (sr.id = notes.scheduled_range_id)
+        LEFT JOIN org_ranges dr ON (dr.id = notes.deadline_range_id)
+        LEFT JOIN org_ranges cr ON (cr.id = notes.closed_range_id)
+        LEFT JOIN org_ranges clr ON (clr.id = notes.clock_range_id)
+
+        WHERE notes.book_id = :bookId
+        ORDER BY notes.lft
+    """)
+    abstract fun getForReconcile(bookId: Long): List<NoteForReconcile>
+
     companion object {
         /* Every book has a root note with level 0. */
         const val WHERE_EXISTING_NOTES = "(is_cut = 0 AND level > 0)"
@@ -426,12 +473,36 @@ abstract class NoteDao : BaseDao<Note> {
             """
 
         fun rootNote(bookId: Long): Note {
-            return Note(id = 0, position = NotePosition(bookId, lft = 1, rgt = 2, level = 0))
+            return Note(id = 0, position = NotePosition(bookId, lft = 1, rgt = NotePositions.spread(2), level = 0))
         }
     }
 
     data class NoteIdBookId(val noteId: Long, val bookId: Long)
 
+    data class NoteLftRgt(val id: Long, val lft: Long, val rgt: Long)
+
+    data class NoteForReconcile(
+            val id: Long,
+            val lft: Long,
+            val rgt: Long,
+            val level: Int,
+            val descendantsCount: Int,
+            val parentId: Long,
+            val foldedUnderId: Long,
+            val isFolded: Boolean,
+            val title: String,
+            val tags: String?,
+            val state: String?,
+            val priority: String?,
+            val content: String?,
+            val createdAt: Long?,
+            val scheduled: String?,
+            val deadline: String?,
+            val closed: String?,
+            val clock: String?)
+
+    data class NoteForReparse(val id: Long, val state: String?, val priority: String?, val title: String)
+
     data class NoteForStateUpdate(
             val noteId: Long,
             val state: String?,
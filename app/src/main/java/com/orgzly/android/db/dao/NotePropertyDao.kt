@@ -3,6 +3,7 @@ package com.orgzly.android.db.dao
 import androidx.room.Dao
 import androidx.room.Query
 import androidx.room.Transaction
+import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.entity.NoteProperty
 
 @Dao
@@ -17,6 +18,25 @@ abstract class NotePropertyDao : BaseDao<NoteProperty> {
     @Query("SELECT * FROM note_properties")
     abstract fun getAll(): List<NoteProperty>
 
+    @Query("""
+        SELECT note_properties.*
+        FROM note_properties
+        JOIN notes ON (notes.id = note_properties.note_id)
+        WHERE notes.book_id = :bookId
+        ORDER BY note_properties.note_id, note_properties.position
+    """)
+    abstract fun getForBook(bookId: Long): List<NoteProperty>
+
+    @Transaction
+    open fun getForNotes(noteIds: Collection<Long>): List<NoteProperty> {
+        return noteIds.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).flatMap { chunk ->
+            getForNotesChunk(chunk)
+        }
+    }
+
+    @Query("SELECT * FROM note_properties WHERE note_id IN (:noteIds) ORDER BY note_id, position")
+    abstract fun getForNotesChunk(noteIds: List<Long>): List<NoteProperty>
+
     @Transaction
     open fun upsert(noteId: Long, name: String, value: String) {
         val properties = get(noteId, name)
@@ -0,0 +1,32 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Transaction
+import com.orgzly.android.db.entity.NoteTag
+
+@Dao
+abstract class NoteTagDao {
+
+    @Query("SELECT * FROM note_tags WHERE note_id = :noteId ORDER BY is_inherited, tag")
+    abstract fun get(noteId: Long): List<NoteTag>
+
+    /**
+     * Replaces note's own tags. Tags inherited by its descendants follow.
+     */
+    @Transaction
+    open fun replaceOwn(noteId: Long, tags: List<String>) {
+        deleteOwn(noteId)
+
+        insert(tags.map { NoteTag(noteId, it, false) })
+    }
+
+    @Query("DELETE FROM note_tags WHERE note_id = :noteId AND is_inherited = 0")
+    abstract fun deleteOwn(noteId: Long)
+
+    /* Same tag with different case is the same tag. */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    abstract fun insert(tags: List<NoteTag>)
+}
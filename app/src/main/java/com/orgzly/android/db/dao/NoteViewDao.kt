@@ -1,5 +1,6 @@
 package com.orgzly.android.db.dao
 
+import android.database.Cursor
 import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Query
@@ -54,6 +55,42 @@ abstract class NoteViewDao {
     @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 GROUP BY notes.id ORDER BY notes.lft")
     abstract fun getBookNotes(bookName: String): List<NoteView>
 
+    /**
+     * Book's notes in order, each repeated for every one of its properties (in order).
+     * Notes without properties have a single row with NULL property name and value.
+     */
+    @Query("""
+        SELECT
+
+        notes.id,
+        notes.level,
+        notes.title,
+        notes.tags,
+        notes.state,
+        notes.priority,
+        notes.content,
+
+        t_scheduled_range.string AS scheduled_range_string,
+        t_deadline_range.string AS deadline_range_string,
+        t_closed_range.string AS closed_range_string,
+        t_clock_range.string AS clock_range_string,
+
+        note_properties.name AS property_name,
+        note_properties.value AS property_value
+
+        FROM notes
+
+        LEFT JOIN org_ranges t_scheduled_range ON t_scheduled_range.id = notes.scheduled_range_id
+        LEFT JOIN org_ranges t_deadline_range ON t_deadline_range.id = notes.deadline_range_id
+        LEFT JOIN org_ranges t_closed_range ON t_closed_range.id = notes.closed_range_id
+        LEFT JOIN org_ranges t_clock_range ON t_clock_range.id = notes.clock_range_id
+        LEFT JOIN note_properties ON note_properties.note_id = notes.id
+
+        WHERE notes.book_id = :bookId AND notes.level > 0 AND notes.is_cut = 0
+        ORDER BY notes.lft, note_properties.position
+    """)
+    abstract fun getBookNotesWithPropertiesCursor(bookId: Long): Cursor
+
 
     companion object {
         @Language("RoomSql")
@@ -67,23 +104,23 @@ abstract class NoteViewDao {
             t_scheduled_range.string AS scheduled_range_string,
             t_scheduled_timestamps_start.string AS scheduled_time_string,
             t_scheduled_timestamps_end.string AS scheduled_time_end_string,
-            t_scheduled_timestamps_start.timestamp AS scheduled_time_timestamp,
-            datetime(t_scheduled_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
-            t_scheduled_timestamps_start.hour AS scheduled_time_hour,
+            notes.scheduled_timestamp AS scheduled_time_timestamp,
+            notes.scheduled_start_of_day AS scheduled_time_start_of_day,
+            notes.scheduled_hour AS scheduled_time_hour,
 
             t_deadline_range.string AS deadline_range_string,
             t_deadline_timestamps_start.string AS deadline_time_string,
             t_deadline_timestamps_end.string AS deadline_time_end_string,
-            t_deadline_timestamps_start.timestamp AS deadline_time_timestamp,
-            datetime(t_deadline_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
-            t_deadline_timestamps_start.hour AS deadline_time_hour,
+            notes.deadline_timestamp AS deadline_time_timestamp,
+            notes.deadline_start_of_day AS deadline_time_start_of_day,
+            notes.deadline_hour AS deadline_time_hour,
 
             t_closed_range.string AS closed_range_string,
             t_closed_timestamps_start.string AS closed_time_string,
             t_closed_timestamps_end.string AS closed_time_end_string,
-            t_closed_timestamps_start.string AS closed_time_timestamp,
-            datetime(t_closed_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
-            t_closed_timestamps_start.hour AS closed_time_hour,
+            notes.closed_timestamp AS closed_time_timestamp,
+            notes.closed_start_of_day AS closed_time_start_of_day,
+            notes.closed_hour AS closed_time_hour,
 
             t_clock_range.string AS clock_range_string,
             t_clock_timestamps_start.string AS clock_time_string,
@@ -125,27 +162,25 @@ abstract class NoteViewDao {
             group_concat(t_notes_with_inherited_tags.tags, ' ') AS inherited_tags,
 
             t_scheduled_range.string AS scheduled_range_string,
-            t_scheduled_timestamps_start.is_active AS scheduled_is_active,
             t_scheduled_timestamps_start.string AS scheduled_time_string,
             t_scheduled_timestamps_end.string AS scheduled_time_end_string,
-            t_scheduled_timestamps_start.timestamp AS scheduled_time_timestamp,
-            datetime(t_scheduled_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
-            t_scheduled_timestamps_start.hour AS scheduled_time_hour,
+            notes.scheduled_timestamp AS scheduled_time_timestamp,
+            notes.scheduled_start_of_day AS scheduled_time_start_of_day,
+            notes.scheduled_hour AS scheduled_time_hour,
 
             t_deadline_range.string AS deadline_range_string,
-            t_deadline_timestamps_start.is_active AS deadline_is_active,
             t_deadline_timestamps_start.string AS deadline_time_string,
             t_deadline_timestamps_end.string AS deadline_time_end_string,
-            t_deadline_timestamps_start.timestamp AS deadline_time_timestamp,
-            datetime(t_deadline_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
-            t_deadline_timestamps_start.hour AS deadline_time_hour,
+            notes.deadline_timestamp AS deadline_time_timestamp,
+            notes.deadline_start_of_day AS deadline_time_start_of_day,
+            notes.deadline_hour AS deadline_time_hour,
 
             t_closed_range.string AS closed_range_string,
             t_closed_timestamps_start.string AS closed_time_string,
             t_closed_timestamps_end.string AS closed_time_end_string,
-            t_closed_timestamps_start.timestamp AS closed_time_timestamp,
-            datetime(t_closed_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
-            t_closed_timestamps_start.hour AS closed_time_hour,
+            notes.closed_timestamp AS closed_time_timestamp,
+            notes.closed_start_of_day AS closed_time_start_of_day,
+            notes.closed_hour AS closed_time_hour,
 
             t_clock_range.string AS clock_range_string,
             t_clock_timestamps_start.string AS clock_time_string,
@@ -181,8 +216,9 @@ abstract class NoteViewDao {
             LEFT JOIN org_ranges t_note_events_range ON t_note_events_range.id = t_note_events.org_range_id
             LEFT JOIN org_timestamps t_note_events_start ON t_note_events_start.id = t_note_events_range.start_timestamp_id
             LEFT JOIN org_timestamps t_note_events_end ON t_note_events_end.id = t_note_events_range.end_timestamp_id
-
-            GROUP BY notes.id, event_timestamp
         """
+
+        /** Used after [QUERY_WITH_NOTE_EVENTS] and conditions on notes. */
+        const val GROUP_BY_NOTE_EVENTS = "GROUP BY notes.id, event_timestamp"
     }
 }
@@ -0,0 +1,86 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.orgzly.android.db.entity.ReminderOccurrence
+
+@Dao
+abstract class ReminderOccurrenceDao {
+    data class NoteOccurrence(
+            var noteId: Long,
+            var bookId: Long,
+            var bookName: String,
+            var title: String,
+            var tags: String?,
+            var timeType: Int,
+            var orgTimestampString: String,
+            var runTime: Long)
+
+    /**
+     * First occurrence in the interval for each note's time of the type.
+     */
+    @Query("""
+        SELECT
+        o.note_id as noteId,
+        n.book_id as bookId,
+        coalesce(b.title, b.name) as bookName,
+        n.title as title,
+        n.tags as tags,
+        o.time_type as timeType,
+        o.org_timestamp_string as orgTimestampString,
+        MIN(o.run_time) as runTime
+        FROM reminder_occurrences o
+        JOIN notes n ON (n.id = o.note_id)
+        JOIN books b ON (b.id = n.book_id)
+        WHERE o.run_time >= :from AND o.run_time < :before AND o.time_type = :timeType
+        AND (n.state IS NULL OR n.state NOT IN (:doneStates))
+        GROUP BY o.note_id, o.time_type, o.org_timestamp_string
+        ORDER BY runTime
+    """)
+    abstract fun getFirstInInterval(timeType: Int, from: Long, before: Long, doneStates: Collection<String>): List<NoteOccurrence>
+
+    /**
+     * Earliest occurrence from [from], found by walking the run_time index.
+     */
+    @Query("""
+        SELECT
+        o.note_id as noteId,
+        n.book_id as bookId,
+        coalesce(b.title, b.name) as bookName,
+        n.title as title,
+        n.tags as tags,
+        o.time_type as timeType,
+        o.org_timestamp_string as orgTimestampString,
+        o.run_time as runTime
+        FROM reminder_occurrences o
+        JOIN notes n ON (n.id = o.note_id)
+        JOIN books b ON (b.id = n.book_id)
+        WHERE o.run_time >= :from AND o.time_type IN (:timeTypes)
+        AND (n.state IS NULL OR n.state NOT IN (:doneStates))
+        ORDER BY o.run_time
+        LIMIT 1
+    """)
+    abstract fun getNext(from: Long, timeTypes: Collection<Int>, doneStates: Collection<String>): NoteOccurrence?
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    abstract fun insert(occurrences: List<ReminderOccurrence>)
+
+    @Query("DELETE FROM reminder_occurrences WHERE note_id IN (SELECT note_id FROM reminder_stale_notes)")
+    abstract fun deleteForStaleNotes()
+
+    @Query("DELETE FROM reminder_stale_notes")
+    abstract fun deleteStaleNotes()
+
+    /**
+     * Marks all notes with times, for when fire times depend on changed settings.
+     */
+    @Query("""
+        INSERT OR IGNORE INTO reminder_stale_notes (note_id)
+        SELECT id FROM notes WHERE scheduled_range_id IS NOT NULL OR deadline_range_id IS NOT NULL
+        UNION
+        SELECT note_id FROM note_events
+    """)
+    abstract fun markAllStale()
+}
@@ -16,6 +16,37 @@ interface ReminderTimeDao {
             var orgTimestampString: String)
 
     @Query("""
+        SELECT * FROM (
+        $SCHEDULED_TIMES AND n.id = :noteId
+        UNION
+        $DEADLINE_TIMES AND n.id = :noteId
+        UNION
+        $EVENT_TIMES WHERE e.note_id = :noteId
+        ) WHERE timeType = :timeType
+    """)
+    fun get(noteId: Long, timeType: Int): List<NoteTime>
+
+    /**
+     * Times of notes marked by [com.orgzly.android.db.ReminderOccurrences] triggers.
+     *
+     * Notes are filtered in each part of the union, as SQLite would otherwise
+     * compute times of all notes first.
+     */
+    @Query("""
+        $SCHEDULED_TIMES AND n.id IN (SELECT note_id FROM reminder_stale_notes)
+        UNION
+        $DEADLINE_TIMES AND n.id IN (SELECT note_id FROM reminder_stale_notes)
+        UNION
+        $EVENT_TIMES WHERE e.note_id IN (SELECT note_id FROM reminder_stale_notes)
+    """)
+    fun getForStaleNotes(): List<NoteTime>
+
+    companion object {
+        const val SCHEDULED_TIME = 1
+        const val DEADLINE_TIME = 2
+        const val EVENT_TIME = 3
+
+        private const val SCHEDULED_TIMES = """
         SELECT
         n.id as noteId,
         n.book_id as bookId,
@@ -30,9 +61,9 @@ interface ReminderTimeDao {
         JOIN notes n ON (r.id = n.scheduled_range_id)
         JOIN books b ON (b.id = n.book_id)
         WHERE t.is_active = 1
+        """
 
-        UNION
-
+        private const val DEADLINE_TIMES = """
         SELECT
         n.id as noteId,
         n.book_id as bookId,
@@ -47,9 +78,9 @@ interface ReminderTimeDao {
         JOIN notes n ON (r.id = n.deadline_range_id)
         JOIN books b ON (b.id = n.book_id)
         WHERE t.is_active = 1
+        """
 
-        UNION
-
+        private const val EVENT_TIMES = """
         SELECT
         n.id as noteId,
         n.book_id as bookId,
@@ -64,13 +95,6 @@ interface ReminderTimeDao {
         JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
         JOIN notes n ON (n.id = e.note_id)
         JOIN books b ON (b.id = n.book_id)
-
-    """)
-    fun getAll(): List<NoteTime>
-
-    companion object {
-        const val SCHEDULED_TIME = 1
-        const val DEADLINE_TIME = 2
-        const val EVENT_TIME = 3
+        """
     }
 }
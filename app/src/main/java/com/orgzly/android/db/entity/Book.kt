@@ -48,7 +48,11 @@ data class Book constructor(
         val lastAction: BookAction? = null,
 
         @ColumnInfo(name = "is_modified")
-        val isModified: Boolean = false
+        val isModified: Boolean = false,
+
+        /* Number of notes, not counting the root and cut notes. */
+        @ColumnInfo(name = "note_count")
+        val noteCount: Int = 0
 ) {
 
     override fun toString(): String {
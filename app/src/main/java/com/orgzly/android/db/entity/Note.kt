@@ -35,21 +35,21 @@ import com.google.gson.Gson
                     onDelete = ForeignKey.CASCADE)
         ],
 
+        /*
+         * Composite indices follow how notes are read: by book in tree order,
+         * by book skipping cut and folded notes, and by parent in tree order.
+         */
         indices = [
-            Index("title"),
-            Index("tags"),
-            Index("content"),
-            Index("book_id"),
-            Index("is_cut"),
-            Index("lft"),
-            Index("rgt"),
-            Index("is_folded"),
+            Index("book_id", "lft"),
+            Index("book_id", "is_cut", "folded_under_id"),
+            Index("parent_id", "lft"),
             Index("folded_under_id"),
-            Index("parent_id"),
-            Index("descendants_count"),
             Index("scheduled_range_id"),
             Index("deadline_range_id"),
-            Index("closed_range_id")
+            Index("closed_range_id"),
+            Index("scheduled_is_active", "scheduled_timestamp"),
+            Index("deadline_is_active", "deadline_timestamp"),
+            Index("closed_timestamp")
         ]
 )
 data class Note(
@@ -88,7 +88,45 @@ data class Note(
         val clockRangeId: Long? = null,
 
         @Embedded(prefix = "")
-        val position: NotePosition
+        val position: NotePosition,
+
+        /* Start times of planning ranges, maintained by NotePlanning triggers. */
+
+        @ColumnInfo(name = "scheduled_timestamp")
+        val scheduledTimestamp: Long? = null,
+
+        @ColumnInfo(name = "scheduled_start_of_day")
+        val scheduledStartOfDay: Long? = null,
+
+        @ColumnInfo(name = "scheduled_hour")
+        val scheduledHour: Int? = null,
+
+        @ColumnInfo(name = "scheduled_is_active")
+        val scheduledIsActive: Boolean? = null,
+
+        @ColumnInfo(name = "deadline_timestamp")
+        val deadlineTimestamp: Long? = null,
+
+        @ColumnInfo(name = "deadline_start_of_day")
+        val deadlineStartOfDay: Long? = null,
+
+        @ColumnInfo(name = "deadline_hour")
+        val deadlineHour: Int? = null,
+
+        @ColumnInfo(name = "deadline_is_active")
+        val deadlineIsActive: Boolean? = null,
+
+        @ColumnInfo(name = "closed_timestamp")
+        val closedTimestamp: Long? = null,
+
+        @ColumnInfo(name = "closed_start_of_day")
+        val closedStartOfDay: Long? = null,
+
+        @ColumnInfo(name = "closed_hour")
+        val closedHour: Int? = null,
+
+        @ColumnInfo(name = "closed_is_active")
+        val closedIsActive: Boolean? = null
 ) {
 
     fun hasContent(): Boolean {
@@ -0,0 +1,37 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Note's tag, either its own or inherited from an ancestor.
+ *
+ * Own tags are written together with the note. Inherited tags are
+ * maintained by triggers (see [com.orgzly.android.db.NoteTags]).
+ */
+@Entity(
+        tableName = "note_tags",
+
+        primaryKeys = [ "note_id", "tag", "is_inherited" ],
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("tag", "is_inherited", "note_id")
+        ]
+)
+data class NoteTag(
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(collate = ColumnInfo.NOCASE)
+        val tag: String,
+
+        @ColumnInfo(name = "is_inherited")
+        val isInherited: Boolean
+)
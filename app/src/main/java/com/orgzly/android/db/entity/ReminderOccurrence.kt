@@ -0,0 +1,40 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Time at which a reminder for note's time fires.
+ *
+ * Computed by the app for notes marked as stale by triggers
+ * (see [com.orgzly.android.db.ReminderOccurrences]).
+ */
+@Entity(
+        tableName = "reminder_occurrences",
+
+        primaryKeys = [ "note_id", "time_type", "org_timestamp_string", "run_time" ],
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("run_time")
+        ]
+)
+data class ReminderOccurrence(
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "time_type")
+        val timeType: Int,
+
+        @ColumnInfo(name = "org_timestamp_string")
+        val orgTimestampString: String,
+
+        @ColumnInfo(name = "run_time")
+        val runTime: Long
+)
@@ -0,0 +1,17 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Note whose reminder occurrences need to be computed again.
+ *
+ * No foreign key, as the note can already be deleted when it is marked.
+ */
+@Entity(tableName = "reminder_stale_notes")
+data class ReminderStaleNote(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long
+)
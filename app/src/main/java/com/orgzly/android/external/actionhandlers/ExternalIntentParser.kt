@@ -8,7 +8,7 @@ import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.db.entity.SavedSearch
 import com.orgzly.android.external.types.ExternalHandlerFailure
-import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.query.QueryCache
 import com.orgzly.android.ui.NotePlace
 import com.orgzly.android.ui.Place
 import com.orgzly.android.ui.note.NotePayload
@@ -46,7 +46,7 @@ interface ExternalIntentParser {
     private fun getNoteByQuery(rawQuery: String?): NoteView {
         if (rawQuery == null)
             throw ExternalHandlerFailure("couldn't find note")
-        val query = InternalQueryParser().parse(rawQuery)
+        val query = QueryCache.parse(rawQuery)
         val notes = dataRepository.selectNotesFromQuery(query)
         if (notes.isEmpty())
             throw ExternalHandlerFailure("couldn't find note")
@@ -442,8 +442,24 @@ public class GitFileSynchronizer {
         return new RevWalk(git.getRepository()).parseCommit(target.getObjectId());
     }
 
+    /**
+     * Looks the file up in the {@link GitLastCommitIndex} for the current HEAD,
+     * falling back to {@code git log} if the index has no entry for it.
+     */
     public RevCommit getLastCommitOfFile(Uri uri) throws GitAPIException {
         String repoRelativePath = uri.toString().replaceFirst("^/", "");
+        try {
+            RevCommit head = currentHead();
+            if (head != null) {
+                RevCommit commit = GitLastCommitIndex.forRepository(git.getRepository())
+                        .getLastCommit(head, repoRelativePath);
+                if (commit != null) {
+                    return commit;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to use last commit index: " + e.getMessage());
+        }
         return git.log().setMaxCount(1).addPath(repoRelativePath).call().iterator().next();
     }
 
@@ -0,0 +1,229 @@
+package com.orgzly.android.git;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.util.LogUtils;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Last commit which changed each file, for all files in HEAD.
+ *
+ * Built with a single walk back through history, instead of one
+ * {@code git log -1 -- path} per file. The index is kept per repository
+ * and updated when HEAD moves. If the previous HEAD is an ancestor of the
+ * new one, only the new commits are walked. The index is dropped when its
+ * repository is deleted or cloned again.
+ *
+ * A commit is the last one for a path if it has the same file content as HEAD
+ * and differs from all of its parents there. That is the same commit
+ * {@code git log} finds, except for changes which were later discarded by a merge.
+ */
+public class GitLastCommitIndex {
+    private final static String TAG = GitLastCommitIndex.class.getName();
+
+    private static final Map<File, GitLastCommitIndex> INSTANCES = new HashMap<>();
+
+    public static GitLastCommitIndex forRepository(Repository repository) {
+        synchronized (INSTANCES) {
+            File key = repository.getDirectory().getAbsoluteFile();
+
+            GitLastCommitIndex index = INSTANCES.get(key);
+            if (index == null) {
+                index = new GitLastCommitIndex(repository);
+                INSTANCES.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drops the index of the repository in {@code workTree}, once the repository
+     * is removed or cloned again there.
+     */
+    public static void remove(File workTree) {
+        synchronized (INSTANCES) {
+            INSTANCES.remove(new File(workTree, Constants.DOT_GIT).getAbsoluteFile());
+        }
+    }
+
+    private final Repository repository;
+
+    /* HEAD the index was built for. */
+    private ObjectId head;
+
+    /* Content of each file in HEAD. */
+    private Map<String, ObjectId> blobs = new HashMap<>();
+
+    /* Last commit of each file in HEAD. */
+    private Map<String, RevCommit> commits = new HashMap<>();
+
+    GitLastCommitIndex(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @return last commit which changed the file, or null if there is no such file in {@code head}
+     */
+    public synchronized RevCommit getLastCommit(RevCommit head, String repoRelativePath) throws IOException {
+        if (!head.equals(this.head)) {
+            update(head);
+        }
+
+        return commits.get(repoRelativePath);
+    }
+
+    private void update(RevCommit newHead) throws IOException {
+        long startedAt = System.currentTimeMillis();
+
+        Map<String, ObjectId> newBlobs = readBlobs(newHead);
+        Map<String, RevCommit> newCommits = new HashMap<>();
+        Set<String> pending = new HashSet<>(newBlobs.keySet());
+
+        int walked = 0;
+
+        /* Old HEAD is missing if the history was replaced, nothing can be kept then. */
+        if (head != null && repository.getObjectDatabase().has(head) && isAncestor(head, newHead)) {
+            /* Walk only the new commits first. */
+            walked += walk(newHead, head, newBlobs, pending, newCommits);
+
+            /* Files which did not change since the old HEAD keep their commit. */
+            for (String path : new HashSet<>(pending)) {
+                RevCommit commit = commits.get(path);
+                if (commit != null && newBlobs.get(path).equals(blobs.get(path))) {
+                    newCommits.put(path, commit);
+                    pending.remove(path);
+                }
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            walked += walk(newHead, null, newBlobs, pending, newCommits);
+        }
+
+        head = newHead.copy();
+        blobs = newBlobs;
+        commits = newCommits;
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, String.format(
+                    "Indexed %d files at %s in %d ms (%d commits walked)",
+                    newBlobs.size(), newHead.name(), System.currentTimeMillis() - startedAt, walked));
+        }
+    }
+
+    private Map<String, ObjectId> readBlobs(RevCommit commit) throws IOException {
+        Map<String, ObjectId> result = new HashMap<>();
+
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(commit.getTree());
+
+            while (treeWalk.next()) {
+                result.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+        }
+
+        return result;
+    }
+
+    private boolean isAncestor(ObjectId base, RevCommit tip) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            return revWalk.isMergedInto(revWalk.parseCommit(base), revWalk.parseCommit(tip));
+        }
+    }
+
+    /**
+     * Walks commits from {@code start} (newest first), stopping at {@code stop} if given,
+     * until the last commit is found for every pending path.
+     *
+     * @return number of commits walked
+     */
+    private int walk(
+            RevCommit start,
+            ObjectId stop,
+            Map<String, ObjectId> targets,
+            Set<String> pending,
+            Map<String, RevCommit> result) throws IOException {
+
+        int walked = 0;
+
+        try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+            revWalk.sort(RevSort.COMMIT_TIME_DESC);
+            revWalk.markStart(revWalk.parseCommit(start));
+            if (stop != null) {
+                revWalk.markUninteresting(revWalk.parseCommit(stop));
+            }
+
+            treeWalk.setRecursive(true);
+
+            TreeFilter filter = null;
+            int filterSize = -1;
+
+            for (RevCommit commit : revWalk) {
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                walked++;
+
+                /* Only rebuild the filter when some paths were resolved. */
+                if (filterSize != pending.size()) {
+                    filter = AndTreeFilter.create(
+                            PathFilterGroup.createFromStrings(pending), TreeFilter.ANY_DIFF);
+                    filterSize = pending.size();
+                }
+
+                treeWalk.reset();
+                treeWalk.setFilter(filter);
+                treeWalk.addTree(commit.getTree());
+                for (RevCommit parent : commit.getParents()) {
+                    revWalk.parseHeaders(parent);
+                    treeWalk.addTree(parent.getTree());
+                }
+
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+
+                    if (!pending.contains(path)
+                            || treeWalk.getFileMode(0) == FileMode.MISSING
+                            || !treeWalk.getObjectId(0).equals(targets.get(path))) {
+                        continue;
+                    }
+
+                    if (!isSameAsAnyParent(treeWalk)) {
+                        result.put(path, commit);
+                        pending.remove(path);
+                    }
+                }
+            }
+        }
+
+        return walked;
+    }
+
+    private static boolean isSameAsAnyParent(TreeWalk treeWalk) {
+        for (int i = 1; i < treeWalk.getTreeCount(); i++) {
+            if (treeWalk.getRawMode(i) == treeWalk.getRawMode(0) && treeWalk.idEqual(i, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
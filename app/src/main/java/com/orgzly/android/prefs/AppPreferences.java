@@ -14,7 +14,6 @@ import com.google.gson.JsonElement;
 import com.orgzly.R;
 import com.orgzly.android.App;
 import com.orgzly.android.LocalStorage;
-import com.orgzly.org.OrgStatesWorkflow;
 
 import org.eclipse.jgit.transport.URIish;
 import org.jetbrains.annotations.NotNull;
@@ -27,7 +26,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,9 +35,11 @@ import java.util.Set;
  * Shared preferences utility class.
  */
 public class AppPreferences {
-    /* Static members for quick access. */
-    private static Set<String> todoKeywords;
-    private static Set<String> doneKeywords;
+    /* Values for quick access, dropped whenever a preference changes. */
+    private static volatile AppPreferencesSnapshot snapshot;
+
+    /* Kept here, as shared preferences only hold a weak reference to their listeners. */
+    private static SharedPreferences.OnSharedPreferenceChangeListener snapshotListener;
 
     /* Shared Preferences for states. */
     public static SharedPreferences getStateSharedPreferences(Context context) {
@@ -51,7 +51,42 @@ public class AppPreferences {
     }
 
     public static boolean isDoneKeyword(Context context, String state) {
-        return state != null && AppPreferences.doneKeywordsSet(context).contains(state);
+        return snapshot(context).isDoneKeyword(state);
+    }
+
+    /**
+     * Values of preferences used in hot paths. Built on first use after any change
+     * of default shared preferences, so reading a value is a field access.
+     */
+    public static AppPreferencesSnapshot snapshot(Context context) {
+        AppPreferencesSnapshot current = snapshot;
+
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (AppPreferences.class) {
+            if (snapshotListener == null) {
+                snapshotListener = (sharedPreferences, key) -> invalidateSnapshot();
+                getDefaultSharedPreferences(context).registerOnSharedPreferenceChangeListener(snapshotListener);
+            }
+
+            if (snapshot == null) {
+                snapshot = new AppPreferencesSnapshot(context);
+            }
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Called after changing values from the snapshot. Listeners are notified on the
+     * main thread, possibly after the changed value has already been read again.
+     */
+    private static void invalidateSnapshot() {
+        synchronized (AppPreferences.class) {
+            snapshot = null;
+        }
     }
 
     public static AppPreferencesValues getAllValues(Context context) {
@@ -67,6 +102,7 @@ public class AppPreferences {
     public static void setDefaultPrefsFromJsonMap(Context context, Map<String, ?> parsedMap) {
         SharedPreferences prefs = getDefaultSharedPreferences(context);
         setPrefsFromValues(prefs, parsedMap);
+        invalidateSnapshot();
     }
 
     public static JsonElement getDefaultPrefsAsJsonObject(Context context) {
@@ -80,6 +116,8 @@ public class AppPreferences {
         setPrefsFromValues(getDefaultSharedPreferences(context), values.defaultPrefsValues);
         setPrefsFromValues(getStateSharedPreferences(context), values.statePrefsValues);
         setPrefsFromValues(getReposSharedPreferences(context), values.reposPrefsValues);
+
+        invalidateSnapshot();
     }
 
     @SuppressWarnings("unchecked")
@@ -123,6 +161,8 @@ public class AppPreferences {
         clearAllSharedPreferences(context);
 
         App.setDefaultPreferences(context, true);
+
+        invalidateSnapshot();
     }
 
     private static void clearAllSharedPreferences(Context context) {
@@ -220,6 +260,7 @@ public class AppPreferences {
     public static void styledTextWithMarks(Context context, boolean value) {
         String key = context.getResources().getString(R.string.pref_key_styled_text_with_marks);
         getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static String notebooksSortOrder(Context context) {
@@ -249,6 +290,7 @@ public class AppPreferences {
     public static void createdAt(Context context, boolean value) {
         String key = context.getResources().getString(R.string.pref_key_is_created_at_added);
         getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static boolean addIdToNewNotes(Context context) {
@@ -271,6 +313,7 @@ public class AppPreferences {
     public static void createdAtProperty(Context context, String value) {
         String key = context.getResources().getString(R.string.pref_key_created_at_property);
         getDefaultSharedPreferences(context).edit().putString(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static String shareNotebook(Context context) {
@@ -285,6 +328,18 @@ public class AppPreferences {
                 context.getResources().getBoolean(R.bool.pref_default_force_utf8));
     }
 
+    public static boolean bulkBookImport(Context context) {
+        return getDefaultSharedPreferences(context).getBoolean(
+                context.getResources().getString(R.string.pref_key_bulk_book_import),
+                context.getResources().getBoolean(R.bool.pref_default_bulk_book_import));
+    }
+
+    public static void bulkBookImport(Context context, boolean value) {
+        String key = context.getResources().getString(R.string.pref_key_bulk_book_import);
+        getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
+    }
+
     public static boolean notebooksStartFolded(Context context) {
         return getDefaultSharedPreferences(context).getBoolean(
                 context.getResources().getString(R.string.pref_key_notebooks_start_folded),
@@ -312,6 +367,7 @@ public class AppPreferences {
     public static void remindersForScheduledEnabled(Context context, boolean value) {
         String key = context.getResources().getString(R.string.pref_key_use_reminders_for_scheduled_times);
         getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static boolean remindersForDeadlineEnabled(Context context) {
@@ -323,6 +379,7 @@ public class AppPreferences {
     public static void remindersForDeadlineEnabled(Context context, boolean value) {
         String key = context.getResources().getString(R.string.pref_key_use_reminders_for_deadline_times);
         getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static boolean remindersForEventsEnabled(Context context) {
@@ -334,6 +391,7 @@ public class AppPreferences {
     public static void remindersForEventsEnabled(Context context, boolean value) {
         String key = context.getResources().getString(R.string.pref_key_use_reminders_for_event_times);
         getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static boolean anyNotificationsEnabled(Context context) {
@@ -397,6 +455,7 @@ public class AppPreferences {
     public static void reminderDailyTime(Context context, int value) {
         String key = context.getResources().getString(R.string.pref_key_daily_reminder_time);
         getDefaultSharedPreferences(context).edit().putInt(key, value).apply();
+        invalidateSnapshot();
     }
 
     public static boolean remindersUseAlarmClockForTodReminders(Context context) {
@@ -461,6 +520,18 @@ public class AppPreferences {
                 context.getResources().getBoolean(R.bool.pref_default_ignore_system_locale));
     }
 
+    public static boolean searchWordBeginnings(Context context) {
+        return getDefaultSharedPreferences(context).getBoolean(
+                context.getResources().getString(R.string.pref_key_search_word_beginnings),
+                context.getResources().getBoolean(R.bool.pref_default_search_word_beginnings));
+    }
+
+    public static void searchWordBeginnings(Context context, boolean value) {
+        String key = context.getResources().getString(R.string.pref_key_search_word_beginnings);
+        getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
+    }
+
     public static String bookNameInSearchResults(Context context) {
         return getDefaultSharedPreferences(context).getString(
                 context.getResources().getString(R.string.pref_key_book_name_in_search),
@@ -652,36 +723,17 @@ public class AppPreferences {
 
     /** Get all to-do states. */
     public static Set<String> todoKeywordsSet(Context context) {
-        synchronized (AppPreferences.class) {
-            if (todoKeywords == null) {
-                updateStaticKeywords(context);
-            }
-
-            return todoKeywords;
-        }
+        return snapshot(context).todoKeywords;
     }
 
     /** Get all done states. */
     public static Set<String> doneKeywordsSet(Context context) {
-        synchronized (AppPreferences.class) {
-            if (doneKeywords == null) {
-                updateStaticKeywords(context);
-            }
-            return doneKeywords;
-        }
+        return snapshot(context).doneKeywords;
     }
 
-    /** Parses states preference, which can be slow. */
+    /** Have states preference parsed again on next use. */
     public static void updateStaticKeywords(Context context) {
-        synchronized (AppPreferences.class) {
-            todoKeywords = new LinkedHashSet<>();
-            doneKeywords = new LinkedHashSet<>();
-
-            for (OrgStatesWorkflow workflow: new StateWorkflows(states(context))) {
-                todoKeywords.addAll(workflow.getTodoKeywords());
-                doneKeywords.addAll(workflow.getDoneKeywords());
-            }
-        }
+        invalidateSnapshot();
     }
 
     /*
@@ -712,6 +764,7 @@ public class AppPreferences {
     public static void defaultPriority(Context context, String value) {
         String key = context.getResources().getString(R.string.pref_key_default_priority);
         getDefaultSharedPreferences(context).edit().putString(key, value).apply();
+        invalidateSnapshot();
     }
 
     /*
@@ -727,6 +780,7 @@ public class AppPreferences {
     public static void drawersFolded(Context context, boolean value) {
         String key = context.getResources().getString(R.string.pref_key_drawers_folded);
         getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+        invalidateSnapshot();
     }
 
     /*
@@ -988,6 +1042,84 @@ public class AppPreferences {
         editor.apply();
     }
 
+    /**
+     * Serialized listing of the Dropbox repository with specified ID, with its list_folder cursor.
+     */
+    public static String dropboxListFolderState(Context context, long repoId) {
+        return getStateSharedPreferences(context).getString(dropboxListFolderStateKey(context, repoId), null);
+    }
+
+    public static void dropboxListFolderState(Context context, long repoId, String value) {
+        String key = dropboxListFolderStateKey(context, repoId);
+        SharedPreferences.Editor editor = getStateSharedPreferences(context).edit();
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Delete listings of all Dropbox repositories.
+     */
+    public static void dropboxListFolderStateDelete(Context context) {
+        String prefix = dropboxListFolderStateKeyPrefix(context);
+        SharedPreferences prefs = getStateSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key: prefs.getAll().keySet()) {
+            if (key.startsWith(prefix)) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    private static String dropboxListFolderStateKey(Context context, long repoId) {
+        return dropboxListFolderStateKeyPrefix(context) + repoId;
+    }
+
+    private static String dropboxListFolderStateKeyPrefix(Context context) {
+        return context.getResources().getString(R.string.pref_key_dropbox_list_folder_state) + "-";
+    }
+
+    /*
+     * WebDAV
+     */
+
+    public static boolean webdavSkipUnchangedListing(Context context) {
+        return getDefaultSharedPreferences(context).getBoolean(
+                context.getResources().getString(R.string.pref_key_webdav_skip_unchanged_listing),
+                context.getResources().getBoolean(R.bool.pref_default_webdav_skip_unchanged_listing));
+    }
+
+    public static void webdavSkipUnchangedListing(Context context, boolean value) {
+        String key = context.getResources().getString(R.string.pref_key_webdav_skip_unchanged_listing);
+        getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+    }
+
+    /**
+     * Serialized last listing of the WebDAV repository with specified ID, with the folder's tag.
+     */
+    public static String webdavListingState(Context context, long repoId) {
+        return getStateSharedPreferences(context).getString(webdavListingStateKey(context, repoId), null);
+    }
+
+    public static void webdavListingState(Context context, long repoId, String value) {
+        String key = webdavListingStateKey(context, repoId);
+        SharedPreferences.Editor editor = getStateSharedPreferences(context).edit();
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+        editor.apply();
+    }
+
+    private static String webdavListingStateKey(Context context, long repoId) {
+        return context.getResources().getString(R.string.pref_key_webdav_listing_state) + "-" + repoId;
+    }
+
     /*
      * Git Sync
      */
@@ -1010,6 +1142,28 @@ public class AppPreferences {
     public static void gitIsEnabled(Context context, Boolean value) {
         getDefaultSharedPreferences(context).edit().putBoolean(context.getResources().getString(R.string.pref_key_git_is_enabled), value).apply();
     }
+
+    public static boolean gitPushOncePerSync(Context context) {
+        return getDefaultSharedPreferences(context).getBoolean(
+                context.getResources().getString(R.string.pref_key_git_push_once_per_sync),
+                context.getResources().getBoolean(R.bool.pref_default_git_push_once_per_sync));
+    }
+
+    public static void gitPushOncePerSync(Context context, boolean value) {
+        String key = context.getResources().getString(R.string.pref_key_git_push_once_per_sync);
+        getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+    }
+
+    public static boolean gitPushSingleBookImmediately(Context context) {
+        return getDefaultSharedPreferences(context).getBoolean(
+                context.getResources().getString(R.string.pref_key_git_push_single_book_immediately),
+                context.getResources().getBoolean(R.bool.pref_default_git_push_single_book_immediately));
+    }
+
+    public static void gitPushSingleBookImmediately(Context context, boolean value) {
+        String key = context.getResources().getString(R.string.pref_key_git_push_single_book_immediately);
+        getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+    }
     
     public static String defaultRepositoryStorageDirectory(Context context) {
         File path = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
@@ -1112,6 +1266,19 @@ public class AppPreferences {
         return getStateSharedPreferences(context).getLong(key, 0L);
     }
 
+    /**
+     * Settings used when fire times in reminder_occurrences were computed.
+     */
+    public static void reminderOccurrencesBasis(Context context, String value) {
+        String key = context.getResources().getString(R.string.pref_key_reminder_occurrences_basis);
+        getStateSharedPreferences(context).edit().putString(key, value).apply();
+    }
+
+    public static String reminderOccurrencesBasis(Context context) {
+        String key = context.getResources().getString(R.string.pref_key_reminder_occurrences_basis);
+        return getStateSharedPreferences(context).getString(key, null);
+    }
+
 
     /*
      * Auto Sync
@@ -0,0 +1,93 @@
+package com.orgzly.android.prefs;
+
+import android.content.Context;
+
+import com.orgzly.org.OrgStatesWorkflow;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable values of preferences read for every note, when building queries,
+ * loading books, displaying notes and scheduling reminders.
+ *
+ * Obtained with {@link AppPreferences#snapshot(Context)}, which returns the same instance
+ * until any of the default shared preferences is changed.
+ */
+public class AppPreferencesSnapshot {
+    public final Set<String> todoKeywords;
+    public final Set<String> doneKeywords;
+
+    public final String defaultPriority;
+    public final boolean searchWordBeginnings;
+
+    public final boolean createdAt;
+    public final String createdAtProperty;
+    public final boolean notebooksStartFolded;
+    public final boolean bulkBookImport;
+
+    public final boolean isFontMonospaced;
+    public final boolean displayPlanning;
+    public final String bookNameInSearchResults;
+    public final boolean isSearchFoldable;
+    public final boolean isNotesContentFoldable;
+    public final boolean isNotesContentDisplayedInList;
+    public final String notesListDensity;
+    public final boolean styleText;
+    public final boolean styledTextWithMarks;
+    public final boolean drawersFolded;
+
+    public final boolean widgetDisplayBookName;
+    public final boolean widgetDisplayCheckmarks;
+
+    public final boolean remindersForScheduledEnabled;
+    public final boolean remindersForDeadlineEnabled;
+    public final boolean remindersForEventsEnabled;
+    public final int reminderDailyTime;
+
+    AppPreferencesSnapshot(Context context) {
+        Set<String> todo = new LinkedHashSet<>();
+        Set<String> done = new LinkedHashSet<>();
+
+        /* Parsing states preference can be slow. */
+        for (OrgStatesWorkflow workflow: new StateWorkflows(AppPreferences.states(context))) {
+            todo.addAll(workflow.getTodoKeywords());
+            done.addAll(workflow.getDoneKeywords());
+        }
+
+        todoKeywords = Collections.unmodifiableSet(todo);
+        doneKeywords = Collections.unmodifiableSet(done);
+
+        defaultPriority = AppPreferences.defaultPriority(context);
+        searchWordBeginnings = AppPreferences.searchWordBeginnings(context);
+
+        createdAt = AppPreferences.createdAt(context);
+        createdAtProperty = AppPreferences.createdAtProperty(context);
+        notebooksStartFolded = AppPreferences.notebooksStartFolded(context);
+        bulkBookImport = AppPreferences.bulkBookImport(context);
+
+        isFontMonospaced = AppPreferences.isFontMonospaced(context);
+        displayPlanning = AppPreferences.displayPlanning(context);
+        bookNameInSearchResults = AppPreferences.bookNameInSearchResults(context);
+        isSearchFoldable = AppPreferences.isSearchFoldable(context);
+        isNotesContentFoldable = AppPreferences.isNotesContentFoldable(context);
+        isNotesContentDisplayedInList = AppPreferences.isNotesContentDisplayedInList(context);
+        notesListDensity = AppPreferences.notesListDensity(context);
+        styleText = AppPreferences.styleText(context);
+        styledTextWithMarks = AppPreferences.styledTextWithMarks(context);
+        drawersFolded = AppPreferences.drawersFolded(context);
+
+        widgetDisplayBookName = AppPreferences.widgetDisplayBookName(context);
+        widgetDisplayCheckmarks = AppPreferences.widgetDisplayCheckmarks(context);
+
+        remindersForScheduledEnabled = AppPreferences.remindersForScheduledEnabled(context);
+        remindersForDeadlineEnabled = AppPreferences.remindersForDeadlineEnabled(context);
+        remindersForEventsEnabled = AppPreferences.remindersForEventsEnabled(context);
+        reminderDailyTime = AppPreferences.reminderDailyTime(context);
+    }
+
+    public boolean isDoneKeyword(String state) {
+        return state != null && doneKeywords.contains(state);
+    }
+}
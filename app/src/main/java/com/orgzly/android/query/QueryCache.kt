@@ -0,0 +1,83 @@
+package com.orgzly.android.query
+
+import android.content.Context
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.AppPreferencesSnapshot
+import com.orgzly.android.query.sql.SqlQuery
+import com.orgzly.android.query.sql.SqliteQueryBuilder
+import com.orgzly.android.query.user.InternalQueryParser
+
+/**
+ * Recently parsed queries and SQL built for them.
+ *
+ * The same few queries (saved searches, agenda and widgets) are parsed
+ * and built over and over again, on every refresh.
+ */
+object QueryCache {
+    private const val SIZE = 32
+
+    private class SqlEntry(val prefs: AppPreferencesSnapshot, val sqlQuery: SqlQuery)
+
+    private val queries = lruMap<String, Query>()
+
+    private val sqlQueries = lruMap<Query, SqlEntry>()
+
+    @JvmStatic
+    fun parse(str: String): Query {
+        synchronized(queries) {
+            queries[str]?.let { return it }
+        }
+
+        val query = InternalQueryParser().parse(str)
+
+        synchronized(queries) {
+            queries[str] = query
+        }
+
+        return query
+    }
+
+    /**
+     * SQL depends on preferences (like states and default priority) and,
+     * for relative times, on the current time. The latter is never reused.
+     */
+    @JvmStatic
+    fun build(context: Context, query: Query): SqlQuery {
+        val prefs = AppPreferences.snapshot(context)
+
+        synchronized(sqlQueries) {
+            val entry = sqlQueries[query]
+            if (entry != null && entry.prefs === prefs) {
+                return entry.sqlQuery
+            }
+        }
+
+        val sqlQuery = SqliteQueryBuilder(context).build(query)
+
+        if (!sqlQuery.isTimeDependent) {
+            synchronized(sqlQueries) {
+                sqlQueries[query] = SqlEntry(prefs, sqlQuery)
+            }
+        }
+
+        return sqlQuery
+    }
+
+    @JvmStatic
+    fun clear() {
+        synchronized(queries) {
+            queries.clear()
+        }
+        synchronized(sqlQueries) {
+            sqlQueries.clear()
+        }
+    }
+
+    private fun <K, V> lruMap(): MutableMap<K, V> {
+        return object : LinkedHashMap<K, V>(SIZE, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean {
+                return size > SIZE
+            }
+        }
+    }
+}
@@ -1,19 +1,26 @@
 package com.orgzly.android.query
 
 import org.intellij.lang.annotations.Language
+import java.util.concurrent.ConcurrentHashMap
 
 abstract class QueryParser {
     data class ConditionMatch(
             @Language("RegExp") val regex: String,
-            val rule: (match: MatchResult) -> Condition?)
+            val rule: (match: MatchResult) -> Condition?) {
+        val pattern = compile(regex)
+    }
 
     data class SortOrderMatch(
             @Language("RegExp") val regex: String,
-            val rule: (match: MatchResult) -> SortOrder?)
+            val rule: (match: MatchResult) -> SortOrder?) {
+        val pattern = compile(regex)
+    }
 
     data class OptionMatch(
             @Language("RegExp") val regex: String,
-            val rule: (match: MatchResult, options: Options) -> Options?)
+            val rule: (match: MatchResult, options: Options) -> Options?) {
+        val pattern = compile(regex)
+    }
 
     protected abstract val groupOpen: String
     protected abstract val groupClose: String
@@ -33,10 +40,13 @@ abstract class QueryParser {
 
     fun parse(str: String): Query {
         orders.clear()
+        options = Options()
 
         tokenizer = QueryTokenizer(str, groupOpen, groupClose)
 
-        return Query(parseExpression(), orders, options)
+        val condition = parseExpression()
+
+        return Query(condition, orders.toList(), options)
     }
 
     private fun parseExpression(vararg initialExpr: Condition): Condition? {
@@ -130,7 +140,7 @@ abstract class QueryParser {
                 else -> {
                     // Check if token is a condition.
                     for (def in conditions) {
-                        val match = def.regex.toRegex().find(token)
+                        val match = def.pattern.find(token)
                         if (match != null) {
                             val e = def.rule(match)
                             if (e != null) {
@@ -142,7 +152,7 @@ abstract class QueryParser {
 
                     // Check if token is a sort order.
                     for (def in sortOrders) {
-                        val match = def.regex.toRegex().find(token)
+                        val match = def.pattern.find(token)
                         if (match != null) {
                             val e = def.rule(match)
                             if (e != null) {
@@ -154,7 +164,7 @@ abstract class QueryParser {
 
                     // Check if token is an instruction.
                     for (def in supportedOptions) {
-                        val match = def.regex.toRegex().find(token)
+                        val match = def.pattern.find(token)
                         if (match != null) {
                             val e = def.rule(match, options)
                             if (e != null) {
@@ -189,4 +199,13 @@ abstract class QueryParser {
      * AND has precedence over OR
      */
     enum class Operator { AND, OR }
+
+    companion object {
+        /* Definitions are created with each parser, patterns are compiled only once. */
+        private val patterns = ConcurrentHashMap<String, Regex>()
+
+        private fun compile(regex: String): Regex {
+            return patterns.getOrPut(regex) { regex.toRegex() }
+        }
+    }
 }
\ No newline at end of file
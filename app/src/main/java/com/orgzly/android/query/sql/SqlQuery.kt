@@ -4,4 +4,10 @@ data class SqlQuery(
         val selection: String,
         val selectionArgs: List<String>,
         val having: String,
-        val orderBy: String)
\ No newline at end of file
+        val orderBy: String,
+
+        /** Selection on notes only, applied before joining (see [SqliteQueryBuilder]). */
+        val noteSelection: String = "",
+
+        /** Selection contains times relative to the moment it was built. */
+        val isTimeDependent: Boolean = false)
\ No newline at end of file
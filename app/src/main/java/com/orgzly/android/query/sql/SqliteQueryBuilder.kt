@@ -2,7 +2,10 @@ package com.orgzly.android.query.sql
 
 import android.content.Context
 import android.database.DatabaseUtils
+import com.orgzly.android.db.NoteFts
+import com.orgzly.android.db.NoteTags
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.AppPreferencesSnapshot
 import com.orgzly.android.query.*
 import java.util.*
 
@@ -13,22 +16,50 @@ class SqliteQueryBuilder(val context: Context) {
 
     private var having: String = ""
 
+    /* Selections on indexed columns of notes, by condition. */
+    private val noteSelections = IdentityHashMap<Condition, String>()
+
     private var order: String = ""
 
     private var hasScheduledCondition = false
     private var hasDeadlineCondition = false
     private var hasCreatedCondition = false
 
+    /* Set if selection contains times relative to now. */
+    private var isTimeDependent = false
+
+    private lateinit var prefs: AppPreferencesSnapshot
+
     fun build(query: Query): SqlQuery {
+        prefs = AppPreferences.snapshot(context)
+
         hasScheduledCondition = false
         hasDeadlineCondition = false
         hasCreatedCondition = false
+        isTimeDependent = false
+
+        arguments.clear()
+        noteSelections.clear()
 
         where = toString(query.condition)
 
         order = buildOrderBy(query.sortOrders)
 
-        return SqlQuery(where, arguments, having, order)
+        return SqlQuery(where, arguments.toList(), having, order, buildNoteSelection(query.condition), isTimeDependent)
+    }
+
+    /**
+     * Conditions which must hold for all matching notes and can be checked
+     * on notes using indices, before joining them with everything else.
+     */
+    private fun buildNoteSelection(condition: Condition?): String {
+        val members = when (condition) {
+            is Condition.And -> condition.operands
+            null -> emptyList()
+            else -> listOf(condition)
+        }
+
+        return members.mapNotNull { noteSelections[it] }.joinToString(" AND ")
     }
 
     private fun buildOrderBy(sortOrders: List<SortOrder>): String {
@@ -38,21 +69,21 @@ class SqliteQueryBuilder(val context: Context) {
             o.add("book_name")
 
             /* Priority or default priority. */
-            o.add("COALESCE(priority, '" + AppPreferences.defaultPriority(context) + "')")
+            o.add("COALESCE(priority, '" + prefs.defaultPriority + "')")
             o.add("priority IS NULL")
 
             if (hasScheduledCondition) {
-                o.add("scheduled_time_timestamp IS NULL")
-                o.add("scheduled_time_start_of_day")
-                o.add("scheduled_time_hour IS NULL")
-                o.add("scheduled_time_timestamp")
+                o.add("scheduled_timestamp IS NULL")
+                o.add("scheduled_start_of_day")
+                o.add("scheduled_hour IS NULL")
+                o.add("scheduled_timestamp")
             }
 
             if (hasDeadlineCondition) {
-                o.add("deadline_time_timestamp IS NULL")
-                o.add("deadline_time_start_of_day")
-                o.add("deadline_time_hour IS NULL")
-                o.add("deadline_time_timestamp")
+                o.add("deadline_timestamp IS NULL")
+                o.add("deadline_start_of_day")
+                o.add("deadline_hour IS NULL")
+                o.add("deadline_timestamp")
             }
 
             if (hasCreatedCondition) {
@@ -69,32 +100,32 @@ class SqliteQueryBuilder(val context: Context) {
                         o.add("title" + if (order.desc) " DESC" else "")
 
                     is SortOrder.Scheduled -> {
-                        o.add("scheduled_time_timestamp IS NULL")
+                        o.add("scheduled_timestamp IS NULL")
 
                         if (order.desc) {
-                            o.add("scheduled_time_start_of_day DESC")
-                            o.add("scheduled_time_hour IS NOT NULL")
-                            o.add("scheduled_time_timestamp DESC")
+                            o.add("scheduled_start_of_day DESC")
+                            o.add("scheduled_hour IS NOT NULL")
+                            o.add("scheduled_timestamp DESC")
 
                         } else {
-                            o.add("scheduled_time_start_of_day")
-                            o.add("scheduled_time_hour IS NULL")
-                            o.add("scheduled_time_timestamp")
+                            o.add("scheduled_start_of_day")
+                            o.add("scheduled_hour IS NULL")
+                            o.add("scheduled_timestamp")
                         }
                     }
 
                     is SortOrder.Deadline -> {
-                        o.add("deadline_time_timestamp IS NULL")
+                        o.add("deadline_timestamp IS NULL")
 
                         if (order.desc) {
-                            o.add("deadline_time_start_of_day DESC")
-                            o.add("deadline_time_hour IS NOT NULL")
-                            o.add("deadline_time_timestamp DESC")
+                            o.add("deadline_start_of_day DESC")
+                            o.add("deadline_hour IS NOT NULL")
+                            o.add("deadline_timestamp DESC")
 
                         } else {
-                            o.add("deadline_time_start_of_day")
-                            o.add("deadline_time_hour IS NULL")
-                            o.add("deadline_time_timestamp")
+                            o.add("deadline_start_of_day")
+                            o.add("deadline_hour IS NULL")
+                            o.add("deadline_timestamp")
                         }
                     }
 
@@ -125,28 +156,28 @@ class SqliteQueryBuilder(val context: Context) {
                     }
 
                     is SortOrder.Closed -> {
-                        o.add("closed_time_timestamp IS NULL")
+                        o.add("closed_timestamp IS NULL")
 
                         if (order.desc) {
-                            o.add("closed_time_start_of_day DESC")
-                            o.add("closed_time_hour IS NOT NULL")
-                            o.add("closed_time_timestamp DESC")
+                            o.add("closed_start_of_day DESC")
+                            o.add("closed_hour IS NOT NULL")
+                            o.add("closed_timestamp DESC")
 
                         } else {
-                            o.add("closed_time_start_of_day")
-                            o.add("closed_time_hour IS NULL")
-                            o.add("closed_time_timestamp")
+                            o.add("closed_start_of_day")
+                            o.add("closed_hour IS NULL")
+                            o.add("closed_timestamp")
                         }
                     }
 
                     is SortOrder.Priority -> {
-                        o.add("COALESCE(priority, '" + AppPreferences.defaultPriority(context) + "')" + if (order.desc) " DESC" else "")
+                        o.add("COALESCE(priority, '" + prefs.defaultPriority + "')" + if (order.desc) " DESC" else "")
                         o.add("priority" + if (order.desc) " IS NOT NULL" else " IS NULL")
                     }
 
                     is SortOrder.State -> {
-                        val states = AppPreferences.todoKeywordsSet(context)
-                                .union(AppPreferences.doneKeywordsSet(context))
+                        val states = prefs.todoKeywords
+                                .union(prefs.doneKeywords)
 
                         if (states.isNotEmpty()) {
                             val statesInOrder = if (order.desc) states.reversed() else states
@@ -193,12 +224,12 @@ class SqliteQueryBuilder(val context: Context) {
             is Condition.HasStateType -> {
                 when (expr.type) {
                     StateType.TODO -> {
-                        val states = AppPreferences.todoKeywordsSet(context)
+                        val states = prefs.todoKeywords
                         arguments.addAll(states)
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
                     }
                     StateType.DONE -> {
-                        val states = AppPreferences.doneKeywordsSet(context)
+                        val states = prefs.doneKeywords
                         arguments.addAll(states)
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
 
@@ -208,7 +239,7 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasPriority -> {
-                arguments.add(AppPreferences.defaultPriority(context))
+                arguments.add(prefs.defaultPriority)
                 arguments.add(expr.priority)
                 not(expr.not, "LOWER(COALESCE(NULLIF(priority, ''), ?)) = ?")
             }
@@ -219,13 +250,13 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasTag -> {
-                repeat(2) { arguments.add("%${expr.tag}%") }
-                not(expr.not, "(COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)")
+                arguments.add(expr.tag)
+                not(expr.not, NoteTags.SELECTION)
             }
 
             is Condition.HasOwnTag -> {
-                arguments.add("%${expr.tag}%")
-                not(expr.not, "(COALESCE(tags, '') LIKE ?)")
+                arguments.add(expr.tag)
+                not(expr.not, NoteTags.SELECTION_OWN)
             }
 
             is Condition.Event -> {
@@ -241,12 +272,12 @@ class SqliteQueryBuilder(val context: Context) {
 
             is Condition.Scheduled -> {
                 hasScheduledCondition = true
-                toInterval("scheduled_time_timestamp", "scheduled_is_active", expr.interval, expr.relation)
+                toInterval("scheduled_timestamp", "scheduled_is_active", expr.interval, expr.relation, expr)
             }
 
             is Condition.Deadline -> {
                 hasDeadlineCondition = true
-                toInterval("deadline_time_timestamp", "deadline_is_active", expr.interval, expr.relation)
+                toInterval("deadline_timestamp", "deadline_is_active", expr.interval, expr.relation, expr)
             }
 
             is Condition.Created -> {
@@ -255,12 +286,18 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.Closed -> {
-                toInterval("closed_time_timestamp", null, expr.interval, expr.relation)
+                toInterval("closed_timestamp", null, expr.interval, expr.relation, expr)
             }
 
             is Condition.HasText -> {
-                repeat(3) { arguments.add("%${expr.text}%") }
-                "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                /* Quoted text is always matched as a substring. */
+                if (!expr.isQuoted && NoteFts.isSearchable(expr.text) && prefs.searchWordBeginnings) {
+                    arguments.add(NoteFts.prefixMatch(expr.text))
+                    NoteFts.SELECTION
+                } else {
+                    repeat(3) { arguments.add("%${expr.text}%") }
+                    "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                }
             }
 
             is Condition.Or -> joinConditions(expr.operands, "OR")
@@ -270,7 +307,10 @@ class SqliteQueryBuilder(val context: Context) {
         }
     }
 
-    private fun toInterval(column: String, isActiveColumn: String?, interval: QueryInterval, relation: Relation): String {
+    /**
+     * @param noteCondition condition to also select notes by, if [column] is stored in notes
+     */
+    private fun toInterval(column: String, isActiveColumn: String?, interval: QueryInterval, relation: Relation, noteCondition: Condition? = null): String {
         if (interval.unit == QueryInterval.Unit.NONE) {
 
             return "$column IS NULL"
@@ -278,26 +318,35 @@ class SqliteQueryBuilder(val context: Context) {
 
         val (field, value) = getFieldAndValueFromInterval(interval)
 
+        isTimeDependent = true
+
         val timeFromNow = TimeUtils.timeFromNow(field, value)
         val timeFromNowPlusOne = TimeUtils.timeFromNow(field, value, true)
 
+        fun selection(column: String, isActiveColumn: String?): String {
+            val cond = when (relation) {
+                Relation.EQ -> "$timeFromNow <= $column AND $column < $timeFromNowPlusOne"
+                Relation.NE -> "$column < $timeFromNow AND $timeFromNowPlusOne <= $column"
+                Relation.LT -> "$column < $timeFromNow"
+                Relation.LE -> "$column < $timeFromNowPlusOne"
+                Relation.GT -> "$timeFromNowPlusOne <= $column"
+                Relation.GE -> "$timeFromNow <= $column"
+            }
 
-        val cond = when (relation) {
-            Relation.EQ -> "$timeFromNow <= $column AND $column < $timeFromNowPlusOne"
-            Relation.NE -> "$column < $timeFromNow AND $timeFromNowPlusOne <= $column"
-            Relation.LT -> "$column < $timeFromNow"
-            Relation.LE -> "$column < $timeFromNowPlusOne"
-            Relation.GT -> "$timeFromNowPlusOne <= $column"
-            Relation.GE -> "$timeFromNow <= $column"
+            val activeOnly = if (isActiveColumn != null) {
+                "$isActiveColumn = 1 AND "
+            } else {
+                ""
+            }
+
+            return "($activeOnly$column != 0 AND $cond)"
         }
 
-        val activeOnly = if (isActiveColumn != null) {
-            "$isActiveColumn = 1 AND "
-        } else {
-            ""
+        if (noteCondition != null) {
+            noteSelections[noteCondition] = selection("notes.$column", isActiveColumn?.let { "notes.$it" })
         }
 
-        return "($activeOnly$column != 0 AND $cond)"
+        return selection(column, isActiveColumn)
     }
 
     private fun getFieldAndValueFromInterval(interval: QueryInterval): Pair<Int, Int> {
@@ -1,10 +1,14 @@
 package com.orgzly.android.reminders
 
 import android.content.Context
+import com.orgzly.BuildConfig
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.dao.ReminderOccurrenceDao.NoteOccurrence
 import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.db.dao.ReminderTimeDao.NoteTime
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.AppPreferencesSnapshot
+import com.orgzly.android.util.LogUtils
 import com.orgzly.org.datetime.OrgDateTime
 import com.orgzly.org.datetime.OrgDateTimeUtils
 import com.orgzly.org.datetime.OrgInterval
@@ -13,8 +17,12 @@ import org.joda.time.ReadableInstant
 import java.util.*
 
 
+/**
+ * Reminders are read from `reminder_occurrences`, which holds fire times of notes' times.
+ * Before reading, fire times are computed for notes whose times have changed since.
+ */
 object NoteReminders {
-    // private val TAG: String = NoteReminders::class.java.name
+    private val TAG: String = NoteReminders::class.java.name
 
     const val INTERVAL_FROM_LAST_TO_NOW = 1
     const val INTERVAL_FROM_NOW = 2
@@ -27,55 +35,22 @@ object NoteReminders {
         lastRun: LastRun,
         intervalType: Int): List<NoteReminder> {
 
-        val result: MutableList<NoteReminder> = ArrayList()
+        val prefs = AppPreferences.snapshot(context)
 
-        for (noteTime in dataRepository.times()) {
-            if (isRelevantNoteTime(context, noteTime)) {
-                val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
+        refreshOccurrences(context, dataRepository, prefs)
 
-                val interval = intervalToConsider(intervalType, now, lastRun, noteTime.timeType)
+        val result: MutableList<NoteReminder> = ArrayList()
 
-                // Deadline warning period
+        for (timeType in enabledTimeTypes(prefs)) {
+            val interval = intervalToConsider(intervalType, now, lastRun, timeType)
 
-                val warningPeriod = if (isWarningPeriodSupported(noteTime)) {
-                    if (orgDateTime.hasDelay()) {
-                        orgDateTime.delay as OrgInterval
-                    } else {
-                        // TODO: Use default from user preference
-                        // OrgInterval(1, OrgInterval.Unit.DAY)
-                        null
-                    }
-                } else {
-                    null
-                }
+            val occurrences = dataRepository.firstReminderOccurrences(
+                timeType,
+                interval.first.millis,
+                interval.second?.millis ?: Long.MAX_VALUE,
+                prefs.doneKeywords)
 
-                val time = getFirstTime(
-                    orgDateTime,
-                    interval,
-                    AppPreferences.reminderDailyTime(context),
-                    warningPeriod
-                )
-
-//                    if (BuildConfig.LOG_DEBUG) {
-//                        LogUtils.d(TAG,
-//                                "Note's time", noteTime,
-//                                "Interval", interval,
-//                                "Found first time", time)
-//                    }
-
-                if (time != null) {
-                    val payload = NoteReminderPayload(
-                        noteTime.noteId,
-                        noteTime.bookId,
-                        noteTime.bookName,
-                        noteTime.title,
-                        noteTime.tags,
-                        noteTime.timeType,
-                        orgDateTime)
-
-                    result.add(NoteReminder(time, payload))
-                }
-            }
+            occurrences.mapTo(result) { toNoteReminder(it) }
         }
 
         // Sort by time, older first
@@ -84,18 +59,118 @@ object NoteReminders {
         return result
     }
 
+    /**
+     * First reminder from now on.
+     */
+    @JvmStatic
+    fun getNextNoteReminder(
+        context: Context,
+        dataRepository: DataRepository,
+        now: ReadableInstant): NoteReminder? {
+
+        val prefs = AppPreferences.snapshot(context)
+
+        val timeTypes = enabledTimeTypes(prefs)
+
+        if (timeTypes.isEmpty()) {
+            return null
+        }
+
+        refreshOccurrences(context, dataRepository, prefs)
+
+        return dataRepository.nextReminderOccurrence(now.millis, timeTypes, prefs.doneKeywords)?.let {
+            toNoteReminder(it)
+        }
+    }
+
     fun isRelevantNoteTime(context: Context, noteTime: NoteTime): Boolean {
-        val doneStateKeywords = AppPreferences.doneKeywordsSet(context)
-        val isDone = doneStateKeywords.contains(noteTime.state)
+        val prefs = AppPreferences.snapshot(context)
+
+        return noteTime.timeType in enabledTimeTypes(prefs) && !prefs.isDoneKeyword(noteTime.state)
+    }
+
+    private fun enabledTimeTypes(prefs: AppPreferencesSnapshot): List<Int> {
+        val timeTypes = mutableListOf<Int>()
+
+        if (prefs.remindersForScheduledEnabled) {
+            timeTypes.add(ReminderTimeDao.SCHEDULED_TIME)
+        }
+
+        if (prefs.remindersForDeadlineEnabled) {
+            timeTypes.add(ReminderTimeDao.DEADLINE_TIME)
+        }
+
+        if (prefs.remindersForEventsEnabled) {
+            timeTypes.add(ReminderTimeDao.EVENT_TIME)
+        }
+
+        return timeTypes
+    }
+
+    /**
+     * Computes fire times for notes marked as stale, or for all notes
+     * if settings the fire times depend on have changed.
+     */
+    private fun refreshOccurrences(context: Context, dataRepository: DataRepository, prefs: AppPreferencesSnapshot) {
+        val basis = "${prefs.reminderDailyTime} ${TimeZone.getDefault().id}"
+
+        val isBasisChanged = basis != AppPreferences.reminderOccurrencesBasis(context)
 
-        val isEnabled = AppPreferences.remindersForScheduledEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.SCHEDULED_TIME
-                || AppPreferences.remindersForDeadlineEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.DEADLINE_TIME
-                || AppPreferences.remindersForEventsEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.EVENT_TIME
+        if (isBasisChanged) {
+            dataRepository.invalidateReminderOccurrences()
+        }
+
+        val count = dataRepository.refreshReminderOccurrences { noteTime ->
+            getRunTimes(noteTime, prefs.reminderDailyTime)
+        }
+
+        if (isBasisChanged) {
+            AppPreferences.reminderOccurrencesBasis(context, basis)
+        }
 
-        return isEnabled && !isDone
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Refreshed occurrences of $count note times")
+    }
+
+    private fun getRunTimes(noteTime: NoteTime, defaultTimeOfDay: Int): List<Long> {
+        val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
+
+        // Deadline warning period
+
+        val warningPeriod = if (isWarningPeriodSupported(noteTime)) {
+            if (orgDateTime.hasDelay()) {
+                orgDateTime.delay as OrgInterval
+            } else {
+                // TODO: Use default from user preference
+                // OrgInterval(1, OrgInterval.Unit.DAY)
+                null
+            }
+        } else {
+            null
+        }
+
+        val times = OrgDateTimeUtils.getTimesInInterval(
+            orgDateTime,
+            DateTime(0),
+            null,
+            defaultTimeOfDay,
+            false, // Do not use repeater for reminders
+            warningPeriod,
+            1)
+
+        return times.map { it.millis }
+    }
+
+    private fun toNoteReminder(occurrence: NoteOccurrence): NoteReminder {
+        val payload = NoteReminderPayload(
+            occurrence.noteId,
+            occurrence.bookId,
+            occurrence.bookName,
+            occurrence.title,
+            occurrence.tags,
+            occurrence.timeType,
+            OrgDateTime.parse(occurrence.orgTimestampString))
+
+        return NoteReminder(DateTime(occurrence.runTime), payload)
     }
 
     private fun isWarningPeriodSupported(noteTime: NoteTime): Boolean {
@@ -131,22 +206,4 @@ object NoteReminders {
             else -> throw IllegalArgumentException("Before or after now?")
         }
     }
-
-    private fun getFirstTime(
-        orgDateTime: OrgDateTime,
-        interval: Pair<ReadableInstant, ReadableInstant?>,
-        defaultTimeOfDay: Int,
-        warningPeriod: OrgInterval?): DateTime? {
-
-        val times = OrgDateTimeUtils.getTimesInInterval(
-            orgDateTime,
-            interval.first,
-            interval.second,
-            defaultTimeOfDay,
-            false, // Do not use repeater for reminders
-            warningPeriod,
-            1)
-
-        return times.firstOrNull()
-    }
-}
\ No newline at end of file
+}
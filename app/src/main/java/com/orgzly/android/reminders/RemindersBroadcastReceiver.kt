@@ -50,7 +50,7 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
 
                     notifyForRemindersSinceLastRun(context, now, lastRun)
 
-                    scheduleNextReminder(context, now, lastRun)
+                    scheduleNextReminder(context, now)
                     LastRun.toPreferences(context, now)
                 }
 
@@ -146,14 +146,10 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
     /**
      * Schedule the next job for times after now.
      */
-    private fun scheduleNextReminder(context: Context, now: DateTime, lastRun: LastRun) {
-        val notes = NoteReminders.getNoteReminders(
-            context, dataRepository, now, lastRun, NoteReminders.INTERVAL_FROM_NOW)
-
-        if (notes.isNotEmpty()) {
-            // Schedule only the first upcoming time
-            val firstNote = notes.first()
+    private fun scheduleNextReminder(context: Context, now: DateTime) {
+        val firstNote = NoteReminders.getNextNoteReminder(context, dataRepository, now)
 
+        if (firstNote != null) {
             val id = firstNote.payload.noteId
             val title = firstNote.payload.title
             val runAt = firstNote.runTime.millis
@@ -169,7 +165,7 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
                 val inS = inMs.userFriendlyPeriod()
                 appLogs.log(
                     LogMajorEvents.REMINDERS,
-                    "Next: Found ${notes.size} notes from $now and scheduling first in $inS ($inMs ms): \"$title\" (id:$id)"
+                    "Next: Scheduling first note from $now in $inS ($inMs ms): \"$title\" (id:$id)"
                 )
             }
 
@@ -189,10 +185,8 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
 
         val reminders = mutableListOf<NoteReminder>()
 
-        for (noteTime in dataRepository.times()) {
-            if (noteTime.noteId == noteId
-                && noteTime.timeType == noteTimeType
-                && NoteReminders.isRelevantNoteTime(context, noteTime)) {
+        for (noteTime in dataRepository.times(noteId, noteTimeType)) {
+            if (NoteReminders.isRelevantNoteTime(context, noteTime)) {
 
                 val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
 
@@ -0,0 +1,16 @@
+package com.orgzly.android.repos
+
+import android.net.Uri
+import java.io.IOException
+
+/**
+ * Repository which can get the current revision of a single book,
+ * without listing all of them.
+ */
+interface BookRevisionRepo {
+    /**
+     * @return current revision of the book at [uri], or null if it doesn't exist
+     */
+    @Throws(IOException::class)
+    fun getBookRevision(uri: Uri): VersionedRook?
+}
@@ -21,7 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-public class DirectoryRepo implements SyncRepo {
+public class DirectoryRepo implements SyncRepo, BookRevisionRepo {
     private static final String TAG = DirectoryRepo.class.getName();
 
     public static final String SCHEME = "file";
@@ -144,6 +144,25 @@ public class DirectoryRepo implements SyncRepo {
         return new VersionedRook(repoId, RepoType.DIRECTORY, repoUri, uri, rev, mtime);
     }
 
+    @Override
+    public VersionedRook getBookRevision(@NonNull Uri uri) {
+        String path = uri.getPath();
+
+        if (path == null) {
+            throw new IllegalArgumentException("No path in " + uri);
+        }
+
+        File file = new File(path);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        long mtime = file.lastModified();
+
+        return new VersionedRook(repoId, RepoType.DIRECTORY, repoUri, uri, String.valueOf(mtime), mtime);
+    }
+
     @Override
     public InputStream openRepoFileInputStream(String repoRelativePath) throws IOException {
         return new FileInputStream(repoUri.buildUpon().appendPath(repoRelativePath).build().getPath());
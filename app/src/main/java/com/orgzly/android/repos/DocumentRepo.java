@@ -28,7 +28,8 @@ import java.util.List;
 import java.util.Objects;
 
 /**
- * Using DocumentFile, for devices running Lollipop or later.
+ * Using Storage Access Framework, for devices running Lollipop or later.
+ * Documents are listed and looked up through {@link DocumentTree}.
  */
 public class DocumentRepo implements SyncRepo {
     private static final String TAG = DocumentRepo.class.getName();
@@ -40,7 +41,7 @@ public class DocumentRepo implements SyncRepo {
 
     private final Context context;
 
-    private final DocumentFile repoDocumentFile;
+    private final DocumentTree tree;
 
     public DocumentRepo(RepoWithProps repoWithProps, Context context) {
         Repo repo = repoWithProps.getRepo();
@@ -50,7 +51,7 @@ public class DocumentRepo implements SyncRepo {
 
         this.context = context;
 
-        this.repoDocumentFile = DocumentFile.fromTreeUri(context, repoUri);
+        this.tree = DocumentTree.getInstance(context, repoUri);
     }
 
     @Override
@@ -72,29 +73,26 @@ public class DocumentRepo implements SyncRepo {
     public List<VersionedRook> getBooks() throws IOException {
         List<VersionedRook> result = new ArrayList<>();
 
-        List<DocumentFile> files = walkFileTree();
+        List<DocumentTree.Document> files = walkFileTree();
 
         if (files.size() > 0) {
-            for (DocumentFile file : files) {
-                if (BookName.isSupportedFormatFileName(file.getName())) {
+            for (DocumentTree.Document file : files) {
+                if (BookName.isSupportedFormatFileName(file.name)) {
 
                     if (BuildConfig.LOG_DEBUG) {
                         LogUtils.d(TAG,
-                                "file.getName()", file.getName(),
+                                "file.name", file.name,
                                 "getUri()", getUri(),
-                                "repoDocumentFile.getUri()", repoDocumentFile.getUri(),
-                                "file", file,
-                                "file.getUri()", file.getUri(),
-                                "file.getParentFile()", file.getParentFile().getUri());
+                                "file.uri", file.uri);
                     }
 
                     result.add(new VersionedRook(
                             repoId,
                             RepoType.DOCUMENT,
                             getUri(),
-                            file.getUri(),
-                            String.valueOf(file.lastModified()),
-                            file.lastModified()
+                            file.uri,
+                            String.valueOf(file.lastModified),
+                            file.lastModified
                     ));
                 }
             }
@@ -109,15 +107,18 @@ public class DocumentRepo implements SyncRepo {
     /**
      * @return All file nodes in the repo tree which are not excluded by .orgzlyignore
      */
-    private List<DocumentFile> walkFileTree() {
-        List<DocumentFile> result = new ArrayList<>();
-        List<DocumentFile> directoryNodes = new ArrayList<>();
+    private List<DocumentTree.Document> walkFileTree() throws IOException {
+        List<DocumentTree.Document> result = new ArrayList<>();
+
+        /* List the root first, so the ignore file is found among its fresh children. */
+        List<List<DocumentTree.Document>> directories = new ArrayList<>();
+        directories.add(tree.listChildren(tree.getRootDocumentId()));
+
         RepoIgnoreNode ignores = new RepoIgnoreNode(this);
-        directoryNodes.add(repoDocumentFile);
-        while (!directoryNodes.isEmpty()) {
-            DocumentFile currentDir = directoryNodes.remove(0);
-            for (DocumentFile node : currentDir.listFiles()) {
-                String repoRelativePath = BookName.getRepoRelativePath(repoUri, node.getUri());
+
+        while (!directories.isEmpty()) {
+            for (DocumentTree.Document node : directories.remove(0)) {
+                String repoRelativePath = BookName.getRepoRelativePath(repoUri, node.uri);
                 if (node.isDirectory()) {
                     if (!AppPreferences.subfolderSupport(context))
                         continue;
@@ -126,52 +127,51 @@ public class DocumentRepo implements SyncRepo {
                             continue;
                         }
                     }
-                    directoryNodes.add(node);
+                    directories.add(tree.listChildren(node.documentId));
                 } else {
                     if (Build.VERSION.SDK_INT >= 26) {
                         if (ignores.isPathIgnored(repoRelativePath, false)) {
                             continue;
                         }
-                    } result.add(node);
+                    }
+                    result.add(node);
                 }
             }
         }
         return result;
     }
 
-    private DocumentFile getDocumentFileFromPath(String path) {
-        String fullUri = repoDocumentFile.getUri() + Uri.encode("/" + path);
-        return DocumentFile.fromSingleUri(context, Uri.parse(fullUri));
-    }
-
     @Override
     public VersionedRook retrieveBook(String repoRelativePath, File destinationFile) throws IOException {
-        DocumentFile sourceFile = getDocumentFileFromPath(repoRelativePath);
+        DocumentTree.Document sourceFile = tree.find(repoRelativePath);
         if (sourceFile == null) {
             throw new FileNotFoundException("Book " + repoRelativePath + " not found in " + repoUri);
         } else {
             if (BuildConfig.LOG_DEBUG) {
-                LogUtils.d(TAG, "Found DocumentFile for " + repoRelativePath + ": " + sourceFile.getUri());
+                LogUtils.d(TAG, "Found document for " + repoRelativePath + ": " + sourceFile.uri);
             }
         }
 
         /* "Download" the file. */
-        try (InputStream is = context.getContentResolver().openInputStream(sourceFile.getUri())) {
+        try (InputStream is = context.getContentResolver().openInputStream(sourceFile.uri)) {
             assert is != null;
             MiscUtils.writeStreamToFile(is, destinationFile);
         }
 
-        String rev = String.valueOf(sourceFile.lastModified());
-        long mtime = sourceFile.lastModified();
+        /* Listed modification time could be from an earlier sync. */
+        sourceFile = tree.query(sourceFile.documentId);
 
-        return new VersionedRook(repoId, RepoType.DOCUMENT, repoUri, sourceFile.getUri(), rev, mtime);
+        String rev = String.valueOf(sourceFile.lastModified);
+        long mtime = sourceFile.lastModified;
+
+        return new VersionedRook(repoId, RepoType.DOCUMENT, repoUri, sourceFile.uri, rev, mtime);
     }
 
     @Override
     public InputStream openRepoFileInputStream(String repoRelativePath) throws IOException {
-        DocumentFile sourceFile = getDocumentFileFromPath(repoRelativePath);
-        if (!sourceFile.exists()) throw new FileNotFoundException();
-        return context.getContentResolver().openInputStream(sourceFile.getUri());
+        DocumentTree.Document sourceFile = tree.find(repoRelativePath);
+        if (sourceFile == null) throw new FileNotFoundException();
+        return context.getContentResolver().openInputStream(sourceFile.uri);
     }
 
     @Override
@@ -179,54 +179,61 @@ public class DocumentRepo implements SyncRepo {
         if (!file.exists()) {
             throw new FileNotFoundException("File " + file + " does not exist");
         }
-        DocumentFile destinationDir = repoDocumentFile;
+        String destinationDirId = tree.getRootDocumentId();
         String fileName = Uri.parse(repoRelativePath).getLastPathSegment();
         assert fileName != null;
         if (repoRelativePath.contains("/")) {
             if (AppPreferences.subfolderSupport(context)) {
-                destinationDir = ensureDirectoryHierarchy(repoRelativePath);
+                destinationDirId = ensureDirectoryHierarchy(repoRelativePath);
             } else {
                 throw new IOException(context.getString(R.string.subfolder_support_disabled));
             }
         }
 
-        DocumentFile existingFile = destinationDir.findFile(fileName);
+        DocumentTree.Document existingFile = tree.findChild(destinationDirId, fileName);
         if (existingFile != null) {
-            existingFile.delete();  // #536: Delete existing file to ensure fresh timestamp
+            // #536: Delete existing file to ensure fresh timestamp
+            try {
+                DocumentsContract.deleteDocument(context.getContentResolver(), existingFile.uri);
+            } catch (FileNotFoundException e) {
+                // Already deleted since it was listed
+            }
+            tree.remove(existingFile.documentId);
         }
 
-        DocumentFile destinationFile = destinationDir.createFile("text/*", fileName);
-        assert destinationFile != null;
+        DocumentTree.Document destinationFile = tree.create(destinationDirId, "text/*", fileName);
 
-        try (OutputStream out = context.getContentResolver().openOutputStream(destinationFile.getUri(), "w")) {
+        try (OutputStream out = context.getContentResolver().openOutputStream(destinationFile.uri, "w")) {
             MiscUtils.writeFileToStream(file, out);
         }
 
-        String rev = String.valueOf(destinationFile.lastModified());
+        /* Query again for the modification time after writing. */
+        destinationFile = tree.query(destinationFile.documentId);
+
+        String rev = String.valueOf(destinationFile.lastModified);
         long mtime = System.currentTimeMillis();
 
-        return new VersionedRook(repoId, RepoType.DOCUMENT, getUri(), destinationFile.getUri(), rev, mtime);
+        return new VersionedRook(repoId, RepoType.DOCUMENT, getUri(), destinationFile.uri, rev, mtime);
     }
 
     /**
      * Given a relative path, ensures that all directory levels are created unless they already
      * exist.
      * @param relativePath Path relative to the repository root directory
-     * @return The DocumentFile object of the leaf directory where the file should be placed.
+     * @return The document ID of the leaf directory where the file should be placed.
      */
-    private DocumentFile ensureDirectoryHierarchy(String relativePath) {
+    private String ensureDirectoryHierarchy(String relativePath) throws IOException {
         List<String> levels = new ArrayList<>(Arrays.asList(relativePath.split("/")));
-        DocumentFile currentDir = repoDocumentFile;
+        String currentDirId = tree.getRootDocumentId();
         while (levels.size() > 1) {
             String nextDirName = levels.remove(0);
-            DocumentFile nextDir = Objects.requireNonNull(currentDir).findFile(nextDirName);
+            DocumentTree.Document nextDir = tree.findChild(currentDirId, nextDirName);
             if (nextDir == null) {
-                currentDir = currentDir.createDirectory(nextDirName);
-            } else {
-                currentDir = nextDir;
+                nextDir = tree.create(currentDirId, DocumentsContract.Document.MIME_TYPE_DIR, nextDirName);
             }
+            currentDirId = nextDir.documentId;
         }
-        return currentDir;
+        return currentDirId;
     }
 
     /**
@@ -253,32 +260,37 @@ public class DocumentRepo implements SyncRepo {
         BookName oldBookName = BookName.fromRepoRelativePath(BookName.getRepoRelativePath(repoUri, oldFullUri));
         String newRelativePath = BookName.repoRelativePath(newName, oldBookName.getFormat());
         String newDocFileName = Objects.requireNonNull(Uri.parse(newRelativePath).getLastPathSegment());
-        DocumentFile newDir;
+        String newDirId;
         Uri newUri = oldFullUri;
 
         if (newName.contains("/")) {
             if (AppPreferences.subfolderSupport(context)) {
-                newDir = ensureDirectoryHierarchy(newName);
+                newDirId = ensureDirectoryHierarchy(newName);
             } else {
                 throw new IOException(context.getString(R.string.subfolder_support_disabled));
             }
         } else {
-            newDir = repoDocumentFile;
+            newDirId = tree.getRootDocumentId();
         }
 
+        Uri newDirUri = tree.getUri(newDirId);
+
         /* Abort if destination file already exists. */
-        DocumentFile existingFile = newDir.findFile(newDocFileName);
+        DocumentTree.Document existingFile = tree.findChild(newDirId, newDocFileName);
         if (existingFile != null) {
-            throw new IOException("File at " + existingFile.getUri() + " already exists");
+            throw new IOException("File at " + existingFile.uri + " already exists");
         }
 
-        if (!newDir.getUri().toString().equals(oldDirUri.toString())) {
+        tree.invalidate(DocumentsContract.getDocumentId(oldDirUri));
+        tree.invalidate(newDirId);
+
+        if (!newDirUri.toString().equals(oldDirUri.toString())) {
             // File should be moved to a different directory
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
                 newUri = DocumentsContract.moveDocument(
                         context.getContentResolver(), oldFullUri,
                         oldDirUri,
-                        newDir.getUri()
+                        newDirUri
                 );
                 assert newUri != null;
             } else {
@@ -308,6 +320,7 @@ public class DocumentRepo implements SyncRepo {
             if (! docFile.delete()) {
                 throw new IOException("Failed deleting document " + uri);
             }
+            tree.remove(DocumentsContract.getDocumentId(uri));
         }
     }
 
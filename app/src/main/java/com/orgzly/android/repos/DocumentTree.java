@@ -0,0 +1,258 @@
+package com.orgzly.android.repos;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.util.LogUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Documents of a tree granted through the Storage Access Framework.
+ *
+ * Directories are listed with a single query, returning all needed columns of all children.
+ * DocumentFile instead queries the provider separately for each child and each property.
+ *
+ * Listed documents are kept by their ID for the life of the process, so that
+ * finding a document by its path does not require listing directories again.
+ */
+class DocumentTree {
+    private static final String TAG = DocumentTree.class.getName();
+
+    private static final String[] PROJECTION = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_SIZE
+    };
+
+    private static final Map<Uri, DocumentTree> trees = new HashMap<>();
+
+    static synchronized DocumentTree getInstance(Context context, Uri treeUri) {
+        DocumentTree tree = trees.get(treeUri);
+
+        if (tree == null) {
+            tree = new DocumentTree(context.getApplicationContext().getContentResolver(), treeUri);
+            trees.put(treeUri, tree);
+        }
+
+        return tree;
+    }
+
+    static class Document {
+        final String documentId;
+        final Uri uri;
+        final String name;
+        final String mimeType;
+        final long lastModified;
+        final long size;
+
+        Document(String documentId, Uri uri, String name, String mimeType, long lastModified, long size) {
+            this.documentId = documentId;
+            this.uri = uri;
+            this.name = name;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        boolean isDirectory() {
+            return DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+        }
+    }
+
+    private final ContentResolver resolver;
+
+    private final Uri treeUri;
+
+    private final Map<String, Document> documents = new HashMap<>();
+
+    /* IDs of children, for listed directories. */
+    private final Map<String, List<String>> children = new HashMap<>();
+
+    private DocumentTree(ContentResolver resolver, Uri treeUri) {
+        this.resolver = resolver;
+        this.treeUri = treeUri;
+    }
+
+    String getRootDocumentId() {
+        return DocumentsContract.getTreeDocumentId(treeUri);
+    }
+
+    Uri getUri(String documentId) {
+        return DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId);
+    }
+
+    /**
+     * Queries the provider for the current children of the directory.
+     */
+    synchronized List<Document> listChildren(String parentDocumentId) throws IOException {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, parentDocumentId);
+
+        List<Document> result = new ArrayList<>();
+
+        try (Cursor cursor = resolver.query(childrenUri, PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                throw new IOException("Failed listing " + childrenUri);
+            }
+
+            while (cursor.moveToNext()) {
+                result.add(fromCursor(cursor));
+            }
+        }
+
+        List<String> previousIds = children.get(parentDocumentId);
+        if (previousIds != null) {
+            for (String id : previousIds) {
+                documents.remove(id);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(result.size());
+        for (Document document : result) {
+            documents.put(document.documentId, document);
+            ids.add(document.documentId);
+        }
+        children.put(parentDocumentId, ids);
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Listed " + result.size() + " documents in " + parentDocumentId);
+
+        return result;
+    }
+
+    /**
+     * Child with the specified name. Directory is listed again if the child is not found
+     * among the known children, in case it was created since.
+     */
+    synchronized Document findChild(String parentDocumentId, String name) throws IOException {
+        if (children.containsKey(parentDocumentId)) {
+            Document document = findKnownChild(parentDocumentId, name);
+            if (document != null) {
+                return document;
+            }
+        }
+
+        listChildren(parentDocumentId);
+
+        return findKnownChild(parentDocumentId, name);
+    }
+
+    private Document findKnownChild(String parentDocumentId, String name) {
+        List<String> ids = children.get(parentDocumentId);
+
+        if (ids != null) {
+            for (String id : ids) {
+                Document document = documents.get(id);
+                if (document != null && name.equals(document.name)) {
+                    return document;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param relativePath path relative to the root of the tree
+     * @return document or null if it does not exist
+     */
+    synchronized Document find(String relativePath) throws IOException {
+        String parentId = getRootDocumentId();
+        Document document = null;
+
+        for (String name : relativePath.split("/")) {
+            if (document != null && !document.isDirectory()) {
+                return null;
+            }
+
+            document = findChild(parentId, name);
+
+            if (document == null) {
+                return null;
+            }
+
+            parentId = document.documentId;
+        }
+
+        return document;
+    }
+
+    /**
+     * Queries the provider for the current state of a single document.
+     */
+    synchronized Document query(String documentId) throws IOException {
+        Uri uri = getUri(documentId);
+
+        Document document;
+
+        try (Cursor cursor = resolver.query(uri, PROJECTION, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                throw new FileNotFoundException("Document " + uri + " not found");
+            }
+
+            document = fromCursor(cursor);
+        }
+
+        documents.put(documentId, document);
+
+        return document;
+    }
+
+    /**
+     * Creates a document (or a directory, for {@link DocumentsContract.Document#MIME_TYPE_DIR}).
+     */
+    synchronized Document create(String parentDocumentId, String mimeType, String name) throws IOException {
+        Uri uri = DocumentsContract.createDocument(resolver, getUri(parentDocumentId), mimeType, name);
+
+        if (uri == null) {
+            throw new IOException("Failed creating " + name + " in " + getUri(parentDocumentId));
+        }
+
+        Document document = query(DocumentsContract.getDocumentId(uri));
+
+        List<String> ids = children.get(parentDocumentId);
+        if (ids != null && !ids.contains(document.documentId)) {
+            ids.add(document.documentId);
+        }
+
+        return document;
+    }
+
+    synchronized void remove(String documentId) {
+        documents.remove(documentId);
+        children.remove(documentId);
+
+        for (List<String> ids : children.values()) {
+            ids.remove(documentId);
+        }
+    }
+
+    /**
+     * Forgets the children of the directory, to have it listed again when needed.
+     */
+    synchronized void invalidate(String documentId) {
+        children.remove(documentId);
+    }
+
+    private Document fromCursor(Cursor cursor) {
+        String documentId = cursor.getString(0);
+
+        return new Document(
+                documentId,
+                getUri(documentId),
+                cursor.getString(1),
+                cursor.getString(2),
+                cursor.isNull(3) ? 0 : cursor.getLong(3),
+                cursor.isNull(4) ? 0 : cursor.getLong(4));
+    }
+}
@@ -5,7 +5,6 @@ import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
 
-import com.dropbox.core.DbxDownloader;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.android.Auth;
@@ -15,14 +14,15 @@ import com.dropbox.core.v2.DbxClientV2;
 import com.dropbox.core.v2.files.FileMetadata;
 import com.dropbox.core.v2.files.FolderMetadata;
 import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
 import com.dropbox.core.v2.files.ListFolderResult;
 import com.dropbox.core.v2.files.LookupError;
 import com.dropbox.core.v2.files.Metadata;
 import com.dropbox.core.v2.files.RelocationResult;
 import com.dropbox.core.v2.files.WriteMode;
 import com.orgzly.BuildConfig;
-import com.orgzly.android.BookName;
 import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.util.LogUtils;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -53,6 +53,7 @@ public class DropboxClient {
     final private DbxRequestConfig requestConfig;
     private DbxCredential credential;
     private DbxClientV2 dbxClient;
+    private DropboxFiles files;
 
     private boolean tryLinking = false;
 
@@ -66,6 +67,19 @@ public class DropboxClient {
         createClient();
     }
 
+    /**
+     * Client using specified files API, for tests.
+     */
+    DropboxClient(Context context, long id, DropboxFiles files) {
+        mContext = context;
+
+        repoId = id;
+
+        requestConfig = getRequestConfig();
+
+        this.files = files;
+    }
+
     private DbxRequestConfig getRequestConfig() {
         String userLocale = Locale.getDefault().toString();
         String clientId = String.format("%s/%s",
@@ -86,11 +100,12 @@ public class DropboxClient {
                 throw new RuntimeException(e);
             }
             dbxClient = new DbxClientV2(requestConfig, credential);
+            files = new DropboxFiles.Client(dbxClient);
         }
     }
 
     public boolean isLinked() {
-        return dbxClient != null;
+        return files != null;
     }
 
     private void linkedOrThrow() throws IOException {
@@ -101,7 +116,9 @@ public class DropboxClient {
 
     public void unlink() {
         dbxClient = null;
+        files = null;
         deleteCredential();
+        AppPreferences.dropboxListFolderStateDelete(mContext);
         tryLinking = false;
     }
 
@@ -130,6 +147,13 @@ public class DropboxClient {
         AppPreferences.dropboxSerializedCredential(mContext, null);
     }
 
+    /**
+     * Lists books in the repository.
+     *
+     * The listing is stored along with its cursor, so that only the entries changed
+     * since the last call are requested. Complete listing is only done the first time
+     * and when Dropbox resets the cursor.
+     */
     public List<VersionedRook> getBooks(Uri repoUri, RepoIgnoreNode ignores) throws IOException {
         linkedOrThrow();
 
@@ -145,60 +169,25 @@ public class DropboxClient {
         /* Strip trailing slashes. */
         path = path.replaceAll("/+$", "");
 
-        List<String> folderPaths = new ArrayList<>(List.of(path));
+        DropboxListing listing = DropboxListing.fromJson(
+                AppPreferences.dropboxListFolderState(mContext, repoId));
 
         try {
-            if (ROOT_PATH.equals(path) || dbxClient.files().getMetadata(path) instanceof FolderMetadata) {
-                /* Get folder content. */
-                while (folderPaths.size() > 0) {
-                    ListFolderResult result = dbxClient.files().listFolder(folderPaths.remove(0));
-                    while (true) {
-                        for (Metadata metadata : result.getEntries()) {
-                            String pathRelativeToRepoRoot =
-                                    metadata.getPathDisplay().replaceAll("^" + path + "/", "");
-                            if (metadata instanceof FileMetadata) {
-                                FileMetadata file = (FileMetadata) metadata;
-
-                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                                    if (ignores.isPathIgnored(pathRelativeToRepoRoot, false)) {
-                                        continue;
-                                    }
-                                }
-
-                                if (BookName.isSupportedFormatFileName(file.getName())) {
-                                    String encodedRelativePath = Uri.encode(pathRelativeToRepoRoot, "/");
-                                    Uri uri = repoUri.buildUpon().appendEncodedPath(encodedRelativePath).build();
-                                    VersionedRook book = new VersionedRook(
-                                            repoId,
-                                            RepoType.DROPBOX,
-                                            repoUri,
-                                            uri,
-                                            file.getRev(),
-                                            file.getServerModified().getTime());
-
-                                    list.add(book);
-                                }
-                            }
-                            if (metadata instanceof FolderMetadata && AppPreferences.subfolderSupport(mContext)) {
-                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                                    if (ignores.isPathIgnored(pathRelativeToRepoRoot, true)) {
-                                        continue;
-                                    }
-                                }
-                                folderPaths.add(metadata.getPathDisplay());
-                            }
-                        }
-
-                        if (!result.getHasMore()) {
-                            break;
-                        }
-
-                        result = dbxClient.files().listFolderContinue(result.getCursor());
+            if (listing != null && listing.path.equals(path)) {
+                try {
+                    listChanges(listing);
+
+                } catch (ListFolderContinueErrorException e) {
+                    if (e.errorValue.isReset()) {
+                        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Cursor reset, listing " + path);
+                        listing = listAll(repoUri, path);
+                    } else {
+                        throw e;
                     }
                 }
 
             } else {
-                throw new IOException("Not a directory: " + repoUri);
+                listing = listAll(repoUri, path);
             }
 
         } catch (DbxException e) {
@@ -207,6 +196,7 @@ public class DropboxClient {
             /* If we get NOT_FOUND from Dropbox, just return the empty list. */
             if (e instanceof GetMetadataErrorException) {
                 if (((GetMetadataErrorException) e).errorValue.getPathValue() == LookupError.NOT_FOUND) {
+                    AppPreferences.dropboxListFolderState(mContext, repoId, null);
                     return list;
                 }
             }
@@ -216,9 +206,74 @@ public class DropboxClient {
                                   (e.getMessage() != null ? e.getMessage() : e.toString()));
         }
 
+        AppPreferences.dropboxListFolderState(mContext, repoId, listing.toJson());
+
+        boolean subfolderSupport = AppPreferences.subfolderSupport(mContext);
+
+        for (DropboxListing.FileEntry file : listing.getFiles()) {
+            String pathRelativeToRepoRoot = file.pathDisplay.replaceAll("^" + path + "/", "");
+
+            if (!subfolderSupport && pathRelativeToRepoRoot.contains("/")) {
+                continue;
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (ignores.isPathIgnored(pathRelativeToRepoRoot, false)) {
+                    continue;
+                }
+            }
+
+            String encodedRelativePath = Uri.encode(pathRelativeToRepoRoot, "/");
+            Uri uri = repoUri.buildUpon().appendEncodedPath(encodedRelativePath).build();
+
+            list.add(new VersionedRook(repoId, RepoType.DROPBOX, repoUri, uri, file.rev, file.mtime));
+        }
+
         return list;
     }
 
+    private DropboxListing listAll(Uri repoUri, String path) throws DbxException, IOException {
+        if (!ROOT_PATH.equals(path) && !(files.getMetadata(path) instanceof FolderMetadata)) {
+            throw new IOException("Not a directory: " + repoUri);
+        }
+
+        DropboxListing listing = new DropboxListing(path);
+
+        ListFolderResult result = files.listFolder(path);
+
+        while (true) {
+            listing.apply(result.getEntries());
+
+            if (!result.getHasMore()) {
+                break;
+            }
+
+            result = files.listFolderContinue(result.getCursor());
+        }
+
+        listing.cursor = result.getCursor();
+
+        return listing;
+    }
+
+    private void listChanges(DropboxListing listing) throws DbxException {
+        int changes = 0;
+
+        ListFolderResult result;
+
+        do {
+            result = files.listFolderContinue(listing.cursor);
+
+            listing.apply(result.getEntries());
+            listing.cursor = result.getCursor();
+
+            changes += result.getEntries().size();
+
+        } while (result.getHasMore());
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, changes + " changes in " + listing.path);
+    }
+
     private Uri getFullUriFromRelativePath(Uri repoUri, String repoRelativePath) {
         String encodedPath = Uri.encode(repoRelativePath, "/");
         return Uri.withAppendedPath(repoUri, encodedPath);
@@ -267,14 +322,11 @@ public class DropboxClient {
 
         Uri uri = repoUri.buildUpon().appendPath(repoRelativePath).build();
         FileMetadata metadata;
-        String rev;
-        DbxDownloader<FileMetadata> downloader;
 
         try {
-            Metadata pathMetadata = dbxClient.files().getMetadata(uri.getPath());
+            Metadata pathMetadata = files.getMetadata(uri.getPath());
             metadata = (FileMetadata) pathMetadata;
-            rev = metadata.getRev();
-            downloader = dbxClient.files().download(metadata.getPathLower(), rev);
+            return files.download(metadata.getPathLower(), metadata.getRev());
         } catch (DbxException e) {
             if (e instanceof GetMetadataErrorException) {
                 if (((GetMetadataErrorException) e).errorValue.getPathValue() == LookupError.NOT_FOUND) {
@@ -283,7 +335,6 @@ public class DropboxClient {
             }
             throw new RuntimeException(e);
         }
-        return downloader.getInputStream();
     }
 
     /** Upload file to Dropbox. */
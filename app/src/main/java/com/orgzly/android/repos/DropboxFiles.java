@@ -0,0 +1,52 @@
+package com.orgzly.android.repos;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import java.io.InputStream;
+
+/**
+ * Dropbox files API calls used for reading the repository.
+ * Replaced by a local fake in tests.
+ */
+interface DropboxFiles {
+    Metadata getMetadata(String path) throws DbxException;
+
+    /** Recursive listing of the folder, returning a cursor for later changes. */
+    ListFolderResult listFolder(String path) throws DbxException;
+
+    /** Entries changed since the cursor was returned. */
+    ListFolderResult listFolderContinue(String cursor) throws DbxException;
+
+    InputStream download(String path, String rev) throws DbxException;
+
+    class Client implements DropboxFiles {
+        private final DbxClientV2 client;
+
+        Client(DbxClientV2 client) {
+            this.client = client;
+        }
+
+        @Override
+        public Metadata getMetadata(String path) throws DbxException {
+            return client.files().getMetadata(path);
+        }
+
+        @Override
+        public ListFolderResult listFolder(String path) throws DbxException {
+            return client.files().listFolderBuilder(path).withRecursive(true).start();
+        }
+
+        @Override
+        public ListFolderResult listFolderContinue(String cursor) throws DbxException {
+            return client.files().listFolderContinue(cursor);
+        }
+
+        @Override
+        public InputStream download(String path, String rev) throws DbxException {
+            return client.files().download(path, rev).getInputStream();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.orgzly.android.repos;
+
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import com.orgzly.android.BookName;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Books found in a Dropbox folder (including subfolders), with the list_folder cursor
+ * from which the changes to the folder can be requested.
+ */
+class DropboxListing {
+    /** Listed folder, as used in API calls. */
+    final String path;
+
+    String cursor;
+
+    /** Files with supported format, by their lower-case path. */
+    private final Map<String, FileEntry> files = new TreeMap<>();
+
+    static class FileEntry {
+        final String pathDisplay;
+        final String rev;
+        final long mtime;
+
+        FileEntry(String pathDisplay, String rev, long mtime) {
+            this.pathDisplay = pathDisplay;
+            this.rev = rev;
+            this.mtime = mtime;
+        }
+    }
+
+    DropboxListing(String path) {
+        this.path = path;
+    }
+
+    Collection<FileEntry> getFiles() {
+        return files.values();
+    }
+
+    /**
+     * Updates the listing with entries returned by list_folder or list_folder/continue.
+     */
+    void apply(Collection<Metadata> entries) {
+        for (Metadata metadata : entries) {
+            if (metadata instanceof FileMetadata) {
+                FileMetadata file = (FileMetadata) metadata;
+
+                if (BookName.isSupportedFormatFileName(file.getName())) {
+                    files.put(file.getPathLower(), new FileEntry(
+                            file.getPathDisplay(),
+                            file.getRev(),
+                            file.getServerModified().getTime()));
+                } else {
+                    files.remove(file.getPathLower());
+                }
+
+            } else if (metadata instanceof DeletedMetadata) {
+                /* Deleted entry can be a folder. */
+                String deleted = metadata.getPathLower();
+
+                Iterator<String> iterator = files.keySet().iterator();
+                while (iterator.hasNext()) {
+                    String key = iterator.next();
+                    if (key.equals(deleted) || key.startsWith(deleted + "/")) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    String toJson() {
+        try {
+            JSONArray array = new JSONArray();
+
+            for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+                FileEntry file = entry.getValue();
+                array.put(new JSONObject()
+                        .put("path_lower", entry.getKey())
+                        .put("path_display", file.pathDisplay)
+                        .put("rev", file.rev)
+                        .put("mtime", file.mtime));
+            }
+
+            return new JSONObject()
+                    .put("path", path)
+                    .put("cursor", cursor)
+                    .put("files", array)
+                    .toString();
+
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return listing or null if it cannot be read
+     */
+    static DropboxListing fromJson(String json) {
+        if (json == null) {
+            return null;
+        }
+
+        try {
+            JSONObject object = new JSONObject(json);
+
+            DropboxListing listing = new DropboxListing(object.getString("path"));
+            listing.cursor = object.getString("cursor");
+
+            JSONArray array = object.getJSONArray("files");
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject file = array.getJSONObject(i);
+                listing.files.put(file.getString("path_lower"), new FileEntry(
+                        file.getString("path_display"),
+                        file.getString("rev"),
+                        file.getLong("mtime")));
+            }
+
+            return listing;
+
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
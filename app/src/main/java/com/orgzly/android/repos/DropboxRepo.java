@@ -26,6 +26,14 @@ public class DropboxRepo implements SyncRepo {
         this.client = new DropboxClient(context, repoWithProps.getRepo().getId());
     }
 
+    /**
+     * Repository using specified client, for tests.
+     */
+    DropboxRepo(Uri repoUri, DropboxClient client) {
+        this.repoUri = repoUri;
+        this.client = client;
+    }
+
     @Override
     public boolean isConnectionRequired() {
         return true;
@@ -13,6 +13,7 @@ import com.orgzly.android.BookFormat;
 import com.orgzly.android.BookName;
 import com.orgzly.android.db.entity.Repo;
 import com.orgzly.android.git.GitFileSynchronizer;
+import com.orgzly.android.git.GitLastCommitIndex;
 import com.orgzly.android.git.GitPreferences;
 import com.orgzly.android.git.GitPreferencesFromRepoPrefs;
 import com.orgzly.android.git.GitTransportSetter;
@@ -155,7 +156,10 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                     setProgressMonitor(pm).
                     setDirectory(directoryFile);
             transportSetter.setTransport(cloneCommand);
-            return cloneCommand.call();
+            Git git = cloneCommand.call();
+            /* Directory could have been used by a repository with other history. */
+            GitLastCommitIndex.remove(directoryFile);
+            return git;
         } catch (GitAPIException | JGitInternalException e) {
             try {
                 FileUtils.delete(directoryFile, FileUtils.RECURSIVE);
@@ -189,6 +193,14 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
     }
 
     public VersionedRook storeBook(File file, String repoRelativePath) throws IOException {
+        return storeBook(file, repoRelativePath, true);
+    }
+
+    /**
+     * @param push false to only commit, leaving the push to the caller
+     * (a sync pushes all of its commits at the end, see {@link #tryPushIfHeadDiffersFromRemote()})
+     */
+    public VersionedRook storeBook(File file, String repoRelativePath, boolean push) throws IOException {
         File destination = synchronizer.workTreeFile(repoRelativePath);
 
         if (destination.exists()) {
@@ -196,7 +208,9 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         } else {
             synchronizer.addAndCommitNewFile(file, repoRelativePath);
         }
-        synchronizer.tryPush();
+        if (push) {
+            synchronizer.tryPush();
+        }
         return currentVersionedRook(Uri.EMPTY.buildUpon().appendPath(repoRelativePath).build());
     }
 
@@ -0,0 +1,54 @@
+package com.orgzly.android.repos
+
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * Last downloaded or uploaded content of WebDAV files, with their ETags.
+ * Used to send conditional GET requests and skip the transfer of unchanged files.
+ */
+class WebdavDownloadCache(private val dir: File) {
+
+    class Entry(val file: File, val etag: String)
+
+    fun get(url: String): Entry? {
+        val key = key(url)
+
+        val file = File(dir, key)
+        val etagFile = File(dir, "$key.etag")
+
+        if (!file.exists() || !etagFile.exists()) {
+            return null
+        }
+
+        return Entry(file, etagFile.readText())
+    }
+
+    /**
+     * File to write the content of [url] to, before calling [put].
+     */
+    fun file(url: String): File {
+        dir.mkdirs()
+        return File(dir, key(url))
+    }
+
+    /**
+     * Remembers the ETag of [url]'s content, written to [file].
+     * Without ETag the content cannot be validated, so it is forgotten.
+     */
+    fun put(url: String, etag: String?) {
+        val etagFile = File(dir, "${key(url)}.etag")
+
+        if (etag != null) {
+            etagFile.writeText(etag)
+        } else {
+            etagFile.delete()
+        }
+    }
+
+    private fun key(url: String): String {
+        return MessageDigest.getInstance("SHA-1")
+                .digest(url.toByteArray())
+                .joinToString("") { "%02x".format(it) }
+    }
+}
@@ -0,0 +1,71 @@
+package com.orgzly.android.repos
+
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * Files with supported format found by the last deep listing of a WebDAV folder,
+ * valid for as long as the folder's tag (ctag or ETag) stays the same.
+ *
+ * Listing without a tag is never reused, but still maps files to URLs used by the server.
+ */
+class WebdavListing(
+        val url: String,
+        val depth: Int,
+        val tag: String?,
+        val files: List<File>) {
+
+    data class File(val url: String, val relativePath: String, val mtime: Long)
+
+    fun isValidFor(url: String, depth: Int, tag: String): Boolean {
+        return this.url == url && this.depth == depth && this.tag == tag
+    }
+
+    fun toJson(): String {
+        val array = JSONArray()
+
+        files.forEach { file ->
+            array.put(JSONObject()
+                    .put("url", file.url)
+                    .put("relative_path", file.relativePath)
+                    .put("mtime", file.mtime))
+        }
+
+        return JSONObject()
+                .put("url", url)
+                .put("depth", depth)
+                .put("tag", tag ?: JSONObject.NULL)
+                .put("files", array)
+                .toString()
+    }
+
+    companion object {
+        /**
+         * @return listing or null if it cannot be read
+         */
+        fun fromJson(json: String?): WebdavListing? {
+            if (json == null) {
+                return null
+            }
+
+            return try {
+                val obj = JSONObject(json)
+
+                val array = obj.getJSONArray("files")
+
+                val files = (0 until array.length()).map { i ->
+                    val file = array.getJSONObject(i)
+                    File(file.getString("url"), file.getString("relative_path"), file.getLong("mtime"))
+                }
+
+                val tag = if (obj.isNull("tag")) null else obj.getString("tag")
+
+                WebdavListing(obj.getString("url"), obj.getInt("depth"), tag, files)
+
+            } catch (e: JSONException) {
+                null
+            }
+        }
+    }
+}
@@ -15,7 +15,11 @@ import com.orgzly.android.BookName
 import com.orgzly.android.prefs.AppPreferences
 import com.thegrizzlylabs.sardineandroid.DavResource
 import com.thegrizzlylabs.sardineandroid.impl.OkHttpSardine
+import com.thegrizzlylabs.sardineandroid.impl.SardineException
+import okhttp3.Interceptor
 import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.asRequestBody
 import okio.Buffer
 import java.io.File
 import java.io.FileNotFoundException
@@ -31,6 +35,7 @@ import java.util.concurrent.TimeUnit
 import javax.net.ssl.SSLContext
 import javax.net.ssl.TrustManagerFactory
 import javax.net.ssl.X509TrustManager
+import javax.xml.namespace.QName
 
 
 class WebdavRepo(
@@ -38,11 +43,20 @@ class WebdavRepo(
         private val uri: Uri,
         private val username: String,
         private val password: String,
-        private val certificates: String? = null
-) : SyncRepo {
+        private val certificates: String? = null,
+        private val interceptor: Interceptor? = null
+) : SyncRepo, BookRevisionRepo {
+
+    private val client by lazy {
+        okHttpClient()
+    }
 
     private val sardine by lazy {
-        OkHttpSardine(okHttpClient())
+        OkHttpSardine(client)
+    }
+
+    private val downloadCache by lazy {
+        WebdavDownloadCache(File(App.getAppContext().cacheDir, "webdav/$repoId"))
     }
 
     private fun okHttpClient(): OkHttpClient {
@@ -76,6 +90,10 @@ class WebdavRepo(
         builder.authenticator(CachingAuthenticatorDecorator(authenticator, authCache))
         builder.addInterceptor(AuthenticationCacheInterceptor(authCache))
 
+        interceptor?.let {
+            builder.addInterceptor(it)
+        }
+
         // Double the values as some users are seeing timeouts.
         // Make configurable if needed (https://github.com/orgzly/orgzly-android/issues/870).
         builder.connectTimeout(20, TimeUnit.SECONDS)
@@ -129,6 +147,9 @@ class WebdavRepo(
         const val PASSWORD_PREF_KEY = "password"
         const val CERTIFICATES_PREF_KEY = "certificates"
 
+        /** Collection tag (CalendarServer extension), changed whenever the collection's content changes. */
+        private val CTAG = QName("http://calendarserver.org/ns/", "getctag", "cs")
+
         fun getInstance(repoWithProps: RepoWithProps): WebdavRepo {
             val id = repoWithProps.repo.id
 
@@ -161,58 +182,177 @@ class WebdavRepo(
     }
 
     override fun getBooks(): MutableList<VersionedRook> {
+        val context = App.getAppContext()
+
         val url = uri.toUrl()
 
-        if (!sardine.exists(url)) {
-            sardine.createDirectory(url)
+        val listDepth = if (AppPreferences.subfolderSupport(context)) {
+            -1
+        } else {
+            1
         }
 
-        val ignores = RepoIgnoreNode(this)
+        val tag = if (AppPreferences.webdavSkipUnchangedListing(context)) {
+            getCollectionTag(url)
+        } else {
+            if (!sardine.exists(url)) {
+                sardine.createDirectory(url)
+            }
+            null
+        }
+
+        val cached = WebdavListing.fromJson(AppPreferences.webdavListingState(context, repoId))
+
+        val files = if (tag != null && cached != null && cached.isValidFor(url, listDepth, tag)) {
+            cached.files
 
-        val listDepth = if (AppPreferences.subfolderSupport(App.getAppContext())) {
-            -1
         } else {
-            1
+            list(url, listDepth).also { files ->
+                val listing = WebdavListing(url, listDepth, tag, files)
+                AppPreferences.webdavListingState(context, repoId, listing.toJson())
+            }
         }
 
-        return sardine
-                .list(url, listDepth)
+        val ignores = RepoIgnoreNode(this)
+
+        return files
                 .mapNotNull {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        if (!BookName.isSupportedFormatFileName(it.name) || ignores.isPathIgnored(it.getRelativePath(), it.isDirectory)) {
-                            null
-                        } else {
-                            it.toVersionedRook()
-                        }
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && ignores.isPathIgnored(it.relativePath, false)) {
+                        null
                     } else {
-                        if (!BookName.isSupportedFormatFileName(it.name)) {
-                            null
-                        } else {
-                            it.toVersionedRook()
-                        }
+                        VersionedRook(repoId, RepoType.WEBDAV, uri, Uri.parse(it.url), it.mtime.toString(), it.mtime)
                     }
                 }
                 .toMutableList()
     }
 
+    /**
+     * Deep listing of the folder, returning files with supported format.
+     */
+    private fun list(url: String, depth: Int): List<WebdavListing.File> {
+        return sardine
+                .list(url, depth)
+                .mapNotNull {
+                    if (it.isDirectory || !BookName.isSupportedFormatFileName(it.name)) {
+                        null
+                    } else {
+                        WebdavListing.File(it.getFullUrlString(), it.getRelativePath(), it.modified.time)
+                    }
+                }
+    }
+
+    /**
+     * Folder's ctag, or its ETag if the server does not support ctags.
+     * Creates the folder if it does not exist.
+     */
+    private fun getCollectionTag(url: String): String? {
+        val resource = try {
+            sardine.list(url, 0, setOf(CTAG)).firstOrNull()
+
+        } catch (e: SardineException) {
+            if (e.statusCode == 404) {
+                sardine.createDirectory(url)
+                return null
+            }
+            throw e
+        }
+
+        return resource?.customPropsNS?.get(CTAG) ?: resource?.etag
+    }
+
     override fun retrieveBook(repoRelativePath: String?, destination: File?): VersionedRook {
         val fileUrl = Uri.withAppendedPath(uri, repoRelativePath).toUrl()
 
-        sardine.get(fileUrl).use { inputStream ->
-            FileOutputStream(destination).use { outputStream ->
-                inputStream.copyTo(outputStream)
+        val download = download(fileUrl)
+
+        download.file.copyTo(checkNotNull(destination), overwrite = true)
+
+        val mtime = download.lastModified
+
+        val url = cachedFileUrl(repoRelativePath)
+
+        return if (mtime != null && url != null) {
+            VersionedRook(repoId, RepoType.WEBDAV, uri, Uri.parse(url), mtime.toString(), mtime)
+        } else {
+            sardine.list(fileUrl).first().toVersionedRook()
+        }
+    }
+
+    override fun getBookRevision(uri: Uri): VersionedRook? {
+        val resource = try {
+            sardine.list(uri.toUrl(), 0).firstOrNull()
+
+        } catch (e: SardineException) {
+            if (e.statusCode == 404) {
+                return null
             }
+            throw e
         }
 
-        return sardine.list(fileUrl).first().toVersionedRook()
+        return resource?.takeUnless { it.isDirectory }?.toVersionedRook()
     }
 
     override fun openRepoFileInputStream(repoRelativePath: String): InputStream {
         val fileUrl = Uri.withAppendedPath(uri, repoRelativePath).toUrl()
-        if (!sardine.exists(fileUrl))
-            throw FileNotFoundException()
-        return sardine.get(fileUrl)
-     }
+
+        return download(fileUrl).file.inputStream()
+    }
+
+    private class Download(val file: File, val lastModified: Long?)
+
+    /**
+     * Downloads the file to [downloadCache], unless the cached copy is still current.
+     *
+     * @throws FileNotFoundException if there is no file at [url]
+     */
+    private fun download(url: String): Download {
+        val cached = downloadCache.get(url)
+
+        val request = Request.Builder().url(url).apply {
+            if (cached != null) {
+                header("If-None-Match", cached.etag)
+            }
+        }.build()
+
+        client.newCall(request).execute().use { response ->
+            val lastModified = response.headers.getDate("Last-Modified")?.time
+
+            if (response.code == 304 && cached != null) {
+                return Download(cached.file, lastModified)
+            }
+
+            if (response.code == 404) {
+                throw FileNotFoundException(url)
+            }
+
+            if (!response.isSuccessful) {
+                throw IOException("Failed downloading $url: ${response.code} ${response.message}")
+            }
+
+            /* Forget the old ETag before the content is replaced. */
+            downloadCache.put(url, null)
+
+            val file = downloadCache.file(url)
+
+            FileOutputStream(file).use { outputStream ->
+                response.body!!.byteStream().copyTo(outputStream)
+            }
+
+            downloadCache.put(url, response.header("ETag"))
+
+            return Download(file, lastModified)
+        }
+    }
+
+    /**
+     * Full URL of the file as listed by the server, if known from the last listing.
+     */
+    private fun cachedFileUrl(repoRelativePath: String?): String? {
+        return WebdavListing.fromJson(AppPreferences.webdavListingState(App.getAppContext(), repoId))
+                ?.files
+                ?.find { it.relativePath == repoRelativePath }
+                ?.url
+    }
 
     private fun ensureDirectoryHierarchy(relativePath: String) {
         val levels: ArrayList<String> = ArrayList(relativePath.split("/"))
@@ -239,9 +379,30 @@ class WebdavRepo(
         }
         val fileUrl = uri.buildUpon().appendEncodedPath(encodedRepoPath).build().toUrl()
 
-        sardine.put(fileUrl, file, null)
+        val request = Request.Builder().url(fileUrl).put(file.asRequestBody()).build()
+
+        val mtime = client.newCall(request).execute().use { response ->
+            if (!response.isSuccessful) {
+                throw IOException("Failed uploading $fileUrl: ${response.code} ${response.message}")
+            }
+
+            /* Uploaded content is what the server has now. */
+            response.header("ETag")?.let { etag ->
+                file.copyTo(downloadCache.file(fileUrl), overwrite = true)
+                downloadCache.put(fileUrl, etag)
+            }
+
+            response.headers.getDate("Last-Modified")?.time
+        }
+
+        val url = cachedFileUrl(repoRelativePath)
 
-        return sardine.list(fileUrl).first().toVersionedRook()
+        /* Request the metadata only if the server did not send it. */
+        return if (mtime != null && url != null) {
+            VersionedRook(repoId, RepoType.WEBDAV, uri, Uri.parse(url), mtime.toString(), mtime)
+        } else {
+            sardine.list(fileUrl).first().toVersionedRook()
+        }
     }
 
     override fun renameBook(oldFullUri: Uri, newName: String): VersionedRook {
@@ -16,14 +16,15 @@ class AutoSync @Inject constructor(val context: Application, val dataRepository:
 
         if (AppPreferences.autoSync(context)) {
             when (type) {
+                /* Local changes only need modified books pushed. */
                 Type.NOTE_CREATED ->
                     if (AppPreferences.syncOnNoteCreate(context)) {
-                        startSync()
+                        startSync(fastSync = true)
                     }
 
                 Type.DATA_MODIFIED ->
                     if (AppPreferences.syncOnNoteUpdate(context)) {
-                        startSync()
+                        startSync(fastSync = true)
                     }
 
                 Type.APP_RESUMED ->
@@ -39,10 +40,10 @@ class AutoSync @Inject constructor(val context: Application, val dataRepository:
         }
     }
 
-    private fun startSync() {
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
+    private fun startSync(fastSync: Boolean = false) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, fastSync)
 
-        SyncRunner.startAuto()
+        SyncRunner.startAuto(fastSync)
     }
 
     enum class Type {
@@ -0,0 +1,72 @@
+package com.orgzly.android.sync
+
+import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.repos.RepoType
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.io.Closeable
+
+/**
+ * Syncs multiple books at the same time.
+ *
+ * Each book is synced in the lane of its repository type, which limits how many books
+ * are downloaded or uploaded at once (see [concurrency]). Database writes are all made
+ * by a single [writer].
+ */
+class SyncPipeline(private val repos: List<Repo>) : Closeable {
+
+    val writer = SerialSyncWriter()
+
+    private val lanes = HashMap<RepoType?, Semaphore>()
+
+    /**
+     * Runs [block] on the I/O dispatcher, once the namesake's lane is free.
+     */
+    suspend fun <T> run(namesake: BookNamesake, block: suspend () -> T): T {
+        return lane(repoType(namesake)).withPermit {
+            withContext(Dispatchers.IO) {
+                block()
+            }
+        }
+    }
+
+    private fun lane(type: RepoType?): Semaphore {
+        return synchronized(lanes) {
+            lanes.getOrPut(type) { Semaphore(concurrency(type)) }
+        }
+    }
+
+    /**
+     * Repository type the namesake will be downloaded from or uploaded to.
+     * Null if there is no such repository (nothing to transfer).
+     */
+    private fun repoType(namesake: BookNamesake): RepoType? {
+        return namesake.rooks.firstOrNull()?.repoType
+                ?: namesake.book?.linkRepo?.type
+                ?: repos.singleOrNull()?.type
+    }
+
+    override fun close() {
+        writer.close()
+    }
+
+    companion object {
+        /**
+         * Number of books synced at the same time, per repository type.
+         */
+        fun concurrency(type: RepoType?): Int {
+            return when (type) {
+                /* Single working tree. */
+                RepoType.GIT -> 1
+
+                RepoType.WEBDAV, RepoType.DROPBOX -> 4
+
+                RepoType.DIRECTORY, RepoType.DOCUMENT -> 2
+
+                RepoType.MOCK, null -> 1
+            }
+        }
+    }
+}
@@ -22,18 +22,22 @@ import java.util.concurrent.TimeUnit
 object SyncRunner {
     const val IS_AUTO_SYNC = "auto-sync"
 
+    /* Only push modified books, see SyncUtils.groupModifiedNotebooksByName. */
+    const val IS_FAST_SYNC = "fast-sync"
+
     private val TAG: String = SyncRunner::class.java.name
 
     private const val UNIQUE_WORK_NAME = "sync"
 
     @JvmStatic
-    fun startAuto() {
-        startSync(true)
+    @JvmOverloads
+    fun startAuto(fastSync: Boolean = false) {
+        startSync(true, fastSync)
     }
 
     @JvmStatic
     @JvmOverloads
-    fun startSync(autoSync: Boolean = false) {
+    fun startSync(autoSync: Boolean = false, fastSync: Boolean = false) {
         val workManager = WorkManager.getInstance(App.getAppContext())
 
 
@@ -59,7 +63,7 @@ object SyncRunner {
             // Sync-in-progress notification cannot be canceled if app is killed by the system,
             // when handling notification manually from the worker.
             .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
-            .setInputData(workDataOf(IS_AUTO_SYNC to autoSync))
+            .setInputData(workDataOf(IS_AUTO_SYNC to autoSync, IS_FAST_SYNC to fastSync))
             .build()
 
         workManager
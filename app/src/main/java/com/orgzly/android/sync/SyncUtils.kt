@@ -8,6 +8,7 @@ import com.orgzly.android.NotesOrgExporter
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.BookAction
 import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.repos.BookRevisionRepo
 import com.orgzly.android.repos.GitRepo
 import com.orgzly.android.repos.SyncRepo
 import com.orgzly.android.repos.TwoWaySyncRepo
@@ -77,14 +78,67 @@ object SyncUtils {
         return namesakes
     }
 
+    /**
+     * Groups only modified books, checking the current revision of the remote book
+     * each was last synced to, instead of listing all repositories.
+     *
+     * @return null if any of the modified books requires a full sync
+     */
+    @Throws(IOException::class)
+    @JvmStatic
+    fun groupModifiedNotebooksByName(dataRepository: DataRepository): Map<String, BookNamesake>? {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Collecting modified local books ...")
+
+        val repos = dataRepository.getSyncRepos()
+
+        val localBooks = dataRepository.getBooks().filter { it.isModified() }
+
+        val versionedRooks = localBooks.map { bookView ->
+            val syncedTo = bookView.syncedTo ?: return null
+
+            val repo = repos.find { it.uri.toString() == bookView.linkRepo?.url }
+
+            /* Git repositories are synced both ways. */
+            if (repo !is BookRevisionRepo || repo is TwoWaySyncRepo) {
+                return null
+            }
+
+            repo.getBookRevision(syncedTo.uri) ?: return null
+        }
+
+        val namesakes = BookNamesake.getAll(localBooks, versionedRooks)
+
+        for (namesake in namesakes.values) {
+            namesake.updateStatus(repos.size)
+
+            /* Remote book changed as well, or the book is linked unusually. */
+            if (namesake.status != BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED) {
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Full sync required for $namesake")
+                return null
+            }
+        }
+
+        return namesakes
+    }
+
     /**
      * Passed [com.orgzly.android.sync.BookNamesake] is NOT updated after load or save.
      *
+     * Database writes are made through [writer], remote I/O on the calling thread.
+     *
+     * @param pushToGit false to only commit saved books to Git repositories, with the push made by the caller
+     *
      * FIXME: Hardcoded BookName.Format.ORG below
      */
     @Throws(Exception::class)
     @JvmStatic
-    fun syncNamesake(dataRepository: DataRepository, namesake: BookNamesake): BookAction {
+    @JvmOverloads
+    fun syncNamesake(
+        dataRepository: DataRepository,
+        namesake: BookNamesake,
+        writer: SyncWriter = SyncWriter.DIRECT,
+        pushToGit: Boolean = true
+    ): BookAction {
         val repoEntity: Repo?
         val repoUrl: String
         val repositoryPath: String
@@ -97,7 +151,7 @@ object SyncUtils {
                 val repo = dataRepository.getRepoInstance(
                     rook.repoId, rook.repoType, rook.repoUri.toString())
                 if (repo is GitRepo) {
-                    if (!handleTwoWaySync(dataRepository, repo as TwoWaySyncRepo, namesake)) {
+                    if (!handleTwoWaySync(dataRepository, repo as TwoWaySyncRepo, namesake, writer, pushToGit)) {
                         throw Exception("Merge conflict; saved to temporary branch.")
                     }
                     return BookAction.forNow(
@@ -129,22 +183,24 @@ object SyncUtils {
             BookSyncStatus.ROOK_NO_LONGER_EXISTS -> {
                 /* Remove repository link and "synced to" information. User must set a repo link if
                  * they want to keep the book and sync it. */
-                dataRepository.setLink(namesake.book.book.id, null)
-                dataRepository.removeBookSyncedTo(namesake.book.book.id)
+                writer.write {
+                    dataRepository.setLink(namesake.book.book.id, null)
+                    dataRepository.removeBookSyncedTo(namesake.book.book.id)
+                }
                 bookAction = BookAction.forNow(BookAction.Type.ERROR, namesake.status.msg())
             }
 
             /* Load remote book. */
 
             BookSyncStatus.NO_BOOK_ONE_ROOK, BookSyncStatus.DUMMY_WITHOUT_LINK_AND_ONE_ROOK -> {
-                dataRepository.loadBookFromRepo(namesake.rooks[0])
+                dataRepository.loadBookFromRepo(namesake.rooks[0], writer)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.rooks[0].uri))
             }
 
             BookSyncStatus.DUMMY_WITH_LINK, BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED -> {
-                dataRepository.loadBookFromRepo(namesake.latestLinkedRook)
+                dataRepository.loadBookFromRepo(namesake.latestLinkedRook, writer)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.latestLinkedRook.uri))
@@ -157,8 +213,8 @@ object SyncUtils {
                 repoUrl = repoEntity.url
                 repositoryPath = BookName.repoRelativePath(namesake.book.book.name, BookFormat.ORG)
                 /* Set repo link before saving to ensure repo ignore rules are checked */
-                dataRepository.setLink(namesake.book.book.id, repoEntity)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                writer.write { dataRepository.setLink(namesake.book.book.id, repoEntity) }
+                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, writer, pushToGit)
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
 
@@ -166,7 +222,7 @@ object SyncUtils {
                 repoEntity = namesake.book.linkRepo
                 repoUrl = repoEntity!!.url
                 repositoryPath = BookName.getRepoRelativePath(repoUrl.toUri(), namesake.book.syncedTo!!.uri)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, writer, pushToGit)
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
 
@@ -174,7 +230,7 @@ object SyncUtils {
                 repoEntity = namesake.book.linkRepo
                 repoUrl = repoEntity!!.url
                 repositoryPath = BookName.repoRelativePath(namesake.book.book.name, BookFormat.ORG)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, writer, pushToGit)
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
         }
@@ -183,7 +239,13 @@ object SyncUtils {
     }
 
     @Throws(IOException::class)
-    private fun handleTwoWaySync(dataRepository: DataRepository, repo: TwoWaySyncRepo, namesake: BookNamesake): Boolean {
+    private fun handleTwoWaySync(
+        dataRepository: DataRepository,
+        repo: TwoWaySyncRepo,
+        namesake: BookNamesake,
+        writer: SyncWriter,
+        pushToGit: Boolean
+    ): Boolean {
         val (book, _, _, currentRook) = namesake.book
         val someRook = currentRook ?: namesake.rooks[0]
         val newRook: VersionedRook?
@@ -191,7 +253,7 @@ object SyncUtils {
         // If there are only local changes, the GitRepo.syncBook method is overly complicated.
         if (namesake.status == BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED) {
             val repoRelativePath = BookName.getRepoRelativePath(repo.getUri(), namesake.book.syncedTo!!.uri)
-            dataRepository.saveBookToRepo(namesake.book.linkRepo!!, repoRelativePath, namesake.book, BookFormat.ORG)
+            dataRepository.saveBookToRepo(namesake.book.linkRepo!!, repoRelativePath, namesake.book, BookFormat.ORG, writer, pushToGit)
         } else {
             val dbFile = dataRepository.getTempBookFile()
             try {
@@ -205,11 +267,13 @@ object SyncUtils {
                     val repoRelativePath = BookName.getRepoRelativePath(repo.getUri(), newRook.uri)
                     val bookName = BookName.fromRepoRelativePath(repoRelativePath)
                     if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Loading from file '$loadFile'")
-                    dataRepository.loadBookFromFile(
-                        bookName.name,
-                        bookName.format,
-                        loadFile,
-                        newRook)
+                    writer.write {
+                        dataRepository.loadBookFromFile(
+                            bookName.name,
+                            bookName.format,
+                            loadFile,
+                            newRook)
+                    }
                     // TODO: db.book().updateIsModified(bookView.book.id, false)
                     // Instead of:
                     // dataRepository.updateBookMtime(loadedBook.getBook().getId(), 0);
@@ -218,7 +282,7 @@ object SyncUtils {
                 /* Delete temporary files. */
                 dbFile.delete()
             }
-            dataRepository.updateBookLinkAndSync(book.id, newRook!!)
+            writer.write { dataRepository.updateBookLinkAndSync(book.id, newRook!!) }
         }
         return noNewMergeConflicts
     }
@@ -7,12 +7,11 @@ import androidx.work.WorkerParameters
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.App
-import com.orgzly.android.SharingShortcutsManager
+import com.orgzly.android.InvalidationBus
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.data.logs.AppLogsRepository
 import com.orgzly.android.db.entity.BookAction
 import com.orgzly.android.prefs.AppPreferences
-import com.orgzly.android.reminders.RemindersScheduler
 import com.orgzly.android.repos.DirectoryRepo
 import com.orgzly.android.repos.RepoType
 import com.orgzly.android.repos.RepoUtils
@@ -23,10 +22,12 @@ import com.orgzly.android.ui.util.haveNetworkConnection
 import com.orgzly.android.util.AppPermissions
 import com.orgzly.android.util.LogMajorEvents
 import com.orgzly.android.util.LogUtils
-import com.orgzly.android.widgets.ListWidgetProvider
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 
 class SyncWorker(val context: Context, val params: WorkerParameters) :
@@ -99,9 +100,7 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
 
         syncRepos()?.let { return it }
 
-        RemindersScheduler.notifyDataSetChanged(App.getAppContext())
-        ListWidgetProvider.notifyDataSetChanged(App.getAppContext())
-        SharingShortcutsManager().replaceDynamicShortcuts(App.getAppContext())
+        InvalidationBus.invalidateAll()
 
         val syncEndTime = System.currentTimeMillis()
 
@@ -176,11 +175,26 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
 
         sendProgress(SyncState.getInstance(SyncState.Type.COLLECTING_BOOKS))
 
+        /* After local changes, try pushing only modified books. */
+        val modifiedNamesakes = if (params.inputData.getBoolean(SyncRunner.IS_FAST_SYNC, false)) {
+            withContext(Dispatchers.IO) {
+                SyncUtils.groupModifiedNotebooksByName(dataRepository)
+            }
+        } else {
+            null
+        }
+
+        if (modifiedNamesakes != null && modifiedNamesakes.isEmpty()) {
+            /* Notebooks saved outside of sync could still have unpushed commits. */
+            pushTwoWaySyncRepos()
+            return null
+        }
+
         /* Get the list of local and remote books from all repositories.
          * Group them by name.
          * Inserts dummy books if they don't exist in database.
          */
-        val namesakes = withContext(Dispatchers.IO) {
+        val namesakes = modifiedNamesakes ?: withContext(Dispatchers.IO) {
             SyncUtils.groupAllNotebooksByName(dataRepository)
         }
 
@@ -208,73 +222,117 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
          * created as early as possible. Otherwise, we risk committing
          * changes on master which we cannot see on the conflict branch.
          */
-        val orderedNamesakes = LinkedHashMap<String, BookNamesake>()
-        val lowPriorityNamesakes = LinkedHashMap<String, BookNamesake>()
+        val conflictNamesakes = ArrayList<BookNamesake>()
+        val otherNamesakes = ArrayList<BookNamesake>()
         for (namesake in namesakes.values) {
             if (namesake.rooks.isNotEmpty() &&
                 namesake.rooks[0].repoType == RepoType.GIT &&
                 namesake.status == BookSyncStatus.CONFLICT_BOTH_BOOK_AND_ROOK_MODIFIED
             ) {
-                orderedNamesakes[namesake.name] = namesake
+                conflictNamesakes.add(namesake)
             } else {
-                lowPriorityNamesakes[namesake.name] = namesake
+                otherNamesakes.add(namesake)
             }
         }
-        orderedNamesakes.putAll(lowPriorityNamesakes)
 
         /*
          * Update books' statuses, before starting to sync them.
          */
-        for (namesake in orderedNamesakes.values) {
+        for (namesake in conflictNamesakes + otherNamesakes) {
             dataRepository.setBookLastActionAndSyncStatus(namesake.book.book.id, BookAction.forNow(
                 BookAction.Type.PROGRESS, context.getString(R.string.syncing_in_progress)))
         }
 
         /*
-         * Start syncing name by name.
+         * Sync conflicting namesakes one by one, then all others concurrently.
          */
-        for ((curr, namesake) in orderedNamesakes.values.withIndex()) {
-            /* If task has been canceled, just mark the remaining books as such. */
-            if (isStopped) {
-                dataRepository.setBookLastActionAndSyncStatus(
-                    namesake.book.book.id,
-                    BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
+        val done = AtomicInteger()
 
-            } else {
-                sendProgress(SyncState.getInstance(
-                    SyncState.Type.BOOK_STARTED, namesake.name, curr, namesakes.size))
+        /* Unless pushed after each book, commits to Git repos are pushed together, below. */
+        val pushToGit = !AppPreferences.gitPushOncePerSync(context)
 
-                try {
-                    val action = SyncUtils.syncNamesake(dataRepository, namesake)
-                    dataRepository.setBookLastActionAndSyncStatus(
-                        namesake.book.book.id,
-                        action,
-                        namesake.status.toString())
-                } catch (e: Exception) {
-                    e.printStackTrace()
-                    dataRepository.setBookLastActionAndSyncStatus(
-                        namesake.book.book.id,
-                        BookAction.forNow(BookAction.Type.ERROR, e.message.orEmpty()))
+        try {
+            SyncPipeline(dataRepository.getRepos()).use { pipeline ->
+                for (namesake in conflictNamesakes) {
+                    syncNamesake(pipeline, namesake, done, namesakes.size, pushToGit)
                 }
 
-                sendProgress(SyncState.getInstance(
-                    SyncState.Type.BOOK_ENDED, namesake.name, curr + 1, namesakes.size))
+                coroutineScope {
+                    for (namesake in otherNamesakes) {
+                        launch {
+                            syncNamesake(pipeline, namesake, done, namesakes.size, pushToGit)
+                        }
+                    }
+                }
             }
+
+        } finally {
+            /* Push commits made so far, also when sync is canceled or fails. */
+            pushTwoWaySyncRepos()
         }
 
         if (isStopped) {
             return SyncState.getInstance(SyncState.Type.CANCELED)
         }
 
-        val repos = dataRepository.getSyncRepos()
+        return null
+    }
 
-        for (repo in repos) {
+    /**
+     * Pushes repositories whose local head differs from the remote one.
+     * Only refs are compared locally, nothing is sent if there are no new commits.
+     */
+    private fun pushTwoWaySyncRepos() {
+        for (repo in dataRepository.getSyncRepos()) {
             if (repo is TwoWaySyncRepo) {
-                repo.tryPushIfHeadDiffersFromRemote()
+                try {
+                    repo.tryPushIfHeadDiffersFromRemote()
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
             }
         }
+    }
 
-        return null
+    private suspend fun syncNamesake(
+        pipeline: SyncPipeline,
+        namesake: BookNamesake,
+        done: AtomicInteger,
+        total: Int,
+        pushToGit: Boolean
+    ) = pipeline.run(namesake) {
+        /* If task has been canceled, just mark the remaining books as such. */
+        if (isStopped) {
+            pipeline.writer.write {
+                dataRepository.setBookLastActionAndSyncStatus(
+                    namesake.book.book.id,
+                    BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
+            }
+            return@run
+        }
+
+        sendProgress(SyncState.getInstance(
+            SyncState.Type.BOOK_STARTED, namesake.name, done.get(), total))
+
+        try {
+            val action = SyncUtils.syncNamesake(dataRepository, namesake, pipeline.writer, pushToGit)
+            pipeline.writer.write {
+                dataRepository.setBookLastActionAndSyncStatus(
+                    namesake.book.book.id,
+                    action,
+                    namesake.status.toString())
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            pipeline.writer.write {
+                dataRepository.setBookLastActionAndSyncStatus(
+                    namesake.book.book.id,
+                    BookAction.forNow(BookAction.Type.ERROR, e.message.orEmpty()))
+            }
+        }
+
+        sendProgress(SyncState.getInstance(
+            SyncState.Type.BOOK_ENDED, namesake.name, done.incrementAndGet(), total))
     }
 
     // TODO: Remove or repo.requiresStoragePermission
@@ -0,0 +1,53 @@
+package com.orgzly.android.sync
+
+import java.io.Closeable
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Runs database writes made while syncing a book.
+ */
+interface SyncWriter {
+    fun <T> write(block: () -> T): T
+
+    companion object {
+        /** Writes on the calling thread. */
+        @JvmField
+        val DIRECT = object : SyncWriter {
+            override fun <T> write(block: () -> T): T = block()
+        }
+    }
+}
+
+/**
+ * Runs all writes on a single thread, in the order they were requested.
+ * The calling thread waits for its write to finish.
+ */
+class SerialSyncWriter : SyncWriter, Closeable {
+    @Volatile
+    private var thread: Thread? = null
+
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "sync-writer").also { thread = it }
+    }
+
+    override fun <T> write(block: () -> T): T {
+        /* Already on the writer (nested write). */
+        if (Thread.currentThread() === thread) {
+            return block()
+        }
+
+        try {
+            return executor.submit(Callable { block() }).get()
+
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    override fun close() {
+        executor.shutdown()
+    }
+}
@@ -8,6 +8,7 @@ import android.os.Bundle
 import android.os.Handler
 import android.view.MotionEvent
 import android.view.View
+import android.widget.ProgressBar
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.core.content.FileProvider
@@ -67,6 +68,14 @@ abstract class CommonActivity : AppCompatActivity() {
                     progressDialog = progressDialogBuilder(R.string.updating_notes).show()
                 }
 
+                AppIntent.ACTION_UPDATING_NOTES_PROGRESS -> {
+                    progressDialog?.findViewById<ProgressBar>(R.id.dialog_progress_bar)?.apply {
+                        isIndeterminate = false
+                        max = intent.getIntExtra(AppIntent.EXTRA_PROGRESS_TOTAL, 0)
+                        progress = intent.getIntExtra(AppIntent.EXTRA_PROGRESS_PROCESSED, 0)
+                    }
+                }
+
                 AppIntent.ACTION_UPDATING_NOTES_ENDED ->
                     progressDialog?.dismiss()
 
@@ -149,6 +158,7 @@ abstract class CommonActivity : AppCompatActivity() {
         intentFilter.addAction(AppIntent.ACTION_BOOK_IMPORTED)
         intentFilter.addAction(AppIntent.ACTION_DB_CLEARED)
         intentFilter.addAction(AppIntent.ACTION_UPDATING_NOTES_STARTED)
+        intentFilter.addAction(AppIntent.ACTION_UPDATING_NOTES_PROGRESS)
         intentFilter.addAction(AppIntent.ACTION_UPDATING_NOTES_ENDED)
         intentFilter.addAction(AppIntent.ACTION_SHOW_SNACKBAR)
         LocalBroadcastManager.getInstance(this).registerReceiver(actionReceiver, intentFilter)
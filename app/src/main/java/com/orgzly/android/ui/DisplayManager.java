@@ -13,8 +13,7 @@ import com.orgzly.BuildConfig;
 import com.orgzly.R;
 import com.orgzly.android.db.entity.Book;
 import com.orgzly.android.query.Query;
-import com.orgzly.android.query.QueryParser;
-import com.orgzly.android.query.user.InternalQueryParser;
+import com.orgzly.android.query.QueryCache;
 import com.orgzly.android.ui.books.BooksFragment;
 import com.orgzly.android.ui.main.MainActivity;
 import com.orgzly.android.ui.note.NoteFragment;
@@ -185,8 +184,7 @@ public class DisplayManager {
         }
 
         // Parse query
-        QueryParser queryParser = new InternalQueryParser();
-        Query query = queryParser.parse(queryString);
+        Query query = QueryCache.parse(queryString);
 
         Fragment fragment;
         String tag;
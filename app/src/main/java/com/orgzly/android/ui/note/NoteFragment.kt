@@ -478,6 +478,7 @@ class NoteFragment : CommonFragment(), View.OnClickListener, TimestampDialogFrag
         addPropertyToList(null, null)
 
         // Content
+        binding.content.sourceId = viewModel.noteId
         binding.content.setSourceText(payload.content)
     }
 
@@ -61,7 +61,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
             holder.binding.itemHeadBookNameBeforeNoteText.visibility = View.GONE
 
         } else {
-            when (Integer.valueOf(AppPreferences.bookNameInSearchResults(context))) {
+            when (Integer.valueOf(AppPreferences.snapshot(context).bookNameInSearchResults)) {
                 0 -> { // Hide
                     holder.binding.itemHeadBookNameIcon.visibility = View.GONE
                     holder.binding.itemHeadBookNameText.visibility = View.GONE
@@ -98,10 +98,11 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
 
     private fun setupContent(holder: NoteItemViewHolder, note: Note) {
         if (note.hasContent() && titleGenerator.shouldDisplayContent(note)) {
-            if (AppPreferences.isFontMonospaced(context)) {
+            if (AppPreferences.snapshot(context).isFontMonospaced) {
                 holder.binding.itemHeadContent.setTypeface(Typeface.MONOSPACE)
             }
 
+            holder.binding.itemHeadContent.sourceId = note.id
             holder.binding.itemHeadContent.setSourceText(note.content)
 
             /* If content changes (for example by toggling the checkbox), update the note. */
@@ -123,7 +124,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
     private fun setupPlanningTimes(holder: NoteItemViewHolder, noteView: NoteView, agendaTimeType: TimeType?) {
 
         fun setupPlanningTime(textView: TextView, iconView: ImageView, value: String?) {
-            if (value != null && AppPreferences.displayPlanning(context)) {
+            if (value != null && AppPreferences.snapshot(context).displayPlanning) {
                 val range = com.orgzly.org.datetime.OrgRange.parse(value)
                 textView.text = userTimeFormatter.formatAll(range)
                 textView.visibility = View.VISIBLE
@@ -184,7 +185,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
         val tags = noteView.note.getTagsList()
         val inheritedTags = noteView.getInheritedTagsList()
 
-        val isDone = state != null && AppPreferences.doneKeywordsSet(context).contains(state)
+        val isDone = state != null && AppPreferences.snapshot(context).doneKeywords.contains(state)
         val isArchived = tags.contains(ARCHIVE_TAG) || inheritedTags.contains(ARCHIVE_TAG)
 
         val alphaValue = if (isDone || isArchived) {
@@ -312,12 +313,14 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
      * Change folding button appearance.
      */
     private fun updateFoldingButtons(context: Context, note: Note, holder: NoteItemViewHolder): Boolean {
+        val prefs = AppPreferences.snapshot(context)
+
         var isVisible = false
 
-        if (AppPreferences.isSearchFoldable(context) || inBook) {
+        if (prefs.isSearchFoldable || inBook) {
             val contentFoldable = note.hasContent() &&
-                    AppPreferences.isNotesContentFoldable(context) &&
-                    AppPreferences.isNotesContentDisplayedInList(context)
+                    prefs.isNotesContentFoldable &&
+                    prefs.isNotesContentDisplayedInList
 
             if (note.position.descendantsCount > 0 || contentFoldable) {
                 isVisible = true
@@ -335,7 +338,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
             holder.binding.itemHeadFoldButton.visibility = View.VISIBLE
             holder.binding.itemHeadFoldButtonText.visibility = View.VISIBLE
         } else {
-            if (AppPreferences.isSearchFoldable(context) || inBook) { // Leave invisible for padding
+            if (prefs.isSearchFoldable || inBook) { // Leave invisible for padding
                 holder.binding.itemHeadFoldButton.visibility = View.INVISIBLE
                 holder.binding.itemHeadFoldButtonText.visibility = View.INVISIBLE
             } else {
@@ -346,7 +349,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
 
         // Add horizontal padding when in search results (no bullet, no folding button)
         val horizontalPadding = context.resources.getDimension(R.dimen.screen_edge).toInt()
-        if (!(inBook || AppPreferences.isSearchFoldable(context))) {
+        if (!(inBook || prefs.isSearchFoldable)) {
             holder.binding.itemHeadContainer.setPadding(
                     horizontalPadding,
                     holder.binding.itemHeadContainer.paddingTop,
@@ -437,7 +440,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
             val itemMargins: Int
             val belowTitleMargins: Int
 
-            val density = AppPreferences.notesListDensity(context)
+            val density = AppPreferences.snapshot(context).notesListDensity
 
             val res = context.resources
 
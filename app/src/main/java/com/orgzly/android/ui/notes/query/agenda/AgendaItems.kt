@@ -2,7 +2,7 @@ package com.orgzly.android.ui.notes.query.agenda
 
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.query.Query
-import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.query.QueryCache
 import com.orgzly.android.ui.TimeType
 import com.orgzly.android.util.AgendaUtils
 import com.orgzly.org.datetime.OrgInterval
@@ -40,9 +40,7 @@ class AgendaItems(private val hideEmptyDaysInAgenda : Boolean) {
     ): List<AgendaItem> {
 
         return if (queryString != null) {
-            val parser = InternalQueryParser()
-
-            val query = parser.parse(queryString)
+            val query = QueryCache.parse(queryString)
 
             getList(notes, query, idMap)
 
@@ -11,10 +11,9 @@ import androidx.preference.*
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.AppIntent
-import com.orgzly.android.SharingShortcutsManager
+import com.orgzly.android.InvalidationBus
 import com.orgzly.android.git.SshKey
 import com.orgzly.android.prefs.*
-import com.orgzly.android.reminders.RemindersScheduler
 import com.orgzly.android.ui.CommonActivity
 import com.orgzly.android.ui.NoteStates
 import com.orgzly.android.ui.dialogs.ShowSshKeyDialogFragment
@@ -400,9 +399,7 @@ class SettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSharedP
          * - Changing states or priorities can affect the displayed data
          * - Enabling or disabling reminders needs to trigger reminder service notification
          */
-        RemindersScheduler.notifyDataSetChanged(requireContext())
-        ListWidgetProvider.notifyDataSetChanged(requireContext())
-        SharingShortcutsManager().replaceDynamicShortcuts(requireContext())
+        InvalidationBus.invalidateAll()
     }
 
     private fun updateRemindersScreen() {
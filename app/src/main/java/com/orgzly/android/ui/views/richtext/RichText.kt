@@ -63,6 +63,12 @@ class RichText(context: Context, attrs: AttributeSet?) :
 
     private lateinit var attributes: Attributes
 
+    /**
+     * Id of the note whose text is displayed, used to cache parsed text.
+     * Text is parsed every time if 0.
+     */
+    var sourceId: Long = 0
+
     private val richTextEdit: RichTextEdit
     private val richTextView: RichTextView
 
@@ -204,8 +210,13 @@ class RichText(context: Context, attrs: AttributeSet?) :
         val source = richTextEdit.text
 
         if (source != null) {
-            val parsed = OrgFormatter.parse(
-                source, context, attributes.linkify, attributes.parseCheckboxes)
+            val parsed = if (sourceId != 0L) {
+                OrgFormatter.parseCached(
+                    sourceId, source, context, attributes.linkify, attributes.parseCheckboxes)
+            } else {
+                OrgFormatter.parse(
+                    source, context, attributes.linkify, attributes.parseCheckboxes)
+            }
 
             richTextView.setText(parsed, TextView.BufferType.SPANNABLE)
 
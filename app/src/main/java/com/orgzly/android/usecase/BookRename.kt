@@ -9,7 +9,9 @@ class BookRename(val bookView: BookView, val name: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = setOf(bookView.book.id),
+                modifiedNoteIds = emptySet()
         )
     }
 }
\ No newline at end of file
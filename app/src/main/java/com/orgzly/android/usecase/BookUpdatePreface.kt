@@ -11,7 +11,9 @@ class BookUpdatePreface(val bookId: Long, val preface: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = setOf(bookId),
+                modifiedNoteIds = emptySet()
         )
     }
 }
\ No newline at end of file
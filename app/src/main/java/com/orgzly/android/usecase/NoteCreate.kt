@@ -11,6 +11,8 @@ class NoteCreate(val notePayload: NotePayload, val notePlace: NotePlace) : UseCa
         return UseCaseResult(
                 modifiesLocalData = true,
                 triggersSync = SYNC_NOTE_CREATED,
-                userData = note)
+                userData = note,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = setOf(note.id))
     }
 }
\ No newline at end of file
@@ -8,7 +8,8 @@ class NoteCreateFromNotification(val title: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_NOTE_CREATED
+                triggersSync = SYNC_NOTE_CREATED,
+                modifiedBookIds = emptySet()
         )
     }
 }
\ No newline at end of file
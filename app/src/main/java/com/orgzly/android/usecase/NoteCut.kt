@@ -14,7 +14,9 @@ class NoteCut(val bookId: Long, val ids: Set<Long>) : UseCase() {
         return UseCaseResult(
                 modifiesLocalData = true,
                 triggersSync = SYNC_DATA_MODIFIED,
-                userData = clipboard
+                userData = clipboard,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = ids
         )
     }
 }
\ No newline at end of file
@@ -9,7 +9,9 @@ class NoteDelete(val bookId: Long, val ids: Set<Long>) : UseCase() {
         return UseCaseResult(
                 modifiesLocalData = true,
                 triggersSync = SYNC_DATA_MODIFIED,
-                userData = count
+                userData = count,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = ids
         )
     }
 }
\ No newline at end of file
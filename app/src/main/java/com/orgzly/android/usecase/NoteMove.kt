@@ -10,7 +10,9 @@ class NoteMove(val bookId: Long, val noteIds: Set<Long>, val offset: Int) : UseC
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = noteIds
         )
     }
 }
\ No newline at end of file
@@ -1,18 +1,29 @@
 package com.orgzly.android.usecase
 
+import com.google.gson.JsonParseException
 import com.orgzly.android.db.NotesClipboard
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.ui.Place
+import java.io.IOException
 
 class NotePaste(val bookId: Long, val noteId: Long, val place: Place) : UseCase() {
     override fun run(dataRepository: DataRepository): UseCaseResult {
         val clipboard = NotesClipboard.load()
 
-        val count = dataRepository.pasteNotes(clipboard, bookId, noteId, place)
+        val count = try {
+            dataRepository.pasteNotes(clipboard, bookId, noteId, place)
+
+        } catch (e: Exception) {
+            /* Paste was rolled back. Clipboard can't be read, don't keep offering it. */
+            if (e is IOException || e is JsonParseException) {
+                NotesClipboard.clear()
+            }
+            throw e
+        }
 
         return UseCaseResult(
                 modifiesLocalData = count > 0,
                 triggersSync = if (count > 0) SYNC_DATA_MODIFIED else SYNC_NOT_REQUIRED,
                 userData = count)
     }
-}
\ No newline at end of file
+}
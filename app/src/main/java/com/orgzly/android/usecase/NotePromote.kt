@@ -9,7 +9,9 @@ class NotePromote(val noteIds: Set<Long>) : UseCase() {
         return UseCaseResult(
                 modifiesLocalData = true,
                 triggersSync = SYNC_DATA_MODIFIED,
-                userData = count
+                userData = count,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = noteIds
         )
     }
 }
\ No newline at end of file
@@ -14,7 +14,9 @@ class NoteRefile(val noteIds: Set<Long>, val target: NotePlace) : UseCase() {
         return UseCaseResult(
                 modifiesLocalData = true,
                 triggersSync = SYNC_DATA_MODIFIED,
-                userData = firstRefilledNote
+                userData = firstRefilledNote,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = noteIds
         )
     }
 
@@ -1,20 +1,23 @@
 package com.orgzly.android.usecase
 
-import android.content.Intent
 import com.orgzly.android.AppIntent
 import com.orgzly.android.data.DataRepository
 
-class NoteReparseStateAndTitles : UseCase() {
+/**
+ * @param progress called with the number of notes processed so far and the total
+ */
+class NoteReparseStateAndTitles(private val progress: ((Int, Int) -> Unit)? = null) : UseCase() {
     override fun run(dataRepository: DataRepository): UseCaseResult {
-        dataRepository.reParseNotesStateAndTitles()
+        val updated = dataRepository.reParseNotesStateAndTitles(progress)
 
         return UseCaseResult(
-                modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                modifiesLocalData = updated > 0,
+                triggersSync = if (updated > 0) SYNC_DATA_MODIFIED else SYNC_NOT_REQUIRED,
+                userData = updated
         )
     }
 
     override fun toAction(): String {
         return AppIntent.ACTION_REPARSE_NOTES
     }
-}
\ No newline at end of file
+}
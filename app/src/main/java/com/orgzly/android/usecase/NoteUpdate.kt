@@ -12,6 +12,8 @@ class NoteUpdate(val noteId: Long, val notePayload: NotePayload) : UseCase() {
         return UseCaseResult(
                 modifiesLocalData = true,
                 triggersSync = SYNC_DATA_MODIFIED,
-                userData = note)
+                userData = note,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = setOf(noteId))
     }
 }
\ No newline at end of file
@@ -8,7 +8,9 @@ class NoteUpdateClockingState(val noteIds: Set<Long>, val type: Int) : UseCase()
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = noteIds
         )
     }
 }
\ No newline at end of file
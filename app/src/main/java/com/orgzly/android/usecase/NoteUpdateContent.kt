@@ -11,7 +11,9 @@ class NoteUpdateContent(val noteId: Long, val content: String?) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = setOf(noteId)
         )
     }
 }
\ No newline at end of file
@@ -9,7 +9,9 @@ class NoteUpdateDeadlineTime(val noteIds: Set<Long>, val time: OrgDateTime?) : U
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = noteIds
         )
     }
 }
\ No newline at end of file
@@ -8,7 +8,9 @@ class NoteUpdateStateDone(val noteId: Long) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
-                triggersSync = SYNC_DATA_MODIFIED
+                triggersSync = SYNC_DATA_MODIFIED,
+                modifiedBookIds = emptySet(),
+                modifiedNoteIds = setOf(noteId)
         )
     }
 }
\ No newline at end of file
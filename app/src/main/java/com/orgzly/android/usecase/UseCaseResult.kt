@@ -4,6 +4,10 @@ data class UseCaseResult constructor(
         val modifiesLocalData: Boolean = false,
         val modifiesListWidget: Boolean = false,
         val triggersSync: Int = UseCase.SYNC_NOT_REQUIRED,
-        val userData: Any? = null) {
+        val userData: Any? = null,
+
+        /* Changed books and notes, passed on by InvalidationBus. Null if unknown. */
+        val modifiedBookIds: Set<Long>? = null,
+        val modifiedNoteIds: Set<Long>? = null) {
     constructor(userData: Any?) : this(false, false, UseCase.SYNC_NOT_REQUIRED, userData)
 }
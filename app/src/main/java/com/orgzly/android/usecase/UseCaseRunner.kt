@@ -3,9 +3,8 @@ package com.orgzly.android.usecase
 import com.orgzly.BuildConfig
 import com.orgzly.android.App
 import com.orgzly.android.data.DataRepository
-import com.orgzly.android.reminders.RemindersScheduler
+import com.orgzly.android.InvalidationBus
 import com.orgzly.android.sync.AutoSync
-import com.orgzly.android.SharingShortcutsManager
 import com.orgzly.android.util.LogUtils
 import com.orgzly.android.widgets.ListWidgetProvider
 import javax.inject.Inject
@@ -41,9 +40,7 @@ object UseCaseRunner {
         }
 
         if (result.modifiesLocalData) {
-            RemindersScheduler.notifyDataSetChanged(App.getAppContext())
-            ListWidgetProvider.notifyDataSetChanged(App.getAppContext())
-            SharingShortcutsManager().replaceDynamicShortcuts(App.getAppContext())
+            InvalidationBus.invalidate(result.modifiedBookIds, result.modifiedNoteIds)
         }
 
         if (result.modifiesListWidget) {
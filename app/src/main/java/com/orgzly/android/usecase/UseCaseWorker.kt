@@ -30,7 +30,7 @@ class UseCaseWorker(val context: Context, val params: WorkerParameters) : Worker
 
             AppIntent.ACTION_REPARSE_NOTES -> {
                 broadcastNotesUpdate {
-                    UseCaseRunner.run(NoteReparseStateAndTitles())
+                    UseCaseRunner.run(NoteReparseStateAndTitles(::broadcastNotesUpdateProgress))
                 }
             }
 
@@ -56,6 +56,14 @@ class UseCaseWorker(val context: Context, val params: WorkerParameters) : Worker
         }
     }
 
+    private fun broadcastNotesUpdateProgress(processed: Int, total: Int) {
+        val intent = Intent(AppIntent.ACTION_UPDATING_NOTES_PROGRESS)
+            .putExtra(AppIntent.EXTRA_PROGRESS_PROCESSED, processed)
+            .putExtra(AppIntent.EXTRA_PROGRESS_TOTAL, total)
+
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent)
+    }
+
     private fun postGettingStartedImport(action: () -> Unit) {
         action()
 
@@ -0,0 +1,232 @@
+package com.orgzly.android.util
+
+import com.orgzly.BuildConfig
+import org.mozilla.universalchardet.Constants
+import org.mozilla.universalchardet.UniversalDetector
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.Reader
+import java.io.SequenceInputStream
+
+/**
+ * Decodes the stream while detecting its encoding, reading it only once.
+ *
+ * Leading plain ASCII is passed through as is, as it decodes the same in any
+ * encoding detection could end up with. Encoding is decided on the first byte
+ * which is not plain ASCII, looking at most [WINDOW_SIZE] bytes ahead:
+ * byte order mark, then valid UTF-8, then juniversalchardet.
+ *
+ * [encoding] is final once the stream has been read to the end.
+ */
+class EncodingDetectingReader(
+        private val input: InputStream,
+        private val selectedEncoding: String? = null
+) : Reader() {
+
+    private var delegate: Reader? = null
+
+    private var decided: Encoding? = null
+
+    private val buf = ByteArray(WINDOW_SIZE)
+    private var pos = 0
+    private var len = 0
+    private var eof = false
+
+    /* Nothing has been passed through yet, so the byte order mark could be next. */
+    private var atStart = true
+
+    init {
+        if (selectedEncoding != null) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Using selected encoding: $selectedEncoding")
+
+            decided = Encoding(selectedEncoding, null, selectedEncoding)
+            delegate = InputStreamReader(input, selectedEncoding)
+        }
+    }
+
+    /**
+     * Encoding used so far. Stream that is entirely plain ASCII has no detected encoding.
+     */
+    val encoding: Encoding
+        get() = decided ?: Encoding(DEFAULT_ENCODING, null, null)
+
+    @Throws(IOException::class)
+    override fun read(cbuf: CharArray, off: Int, count: Int): Int {
+        delegate?.let {
+            return it.read(cbuf, off, count)
+        }
+
+        if (count == 0) {
+            return 0
+        }
+
+        if (pos == len && !fill(1)) {
+            return -1
+        }
+
+        var n = 0
+
+        while (n < count && pos < len && isPlain(buf[pos])) {
+            cbuf[off + n++] = buf[pos++].toInt().toChar()
+        }
+
+        if (n > 0) {
+            atStart = false
+            return n
+        }
+
+        return decide().read(cbuf, off, count)
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        delegate?.close() ?: input.close()
+    }
+
+    /**
+     * Detects encoding from bytes starting at the current position
+     * and continues reading with it.
+     */
+    @Throws(IOException::class)
+    private fun decide(): Reader {
+        fill(WINDOW_SIZE)
+
+        val startedAt = System.currentTimeMillis()
+
+        val detected = (if (atStart) byteOrderMark() else null)
+                ?: if (isUtf8()) Constants.CHARSET_UTF_8 else universalDetect()
+
+        if (BuildConfig.LOG_DEBUG) {
+            val ms = System.currentTimeMillis() - startedAt
+            LogUtils.d(TAG, "Detected encoding in ${ms}ms: $detected")
+        }
+
+        val used = detected ?: DEFAULT_ENCODING
+
+        decided = Encoding(used, detected, null)
+
+        val rest = SequenceInputStream(ByteArrayInputStream(buf, pos, len - pos), input)
+
+        return InputStreamReader(rest, used).also {
+            delegate = it
+        }
+    }
+
+    /**
+     * Reads until at least [min] bytes are buffered or the end of the stream is reached.
+     *
+     * @return false if nothing is buffered
+     */
+    @Throws(IOException::class)
+    private fun fill(min: Int): Boolean {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, len - pos)
+            len -= pos
+            pos = 0
+        }
+
+        while (len < min && !eof) {
+            val n = input.read(buf, len, buf.size - len)
+            if (n < 0) {
+                eof = true
+            } else {
+                len += n
+            }
+        }
+
+        return len > 0
+    }
+
+    private fun byteOrderMark(): String? {
+        fun startsWith(vararg bytes: Int): Boolean {
+            return len - pos >= bytes.size && bytes.indices.all { buf[pos + it] == bytes[it].toByte() }
+        }
+
+        return when {
+            startsWith(0xEF, 0xBB, 0xBF) -> Constants.CHARSET_UTF_8
+            startsWith(0xFF, 0xFE, 0x00, 0x00) -> Constants.CHARSET_UTF_32LE
+            startsWith(0x00, 0x00, 0xFE, 0xFF) -> Constants.CHARSET_UTF_32BE
+            startsWith(0xFE, 0xFF) -> Constants.CHARSET_UTF_16BE
+            startsWith(0xFF, 0xFE) -> Constants.CHARSET_UTF_16LE
+            else -> null
+        }
+    }
+
+    /**
+     * Checks if buffered bytes are valid UTF-8 with at least one multi-byte sequence.
+     * Sequence cut by the end of the buffer is valid, unless it's the end of the stream.
+     */
+    private fun isUtf8(): Boolean {
+        var multiByte = false
+        var i = pos
+
+        while (i < len) {
+            val b = buf[i].toInt() and 0xFF
+
+            if (b < 0x80) {
+                i++
+                continue
+            }
+
+            /* Number of continuation bytes and the allowed range of the first one. */
+            val (count, lo, hi) = when (b) {
+                in 0xC2..0xDF -> Triple(1, 0x80, 0xBF)
+                0xE0 -> Triple(2, 0xA0, 0xBF)
+                0xED -> Triple(2, 0x80, 0x9F)
+                in 0xE1..0xEF -> Triple(2, 0x80, 0xBF)
+                0xF0 -> Triple(3, 0x90, 0xBF)
+                in 0xF1..0xF3 -> Triple(3, 0x80, 0xBF)
+                0xF4 -> Triple(3, 0x80, 0x8F)
+                else -> return false
+            }
+
+            for (j in 1..count) {
+                if (i + j == len) {
+                    return !eof
+                }
+
+                val c = buf[i + j].toInt() and 0xFF
+
+                if (c < (if (j == 1) lo else 0x80) || c > (if (j == 1) hi else 0xBF)) {
+                    return false
+                }
+            }
+
+            multiByte = true
+            i += count + 1
+        }
+
+        return multiByte
+    }
+
+    /**
+     * juniversalchardet is a Java port of 'universalchardet',
+     * that is the encoding detector library of Mozilla.
+     */
+    private fun universalDetect(): String? {
+        val detector = UniversalDetector(null)
+
+        detector.handleData(buf, pos, len - pos)
+        detector.dataEnd()
+
+        return detector.detectedCharset
+    }
+
+    companion object {
+        private val TAG = EncodingDetectingReader::class.java.name
+
+        /** Most bytes looked at to detect encoding. */
+        const val WINDOW_SIZE = 64 * 1024
+
+        private const val DEFAULT_ENCODING = "UTF-8"
+
+        private const val ESC: Byte = 0x1B
+
+        /* NUL could be UTF-16 or UTF-32, ESC could start ISO-2022 sequences. */
+        private fun isPlain(b: Byte): Boolean {
+            return b > 0 && b != ESC
+        }
+    }
+}
@@ -8,10 +8,13 @@ import android.text.Spanned
 import android.text.style.CharacterStyle
 import android.text.style.StyleSpan
 import android.text.style.TypefaceSpan
+import android.util.LruCache
 import com.orgzly.BuildConfig
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.AppPreferencesSnapshot
 import com.orgzly.android.ui.views.style.*
 import com.orgzly.org.datetime.OrgDateTime
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.regex.Matcher
 import java.util.regex.Pattern
 
@@ -63,6 +66,9 @@ object OrgFormatter {
 
     private const val FLAGS = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
 
+    /* Total number of characters of cached parsed texts. */
+    private const val CACHE_SIZE = 256 * 1024
+
     data class MatchLink(
         val all: MatchGroup,
         val url: MatchGroup,
@@ -83,18 +89,77 @@ object OrgFormatter {
             val linkify: Boolean = true,
             val parseCheckboxes: Boolean = true) {
 
-        constructor(context: Context?, linkify: Boolean, parseCheckboxes: Boolean): this(
-                context != null && AppPreferences.styleText(context),
-                context != null && AppPreferences.styledTextWithMarks(context),
-                context != null && AppPreferences.drawersFolded(context),
+        constructor(prefs: AppPreferencesSnapshot?, linkify: Boolean, parseCheckboxes: Boolean): this(
+                prefs != null && prefs.styleText,
+                prefs != null && prefs.styledTextWithMarks,
+                prefs != null && prefs.drawersFolded,
                 linkify,
                 parseCheckboxes)
     }
 
+    private data class CacheKey(val id: Long, val config: Config)
+
+    private class CacheEntry(val source: String, val parsed: Spanned)
+
+    /* Parsed text of notes, limited by the total length of their sources. */
+    private val cache = object : LruCache<CacheKey, CacheEntry>(CACHE_SIZE) {
+        override fun sizeOf(key: CacheKey, value: CacheEntry): Int {
+            return value.source.length + 1
+        }
+    }
+
+    private val cacheHits = AtomicInteger()
+    private val cacheMisses = AtomicInteger()
+
     @JvmStatic
     @JvmOverloads
     fun parse(str: CharSequence, context: Context? = null, linkify: Boolean = true, parseCheckboxes: Boolean = true): SpannableStringBuilder {
-        return this.parse(str, Config(context, linkify, parseCheckboxes))
+        return this.parse(str, Config(context?.let { AppPreferences.snapshot(it) }, linkify, parseCheckboxes))
+    }
+
+    /**
+     * Same as [parse], but reuses the result while text with the same [id]
+     * is parsed again unchanged and with the same settings.
+     * Parsing different text for the same [id] replaces the cached result.
+     *
+     * Returned text is shared and must not be modified.
+     * [android.widget.TextView] copies it when set as [android.widget.TextView.BufferType.SPANNABLE].
+     */
+    @JvmStatic
+    fun parseCached(id: Long, str: CharSequence, context: Context, linkify: Boolean, parseCheckboxes: Boolean): Spanned {
+        val key = CacheKey(id, Config(AppPreferences.snapshot(context), linkify, parseCheckboxes))
+
+        val source = str.toString()
+
+        cache.get(key)?.let { entry ->
+            if (entry.source == source) {
+                cacheHits.incrementAndGet()
+                return entry.parsed
+            }
+        }
+
+        val misses = cacheMisses.incrementAndGet()
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Parsing $id, cache hits: ${cacheHits.get()}, misses: $misses")
+
+        val parsed = parse(source, key.config)
+
+        cache.put(key, CacheEntry(source, parsed))
+
+        return parsed
+    }
+
+    @JvmStatic
+    fun parseCacheHitCount(): Int = cacheHits.get()
+
+    @JvmStatic
+    fun parseCacheMissCount(): Int = cacheMisses.get()
+
+    @JvmStatic
+    fun clearParseCache() {
+        cache.evictAll()
+        cacheHits.set(0)
+        cacheMisses.set(0)
     }
 
     private fun parse(str: CharSequence, config: Config): SpannableStringBuilder {
@@ -14,7 +14,7 @@ import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.Query
-import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.query.QueryCache
 import com.orgzly.android.ui.TimeType
 import com.orgzly.android.ui.notes.query.agenda.AgendaItem
 import com.orgzly.android.ui.notes.query.agenda.AgendaItems
@@ -64,8 +64,7 @@ class ListWidgetService : RemoteViewsService() {
         val context: Context, private val queryString: String, private val searchId: Long
     ) : RemoteViewsFactory {
         private val query: Query by lazy {
-            val parser = InternalQueryParser()
-            parser.parse(queryString)
+            QueryCache.parse(queryString)
         }
 
         private val userTimeFormatter by lazy {
@@ -172,9 +171,11 @@ class ListWidgetService : RemoteViewsService() {
         private fun setupRemoteViews(row: RemoteViews, entry: WidgetEntry.Note) {
             val noteView = entry.noteView
 
-            val displayPlanningTimes = AppPreferences.displayPlanning(context)
-            val displayBookName = AppPreferences.widgetDisplayBookName(context)
-            val doneStates = AppPreferences.doneKeywordsSet(context)
+            val prefs = AppPreferences.snapshot(context)
+
+            val displayPlanningTimes = prefs.displayPlanning
+            val displayBookName = prefs.widgetDisplayBookName
+            val doneStates = prefs.doneKeywords
 
             // Title (colors depend on current theme)
             val titleGenerator = TitleGenerator(context, false, WidgetStyle.getTitleAttributes(context))
@@ -248,7 +249,7 @@ class ListWidgetService : RemoteViewsService() {
 
 
             // Check mark
-            if (!AppPreferences.widgetDisplayCheckmarks(context) || doneStates.contains(noteView.note.state)) {
+            if (!prefs.widgetDisplayCheckmarks || doneStates.contains(noteView.note.state)) {
                 row.setViewVisibility(R.id.item_list_widget_done, View.GONE)
             } else {
                 row.setViewVisibility(R.id.item_list_widget_done, View.VISIBLE)
@@ -0,0 +1,132 @@
+package com.orgzly.android
+
+import android.os.Looper
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.orgzly.android.InvalidationBus.Invalidation
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class InvalidationBusTest {
+    private var delivered = 0
+    private var absorbed = 0
+
+    @Before
+    fun setUp() {
+        /* Deliver anything left pending by other tests. */
+        invalidateNote(0)
+        idleFor(InvalidationBus.MAX_DELAY_MS)
+
+        delivered = InvalidationBus.deliveredCount()
+        absorbed = InvalidationBus.absorbedCount()
+    }
+
+    @Test
+    fun testNotesAreMerged() {
+        val merged = Invalidation(emptySet(), setOf(1)) + Invalidation(emptySet(), setOf(2, 3))
+
+        assertEquals(Invalidation(emptySet(), setOf(1, 2, 3)), merged)
+        assertFalse(merged.hasBooks())
+        assertTrue(merged.hasNotes())
+    }
+
+    @Test
+    fun testUnknownAbsorbsKnown() {
+        val merged = Invalidation(setOf(1), emptySet()) + Invalidation(null, null) + Invalidation(setOf(2), setOf(3))
+
+        assertEquals(Invalidation(null, null), merged)
+        assertTrue(merged.hasBooks())
+        assertTrue(merged.hasNotes())
+    }
+
+    @Test
+    fun testBooksAndNotesAreKeptApart() {
+        val merged = Invalidation(setOf(1), emptySet()) + Invalidation(emptySet(), setOf(2))
+
+        assertEquals(Invalidation(setOf(1), setOf(2)), merged)
+    }
+
+    @Test
+    fun testBurstIsDeliveredOnce() {
+        for (i in 1L..5L) {
+            invalidateNote(i)
+            idleFor(InvalidationBus.DEBOUNCE_MS / 2)
+        }
+
+        assertDelivered(0)
+
+        idleFor(InvalidationBus.DEBOUNCE_MS / 2 - 1)
+        assertDelivered(0)
+
+        idleFor(1)
+        assertDelivered(1)
+        assertAbsorbed(4)
+
+        idleFor(InvalidationBus.MAX_DELAY_MS)
+        assertDelivered(1)
+    }
+
+    @Test
+    fun testSeparateBurstsAreDeliveredSeparately() {
+        invalidateNote(1)
+        invalidateNote(2)
+        idleFor(InvalidationBus.DEBOUNCE_MS)
+
+        invalidateNote(3)
+        idleFor(InvalidationBus.DEBOUNCE_MS)
+
+        assertDelivered(2)
+        assertAbsorbed(1)
+    }
+
+    @Test
+    fun testContinuousChangesAreDeliveredAfterMaxDelay() {
+        val step = InvalidationBus.DEBOUNCE_MS / 3
+        var elapsed = 0L
+
+        while (elapsed + step < InvalidationBus.MAX_DELAY_MS) {
+            invalidateNote(elapsed)
+            idleFor(step)
+            elapsed += step
+
+            assertDelivered(0)
+        }
+
+        invalidateNote(elapsed)
+        idleFor(InvalidationBus.MAX_DELAY_MS - elapsed)
+
+        assertDelivered(1)
+        assertAbsorbed((InvalidationBus.MAX_DELAY_MS / step - 1).toInt())
+    }
+
+    @Test
+    fun testEmptyInvalidationIsIgnored() {
+        InvalidationBus.invalidate(emptySet(), emptySet())
+        idleFor(InvalidationBus.MAX_DELAY_MS)
+
+        assertDelivered(0)
+        assertAbsorbed(0)
+    }
+
+    private fun invalidateNote(id: Long) {
+        InvalidationBus.invalidate(emptySet(), setOf(id))
+    }
+
+    private fun idleFor(ms: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS)
+    }
+
+    private fun assertDelivered(count: Int) {
+        assertEquals(count, InvalidationBus.deliveredCount() - delivered)
+    }
+
+    private fun assertAbsorbed(count: Int) {
+        assertEquals(count, InvalidationBus.absorbedCount() - absorbed)
+    }
+}
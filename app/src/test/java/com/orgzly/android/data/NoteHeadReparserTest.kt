@@ -0,0 +1,49 @@
+package com.orgzly.android.data
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class NoteHeadReparserTest {
+    private val reparser = NoteHeadReparser(listOf("TODO", "NEXT"), listOf("DONE"))
+
+    @Test
+    fun testParse() {
+        assertEquals(NoteHeadReparser.Head("TODO", "A", "Title"), reparser.parse("TODO [#A] Title"))
+        assertEquals(NoteHeadReparser.Head("DONE", null, "Title"), reparser.parse("DONE Title"))
+        assertEquals(NoteHeadReparser.Head(null, "B", "Title"), reparser.parse("[#B] Title"))
+        assertEquals(NoteHeadReparser.Head("NEXT", null, ""), reparser.parse("NEXT"))
+    }
+
+    @Test
+    fun testKeywordMustBeWholeWord() {
+        assertEquals(NoteHeadReparser.Head(null, null, "TODOS Title"), reparser.parse("TODOS Title"))
+        assertEquals(NoteHeadReparser.Head(null, null, "[#A]Title"), reparser.parse("[#A]Title"))
+    }
+
+    @Test
+    fun testUnchanged() {
+        assertNull(reparser.reparse("TODO", "A", "Title"))
+        assertNull(reparser.reparse(null, null, "Title"))
+    }
+
+    @Test
+    fun testKeywordInTitleBecomesState() {
+        assertEquals(NoteHeadReparser.Head("NEXT", null, "Title"), reparser.reparse(null, null, "NEXT Title"))
+    }
+
+    @Test
+    fun testRemovedKeywordBecomesTitle() {
+        val reparser = NoteHeadReparser(listOf("TODO"), emptyList())
+
+        assertEquals(NoteHeadReparser.Head(null, null, "NEXT Title"), reparser.reparse("NEXT", null, "Title"))
+        assertEquals(NoteHeadReparser.Head(null, null, "NEXT [#A] Title"), reparser.reparse("NEXT", "A", "Title"))
+    }
+
+    @Test
+    fun testNoKeywords() {
+        val reparser = NoteHeadReparser(emptyList(), emptyList())
+
+        assertEquals(NoteHeadReparser.Head(null, "A", "TODO Title"), reparser.parse("[#A] TODO Title"))
+    }
+}
@@ -0,0 +1,87 @@
+package com.orgzly.android.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteTreeResolverTest {
+
+    /*
+     * root (1, 12)
+     *   1 (2, 9)
+     *     1.1 (3, 6)
+     *       1.1.1 (4, 5)
+     *     1.2 (7, 8)
+     *   2 (10, 11)
+     */
+    private fun book(): NoteTreeResolver {
+        return NoteTreeResolver(initialCapacity = 2).apply {
+            /* Same order the parser emits nodes in: children first. */
+            add(111, 4, 5, 3)
+            add(11, 3, 6, 2)
+            add(12, 7, 8, 2)
+            add(1, 2, 9, 1)
+            add(2, 10, 11, 1)
+            add(100, 1, 12, 0)
+        }
+    }
+
+    /** Ancestors of every note, outermost first. */
+    private fun NoteTreeResolver.ancestors(): Map<Long, List<Long>> {
+        val result = linkedMapOf<Long, List<Long>>()
+
+        resolve { noteId, ancestorIds, _, depth ->
+            result[noteId] = ancestorIds.copyOf(depth).toList()
+        }
+
+        return result
+    }
+
+    @Test
+    fun testParents() {
+        val parents = mutableMapOf<Long, Pair<Long, Int>>()
+
+        book().resolve { noteId, ancestorIds, ancestorLevels, depth ->
+            if (depth > 0) {
+                parents[noteId] = ancestorIds[depth - 1] to ancestorLevels[depth - 1]
+            }
+        }
+
+        assertEquals(
+                mapOf(
+                        1L to (100L to 0),
+                        11L to (1L to 1),
+                        111L to (11L to 2),
+                        12L to (1L to 1),
+                        2L to (100L to 0)),
+                parents)
+    }
+
+    @Test
+    fun testAncestors() {
+        assertEquals(
+                listOf(
+                        100L to listOf(),
+                        1L to listOf(100L),
+                        11L to listOf(100L, 1L),
+                        111L to listOf(100L, 1L, 11L),
+                        12L to listOf(100L, 1L),
+                        2L to listOf(100L)),
+                book().ancestors().toList())
+    }
+
+    @Test
+    fun testSparseValues() {
+        val ancestors = NoteTreeResolver().apply {
+            add(2, 1000, 2000, 2)
+            add(1, 10, 5000, 1)
+            add(3, 6000, 7000, 1)
+        }.ancestors()
+
+        assertEquals(mapOf(1L to listOf(), 2L to listOf(1L), 3L to listOf()), ancestors)
+    }
+
+    @Test
+    fun testEmpty() {
+        NoteTreeResolver().resolve { _, _, _, _ -> throw AssertionError() }
+    }
+}
@@ -0,0 +1,343 @@
+package com.orgzly.android.db
+
+import android.content.Context
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.Observer
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.orgzly.android.BookFormat
+import com.orgzly.android.LocalStorage
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.data.DbRepoBookRepository
+import com.orgzly.android.db.dao.ReminderTimeDao
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.repos.RepoFactory
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Runs `EXPLAIN QUERY PLAN` for statements executed by DAO methods and saved searches,
+ * failing if any of them scans a whole table.
+ *
+ * Methods which are meant to read all notes (like [com.orgzly.android.db.dao.NoteDao.getAll])
+ * or which are rarely used (lookups by title) are not called.
+ */
+@RunWith(AndroidJUnit4::class)
+class QueryPlanTest {
+    private lateinit var db: OrgzlyDatabase
+    private lateinit var dataRepository: DataRepository
+
+    private val statements = mutableListOf<Statement>()
+
+    private data class Statement(val sql: String, val args: List<Any?>)
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+
+        db = OrgzlyDatabase.forMemory(context) { sql, args ->
+            synchronized(statements) {
+                statements.add(Statement(sql, args.toList()))
+            }
+        }
+
+        dataRepository = DataRepository(
+                context,
+                db,
+                RepoFactory(context, DbRepoBookRepository(db)),
+                context.resources,
+                LocalStorage(context))
+
+        dataRepository.loadBookFromStream("book-a", BookFormat.ORG, BOOK.byteInputStream())
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun testNoteDao() {
+        val bookId = dataRepository.getBookView("book-a")!!.book.id
+        val note = note("Note 1.1")
+        val ids = setOf(note.id, note("Note 2").id)
+        val position = note.position
+
+        assertNoScans {
+            with(db.note()) {
+                getCount(bookId)
+                get(note.id)
+                get(ids)
+                getFirst(ids)
+                getLast(ids)
+                getTopLevel(bookId)
+                getChildren(note.id)
+                getNoteAndAncestorsIds(ids.toList())
+                getAncestors(note.id)
+                getNoteAndAncestors(note.id)
+                getNoteAndParent(note.id)
+                getNotesForSubtrees(ids)
+                getNotesForSubtreesCount(ids)
+                getBookUnfoldedNoteCount(bookId)
+                getSubtreeFoldedNoteCount(ids.toList())
+                getPreviousSibling(bookId, position.lft, position.parentId)
+                getNextSibling(bookId, position.rgt, position.parentId)
+                getLastHighestLevelDescendant(bookId, position.lft, position.rgt)
+                getRootNodeId(bookId)
+                getRootNode(bookId)
+                getPositionBefore(bookId, position.lft)
+                getPositionAfter(bookId, position.rgt)
+                getPositions(bookId)
+                getNoteForStateChange(ids, "DONE")
+                getBookIdsForNotesNotMatchingState(ids, "DONE")
+                getFirstNoteInBook(bookId)
+                getForReconcile(bookId)
+            }
+        }
+    }
+
+    @Test
+    fun testNoteDaoUpdates() {
+        val bookId = dataRepository.getBookView("book-a")!!.book.id
+        val note = note("Note 1.1")
+        val ids = setOf(note.id, note("Note 2").id)
+        val position = note.position
+
+        assertNoScans {
+            with(db.note()) {
+                foldAll(bookId)
+                unfoldAll(bookId)
+                foldSubtrees(ids.toList())
+                unfoldSubtrees(ids.toList())
+                unfoldNotesFoldedUnderOthers(ids)
+                foldDescendantsUnderId(bookId, note.id, position.lft, position.rgt)
+                unfoldDescendantsUnderId(bookId, note.id, position.lft, position.rgt)
+                updateDescendantsCountForNoteAndAncestors(ids.toList())
+                updateDescendantsCountForAncestors(ids)
+                incrementDescendantsCountForAncestors(bookId, position.lft, position.rgt)
+                updateStateAndRemoveClosedTime(ids, "TODO")
+                deleteById(setOf(note("Note 1.1.1").id))
+            }
+        }
+    }
+
+    @Test
+    fun testNoteViewDao() {
+        val bookId = dataRepository.getBookView("book-a")!!.book.id
+        val note = note("Note 1.1")
+
+        assertNoScans {
+            with(db.noteView()) {
+                get(note.id)
+                getBookNotes("book-a")
+                getBookNotesWithPropertiesCursor(bookId).close()
+            }
+        }
+    }
+
+    @Test
+    fun testNoteViewDaoLiveData() {
+        val bookId = dataRepository.getBookView("book-a")!!.book.id
+        val note = note("Note 1")
+
+        assertNoScans {
+            observeOnce(db.noteView().getVisibleLiveData(bookId))
+            observeOnce(db.noteView().getVisibleLiveData(bookId, note.position.lft, note.position.rgt))
+        }
+    }
+
+    @Test
+    fun testBookViewDao() {
+        val bookId = dataRepository.getBookView("book-a")!!.book.id
+
+        val plan = captured {
+            with(db.bookView()) {
+                get(bookId)
+                get("book-a")
+                getAllFOrderByName()
+                getAllOrderByTime()
+            }
+        }.flatMap { explain(it) }
+
+        assertTrue("Books list reads notes:\n${plan.joinToString("\n")}", plan.none { it.contains("notes") })
+
+        assertNoScans {
+            db.book().setIsModified(setOf(bookId), 0)
+            db.book().setIsNotModified(setOf(bookId))
+        }
+    }
+
+    @Test
+    fun testNoteCount() {
+        val bookId = dataRepository.getBookView("book-a")!!.book.id
+
+        assertEquals(4, dataRepository.getBookView(bookId)!!.noteCount)
+
+        dataRepository.deleteNotes(bookId, setOf(note("Note 1.1").id))
+
+        assertEquals(2, dataRepository.getBookView(bookId)!!.noteCount)
+    }
+
+    @Test
+    fun testReminders() {
+        val note = note("Note 1")
+
+        assertNoScans {
+            db.reminderTime().get(note.id, ReminderTimeDao.SCHEDULED_TIME)
+            db.reminderTime().getForStaleNotes()
+            db.reminderOccurrence().deleteForStaleNotes()
+            db.reminderOccurrence().getFirstInInterval(ReminderTimeDao.SCHEDULED_TIME, 0, Long.MAX_VALUE, setOf("DONE"))
+            db.reminderOccurrence().getNext(0, listOf(ReminderTimeDao.SCHEDULED_TIME), setOf("DONE"))
+        }
+    }
+
+    /**
+     * Search queries filter on computed columns, so notes are always scanned once.
+     * Every other table must be searched for each note.
+     */
+    @Test
+    fun testSavedSearches() {
+        val parser = InternalQueryParser()
+
+        for (search in SEARCHES) {
+            val query = parser.parse(search)
+
+            val plan = captured { dataRepository.selectNotesFromQuery(query) }.flatMap { explain(it) }
+
+            val scans = plan.filter(::isTableScan)
+
+            assertTrue(
+                    "Search \"$search\" scans more than notes:\n${plan.joinToString("\n")}",
+                    scans.size <= 1 && scans.all { it.matches(NOTES_SCAN) })
+        }
+    }
+
+    @Test
+    fun testPlanningTimesSearchedByIndex() {
+        val parser = InternalQueryParser()
+
+        for (search in listOf("s.le.2d", "d.today", "i.todo s.ge.-1w")) {
+            val query = parser.parse(search)
+
+            val plan = captured { dataRepository.selectNotesFromQuery(query) }.flatMap { explain(it) }
+
+            assertTrue(
+                    "Search \"$search\" scans notes:\n${plan.joinToString("\n")}",
+                    plan.none(::isTableScan))
+        }
+    }
+
+    private fun note(title: String): Note {
+        return dataRepository.getNotes("book-a").first { it.note.title == title }.note
+    }
+
+    private fun observeOnce(liveData: LiveData<*>) {
+        val count = statementCount()
+
+        val observer = Observer<Any?> { }
+
+        liveData.observeForever(observer)
+
+        /* Query is run on a background thread. */
+        val deadline = System.currentTimeMillis() + 10_000
+        while (statementCount() == count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        liveData.removeObserver(observer)
+    }
+
+    private fun statementCount(): Int {
+        return synchronized(statements) {
+            statements.count { isExplainable(it.sql) }
+        }
+    }
+
+    private fun captured(block: () -> Unit): List<Statement> {
+        synchronized(statements) {
+            statements.clear()
+        }
+
+        block()
+
+        return synchronized(statements) {
+            statements.filter { isExplainable(it.sql) }
+        }
+    }
+
+    private fun assertNoScans(block: () -> Unit) {
+        val statements = captured(block)
+
+        assertTrue("No statements captured", statements.isNotEmpty())
+
+        statements.forEach { statement ->
+            val plan = explain(statement)
+
+            if (plan.any(::isTableScan)) {
+                fail("Full table scan:\n${statement.sql.trimIndent()}\n\n${plan.joinToString("\n")}")
+            }
+        }
+    }
+
+    private fun explain(statement: Statement): List<String> {
+        val query = SimpleSQLiteQuery("EXPLAIN QUERY PLAN ${statement.sql}", statement.args.toTypedArray())
+
+        return db.openHelper.readableDatabase.query(query).use { cursor ->
+            val detail = cursor.getColumnIndexOrThrow("detail")
+
+            generateSequence { if (cursor.moveToNext()) cursor.getString(detail) else null }.toList()
+        }
+    }
+
+    /** Statements with a plan, excluding Room's own bookkeeping. */
+    private fun isExplainable(sql: String): Boolean {
+        val s = sql.trim()
+
+        return STATEMENT.containsMatchIn(s) && !s.contains("room_")
+    }
+
+    private fun isTableScan(detail: String): Boolean {
+        return detail.startsWith("SCAN ")
+                && !detail.contains("SUBQUERY", ignoreCase = true)
+                && !detail.contains("CONSTANT ROW")
+    }
+
+    companion object {
+        private val STATEMENT = Regex("^(SELECT|UPDATE|DELETE)\\b", RegexOption.IGNORE_CASE)
+
+        private val NOTES_SCAN = Regex("^SCAN (TABLE )?notes$")
+
+        private val SEARCHES = listOf(
+                /* Default saved searches. */
+                ".it.done ad.7",
+                ".it.done s.ge.today ad.3",
+                "s.today .it.done",
+                "i.todo",
+
+                "b.book-a",
+                "t.tag",
+                "i.todo t.tag o.p",
+                "d.ge.today .i.done")
+
+        private val BOOK = """
+            * TODO Note 1
+            SCHEDULED: <2018-01-01 Mon 09:00>
+            ** Note 1.1 :tag:
+            DEADLINE: <2018-01-02 Tue>
+            :PROPERTIES:
+            :LOCATION: Home
+            :END:
+            *** Note 1.1.1
+            <2018-01-03 Wed>
+            * DONE Note 2
+            CLOSED: [2018-01-01 Mon 10:00]
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,122 @@
+package com.orgzly.android.git
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.eclipse.jgit.api.Git
+import org.eclipse.jgit.revwalk.RevCommit
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+@RunWith(AndroidJUnit4::class)
+class GitLastCommitIndexTest {
+
+    private lateinit var dir: File
+    private lateinit var git: Git
+
+    @Before
+    fun setup() {
+        dir = createTempDirectory().toFile()
+        git = Git.init().setDirectory(dir).setInitialBranch("main").call()
+    }
+
+    @After
+    fun tearDown() {
+        git.close()
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun testMatchesLog() {
+        commit("a.org" to "1", "b.org" to "1", "dir/c.org" to "1")
+        commit("a.org" to "2")
+        commit("dir/c.org" to "2")
+        commit("other.txt" to "1")
+
+        assertMatchesLog(listOf("a.org", "b.org", "dir/c.org", "other.txt"))
+    }
+
+    @Test
+    fun testMerge() {
+        commit("a.org" to "1", "b.org" to "1")
+
+        git.checkout().setCreateBranch(true).setName("side").call()
+        commit("b.org" to "side")
+
+        git.checkout().setName("main").call()
+        commit("a.org" to "main")
+
+        git.merge().include(git.repository.resolve("side")).setMessage("Merge").call()
+
+        assertMatchesLog(listOf("a.org", "b.org"))
+    }
+
+    @Test
+    fun testUpdatedAfterNewCommit() {
+        commit("a.org" to "1", "b.org" to "1")
+        val index = GitLastCommitIndex(git.repository)
+        index.getLastCommit(head(), "a.org")
+
+        val second = commit("b.org" to "2")
+
+        assertEquals(second, index.getLastCommit(head(), "b.org"))
+        assertEquals(lastCommitFromLog("a.org"), index.getLastCommit(head(), "a.org"))
+    }
+
+    @Test
+    fun testHistoryReplaced() {
+        commit("a.org" to "1")
+        val index = GitLastCommitIndex(git.repository)
+        index.getLastCommit(head(), "a.org")
+
+        /* Unrelated history in the same directory, as after cloning another repository. */
+        git.close()
+        dir.deleteRecursively()
+        git = Git.init().setDirectory(dir).setInitialBranch("main").call()
+        val other = commit("a.org" to "other")
+
+        assertEquals(other, index.getLastCommit(head(), "a.org"))
+    }
+
+    @Test
+    fun testUnknownPath() {
+        commit("a.org" to "1")
+
+        assertNull(GitLastCommitIndex(git.repository).getLastCommit(head(), "missing.org"))
+    }
+
+    private fun assertMatchesLog(paths: List<String>) {
+        val index = GitLastCommitIndex(git.repository)
+
+        for (path in paths) {
+            assertEquals(path, lastCommitFromLog(path), index.getLastCommit(head(), path))
+        }
+    }
+
+    private fun commit(vararg files: Pair<String, String>): RevCommit {
+        for ((path, content) in files) {
+            File(dir, path).apply {
+                parentFile?.mkdirs()
+                writeText(content)
+            }
+            git.add().addFilepattern(path).call()
+        }
+
+        /* Commit times are in seconds, keep them distinct. */
+        Thread.sleep(1000)
+
+        return git.commit().setMessage(files.joinToString { it.first }).call()
+    }
+
+    private fun head(): RevCommit {
+        return git.log().setMaxCount(1).call().first()
+    }
+
+    private fun lastCommitFromLog(path: String): RevCommit {
+        return git.log().setMaxCount(1).addPath(path).call().first()
+    }
+}
@@ -0,0 +1,62 @@
+package com.orgzly.android.prefs
+
+import android.content.Context
+import androidx.preference.PreferenceManager
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.orgzly.R
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class AppPreferencesSnapshotTest {
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        clear()
+    }
+
+    @After
+    fun tearDown() {
+        clear()
+    }
+
+    @Test
+    fun testSameSnapshotUntilChanged() {
+        val first = AppPreferences.snapshot(context)
+
+        assertSame(first, AppPreferences.snapshot(context))
+
+        AppPreferences.defaultPriority(context, "A")
+
+        val second = AppPreferences.snapshot(context)
+
+        assertNotSame(first, second)
+        assertEquals("A", second.defaultPriority)
+    }
+
+    @Test
+    fun testStatesChangedOutsideOfAppPreferences() {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(context.getString(R.string.pref_key_states), "NEXT | FINISHED")
+                .apply()
+
+        val snapshot = AppPreferences.snapshot(context)
+
+        assertEquals(setOf("NEXT"), snapshot.todoKeywords)
+        assertEquals(setOf("FINISHED"), snapshot.doneKeywords)
+        assertSame(snapshot.doneKeywords, AppPreferences.doneKeywordsSet(context))
+    }
+
+    private fun clear() {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().clear().apply()
+        AppPreferences.updateStaticKeywords(context)
+    }
+}
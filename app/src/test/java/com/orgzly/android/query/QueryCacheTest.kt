@@ -0,0 +1,43 @@
+package com.orgzly.android.query
+
+import com.orgzly.android.query.user.InternalQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+
+class QueryCacheTest {
+    @Before
+    fun setUp() {
+        QueryCache.clear()
+    }
+
+    @Test
+    fun testSameStringIsParsedOnce() {
+        val first = QueryCache.parse("i.todo s.today o.p")
+
+        assertSame(first, QueryCache.parse("i.todo s.today o.p"))
+        assertNotSame(first, QueryCache.parse("i.todo s.today o.s"))
+    }
+
+    @Test
+    fun testCachedQueryEqualsParsedQuery() {
+        val str = "b.work (t.urgent or p.a) .it.done ad.3"
+
+        assertEquals(InternalQueryParser().parse(str), QueryCache.parse(str))
+    }
+
+    @Test
+    fun testParserCanBeReused() {
+        val parser = InternalQueryParser()
+
+        val agenda = parser.parse("ad.5 o.s")
+        val search = parser.parse("i.todo")
+
+        assertEquals(5, agenda.options.agendaDays)
+        assertEquals(1, agenda.sortOrders.size)
+        assertEquals(0, search.options.agendaDays)
+        assertEquals(0, search.sortOrders.size)
+    }
+}
@@ -1,17 +1,36 @@
 package com.orgzly.android.repos
 
+import android.content.Context
+import android.net.Uri
 import androidx.test.core.app.ApplicationProvider
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.dropbox.core.v2.files.DeletedMetadata
+import com.dropbox.core.v2.files.FileMetadata
+import com.dropbox.core.v2.files.FolderMetadata
+import com.dropbox.core.v2.files.GetMetadataError
+import com.dropbox.core.v2.files.GetMetadataErrorException
+import com.dropbox.core.v2.files.ListFolderContinueError
+import com.dropbox.core.v2.files.ListFolderContinueErrorException
+import com.dropbox.core.v2.files.ListFolderResult
+import com.dropbox.core.v2.files.LookupError
+import com.dropbox.core.v2.files.Metadata
 import com.orgzly.BuildConfig
+import com.orgzly.android.BookName
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.prefs.AppPreferences
 import org.json.JSONObject
 import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
 import org.junit.Assume.assumeTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
 import java.io.IOException
+import java.io.InputStream
+import java.util.Date
+import java.util.TreeMap
 import java.util.UUID
 
 @RunWith(AndroidJUnit4::class)
@@ -152,4 +171,239 @@ class DropboxRepoTest : SyncRepoTest {
     override fun testRenameBook_sameSubfolderNewLeafName() {
         SyncRepoTest.testRenameBook_sameSubfolderNewLeafName(syncRepo)
     }
+
+    /**
+     * Listing tests run against [FakeDropboxFiles], without a Dropbox account.
+     */
+    @RunWith(AndroidJUnit4::class)
+    class Offline {
+        private val context: Context = ApplicationProvider.getApplicationContext()
+
+        private val repoUri = Uri.parse("dropbox:/Notes")
+
+        private lateinit var files: FakeDropboxFiles
+
+        @Before
+        fun setup() {
+            files = FakeDropboxFiles()
+            AppPreferences.dropboxListFolderStateDelete(context)
+            AppPreferences.subfolderSupport(context, true)
+        }
+
+        @Test
+        fun testGetBooks_onlyChangesAreListed() {
+            files.upload("/Notes/a.org", "a")
+            files.upload("/Notes/b.org", "b")
+            files.upload("/Notes/Dir/c.org", "c")
+            files.upload("/Other/d.org", "d")
+
+            assertEquals(setOf("a.org", "b.org", "Dir/c.org"), books().keys)
+
+            val revision = books().getValue("a.org")
+
+            files.upload("/Notes/a.org", "a2")
+            files.delete("/Notes/b.org")
+            files.upload("/Notes/e.org", "e")
+            files.upload("/Other/f.org", "f")
+
+            val books = books()
+
+            assertEquals(setOf("a.org", "Dir/c.org", "e.org"), books.keys)
+            assertNotEquals(revision, books.getValue("a.org"))
+
+            assertEquals(1, files.listFolderCount)
+            assertEquals(3, files.changedEntryCount)
+        }
+
+        @Test
+        fun testGetBooks_deletedFolder() {
+            files.upload("/Notes/a.org", "a")
+            files.upload("/Notes/Dir/b.org", "b")
+            files.upload("/Notes/Dir/Sub/c.org", "c")
+
+            assertEquals(setOf("a.org", "Dir/b.org", "Dir/Sub/c.org"), books().keys)
+
+            files.delete("/Notes/Dir")
+
+            assertEquals(setOf("a.org"), books().keys)
+        }
+
+        @Test
+        fun testGetBooks_cursorReset() {
+            files.upload("/Notes/a.org", "a")
+
+            assertEquals(setOf("a.org"), books().keys)
+
+            files.resetCursors()
+            files.upload("/Notes/b.org", "b")
+
+            assertEquals(setOf("a.org", "b.org"), books().keys)
+            assertEquals(2, files.listFolderCount)
+        }
+
+        @Test
+        fun testGetBooks_subfoldersDisabled() {
+            files.upload("/Notes/a.org", "a")
+            files.upload("/Notes/Dir/b.org", "b")
+
+            AppPreferences.subfolderSupport(context, false)
+            assertEquals(setOf("a.org"), books().keys)
+
+            AppPreferences.subfolderSupport(context, true)
+            assertEquals(setOf("a.org", "Dir/b.org"), books().keys)
+
+            assertEquals(1, files.listFolderCount)
+        }
+
+        @Test
+        fun testGetBooks_ignoredFile() {
+            files.upload("/Notes/a.org", "a")
+            files.upload("/Notes/b.org", "b")
+
+            assertEquals(setOf("a.org", "b.org"), books().keys)
+
+            files.upload("/Notes/" + RepoIgnoreNode.ignore_file(), "b.org\n")
+
+            assertEquals(setOf("a.org"), books().keys)
+        }
+
+        /**
+         * Books by repository-relative path, with their revisions.
+         * A new client is used each time, so the listing is read from preferences.
+         */
+        private fun books(): Map<String, String> {
+            val repo = DropboxRepo(repoUri, DropboxClient(context, 1, files))
+
+            return repo.books.associate {
+                BookName.getRepoRelativePath(repoUri, it.uri) to it.revision
+            }
+        }
+    }
+
+    /**
+     * Files API keeping files in memory, with list_folder cursors.
+     */
+    class FakeDropboxFiles : DropboxFiles {
+        private val contents = TreeMap<String, Pair<FileMetadata, String>>()
+
+        /* All uploads and deletions, in order. */
+        private val changes = mutableListOf<Metadata>()
+
+        private val cursors = mutableMapOf<String, Cursor>()
+
+        private var epoch = 0
+
+        private var revisions = 0L
+
+        var listFolderCount = 0
+
+        var changedEntryCount = 0
+
+        private data class Cursor(
+                val epoch: Int,
+                val path: String,
+                val changes: Int,
+                val pending: List<Metadata>)
+
+        fun upload(path: String, content: String) {
+            val metadata = FileMetadata.newBuilder(
+                    path.substringAfterLast("/"),
+                    "id:$path",
+                    Date(),
+                    Date(),
+                    String.format("%09x", ++revisions),
+                    content.length.toLong())
+                .withPathLower(path.lowercase())
+                .withPathDisplay(path)
+                .build()
+
+            contents[path.lowercase()] = Pair(metadata, content)
+            changes.add(metadata)
+        }
+
+        fun delete(path: String) {
+            val lower = path.lowercase()
+
+            contents.keys.removeAll { isUnder(it, lower) || it == lower }
+
+            changes.add(DeletedMetadata.newBuilder(path.substringAfterLast("/"))
+                .withPathLower(lower)
+                .withPathDisplay(path)
+                .build())
+        }
+
+        /** Makes all existing cursors invalid. */
+        fun resetCursors() {
+            epoch++
+        }
+
+        override fun getMetadata(path: String): Metadata {
+            val lower = path.lowercase()
+
+            contents[lower]?.let {
+                return it.first
+            }
+
+            if (contents.keys.any { isUnder(it, lower) }) {
+                return FolderMetadata.newBuilder(path.substringAfterLast("/"), "id:$path")
+                    .withPathLower(lower)
+                    .withPathDisplay(path)
+                    .build()
+            }
+
+            throw GetMetadataErrorException(
+                    "2/files/get_metadata", null, null, GetMetadataError.path(LookupError.NOT_FOUND))
+        }
+
+        override fun listFolder(path: String): ListFolderResult {
+            listFolderCount++
+
+            val lower = path.lowercase()
+
+            val entries = contents.values.map { it.first }.filter { isUnder(it.pathLower, lower) }
+
+            return result(Cursor(epoch, lower, changes.size, entries))
+        }
+
+        override fun listFolderContinue(cursor: String): ListFolderResult {
+            val current = cursors.getValue(cursor)
+
+            if (current.epoch != epoch) {
+                throw ListFolderContinueErrorException(
+                        "2/files/list_folder/continue", null, null, ListFolderContinueError.RESET)
+            }
+
+            if (current.pending.isNotEmpty()) {
+                return result(current)
+            }
+
+            val changed = changes.drop(current.changes).filter { isUnder(it.pathLower, current.path) }
+
+            changedEntryCount += changed.size
+
+            return result(Cursor(epoch, current.path, changes.size, changed))
+        }
+
+        override fun download(path: String, rev: String): InputStream {
+            return ByteArrayInputStream(contents.getValue(path.lowercase()).second.toByteArray())
+        }
+
+        /** Returns a page of pending entries, with a cursor for the rest. */
+        private fun result(cursor: Cursor): ListFolderResult {
+            val next = cursor.copy(pending = cursor.pending.drop(PAGE_SIZE))
+
+            val id = "cursor-${cursors.size}"
+            cursors[id] = next
+
+            return ListFolderResult(cursor.pending.take(PAGE_SIZE), id, next.pending.isNotEmpty())
+        }
+
+        private fun isUnder(path: String, folder: String): Boolean {
+            return path.startsWith("$folder/")
+        }
+
+        companion object {
+            private const val PAGE_SIZE = 2
+        }
+    }
 }
@@ -1,10 +1,14 @@
 package com.orgzly.android.repos
 
+import android.net.Uri
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.orgzly.android.App
 import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.repos.WebdavRepo.Companion.PASSWORD_PREF_KEY
 import com.orgzly.android.repos.WebdavRepo.Companion.USERNAME_PREF_KEY
 import io.github.atetzner.webdav.server.MiltonWebDAVFileServer
+import okhttp3.Interceptor
 import org.junit.After
 import org.junit.Assert.assertEquals
 import org.junit.Before
@@ -155,4 +159,90 @@ class WebdavRepoTest : SyncRepoTest {
     override fun testRenameBook_sameSubfolderNewLeafName() {
         SyncRepoTest.testRenameBook_sameSubfolderNewLeafName(syncRepo)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testGetBooks_unchangedFolderIsNotListed() {
+        AppPreferences.webdavSkipUnchangedListing(App.getAppContext(), true)
+
+        val requests = mutableListOf<String>()
+        val repo = countingRepo(requests)
+
+        File(serverRootDir, "Book one.org").writeText("...")
+
+        assertEquals(1, repo.books.size)
+        assertEquals(1, deepListings(requests))
+
+        /* Nothing changed. */
+        requests.clear()
+        assertEquals(1, repo.books.size)
+        assertEquals(0, deepListings(requests))
+
+        /* New file changes the folder's tag. */
+        File(serverRootDir, "Book two.org").writeText("...")
+
+        requests.clear()
+        assertEquals(2, repo.books.size)
+        assertEquals(1, deepListings(requests))
+    }
+
+    @Test
+    fun testGetBooks_folderIsListedEveryTimeByDefault() {
+        val requests = mutableListOf<String>()
+        val repo = countingRepo(requests)
+
+        File(serverRootDir, "Book one.org").writeText("...")
+
+        repo.books
+        repo.books
+
+        assertEquals(2, deepListings(requests))
+    }
+
+    @Test
+    fun testRetrieveBook_unchangedFileIsNotTransferred() {
+        val requests = mutableListOf<String>()
+        val repo = countingRepo(requests)
+
+        File(serverRootDir, "Book one.org").writeText("1")
+
+        repo.books
+        repo.retrieveBook("Book one.org", tmpFile)
+        assertEquals("1", tmpFile.readText())
+
+        requests.clear()
+        tmpFile.delete()
+        val vrook = repo.retrieveBook("Book one.org", tmpFile)
+        assertEquals("1", tmpFile.readText())
+        assertEquals(listOf("GET 304"), requests.filter { it.startsWith("GET") })
+        assertEquals(repo.books.first().uri, vrook.uri)
+
+        File(serverRootDir, "Book one.org").writeText("22")
+
+        repo.retrieveBook("Book one.org", tmpFile)
+        assertEquals("22", tmpFile.readText())
+    }
+
+    /**
+     * Repository recording each request's method and depth (for PROPFIND) or response code.
+     */
+    private fun countingRepo(requests: MutableList<String>): WebdavRepo {
+        val interceptor = Interceptor { chain ->
+            val request = chain.request()
+            val response = chain.proceed(request)
+
+            requests.add(if (request.method == "PROPFIND") {
+                "PROPFIND ${request.header("Depth")}"
+            } else {
+                "${request.method} ${response.code}"
+            })
+
+            response
+        }
+
+        return WebdavRepo(0, Uri.parse(serverUrl), "user", "secret", null, interceptor)
+    }
+
+    private fun deepListings(requests: List<String>): Int {
+        return requests.count { it.startsWith("PROPFIND") && it != "PROPFIND 0" }
+    }
+}
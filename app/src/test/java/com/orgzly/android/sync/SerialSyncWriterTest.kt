@@ -0,0 +1,54 @@
+package com.orgzly.android.sync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.io.IOException
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+class SerialSyncWriterTest {
+
+    @Test
+    fun testWritesRunOnSingleThread() {
+        val threads = Collections.synchronizedSet(HashSet<Thread>())
+        val start = CountDownLatch(1)
+
+        SerialSyncWriter().use { writer ->
+            val callers = (1..8).map {
+                thread {
+                    start.await()
+                    repeat(10) {
+                        writer.write { threads.add(Thread.currentThread()) }
+                    }
+                }
+            }
+
+            start.countDown()
+            callers.forEach { it.join() }
+        }
+
+        assertEquals(1, threads.size)
+        assertNotSame(Thread.currentThread(), threads.first())
+    }
+
+    @Test
+    fun testNestedWrite() {
+        SerialSyncWriter().use { writer ->
+            val (outer, inner) = writer.write {
+                Thread.currentThread() to writer.write { Thread.currentThread() }
+            }
+
+            assertSame(outer, inner)
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun testExceptionIsRethrown() {
+        SerialSyncWriter().use { writer ->
+            writer.write { throw IOException("Failed") }
+        }
+    }
+}
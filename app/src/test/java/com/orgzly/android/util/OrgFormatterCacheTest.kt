@@ -0,0 +1,60 @@
+package com.orgzly.android.util
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class OrgFormatterCacheTest {
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        OrgFormatter.clearParseCache()
+    }
+
+    @Test
+    fun testSameTextIsParsedOnce() {
+        val first = OrgFormatter.parseCached(1, "*bold* [[https://www.orgzlyrevived.com][link]]", context, true, true)
+        val second = OrgFormatter.parseCached(1, "*bold* [[https://www.orgzlyrevived.com][link]]", context, true, true)
+
+        assertSame(first, second)
+        assertEquals("bold link", second.toString())
+        assertEquals(1, OrgFormatter.parseCacheHitCount())
+        assertEquals(1, OrgFormatter.parseCacheMissCount())
+    }
+
+    @Test
+    fun testChangedTextIsParsedAgain() {
+        val first = OrgFormatter.parseCached(1, "- [ ] Task", context, true, true)
+        val second = OrgFormatter.parseCached(1, "- [X] Task", context, true, true)
+
+        assertNotSame(first, second)
+        assertEquals(0, OrgFormatter.parseCacheHitCount())
+        assertEquals(2, OrgFormatter.parseCacheMissCount())
+
+        /* Previous text was replaced. */
+        OrgFormatter.parseCached(1, "- [ ] Task", context, true, true)
+        assertEquals(3, OrgFormatter.parseCacheMissCount())
+    }
+
+    @Test
+    fun testDifferentNotesAndSettingsAreCachedSeparately() {
+        val first = OrgFormatter.parseCached(1, "Text", context, true, true)
+        val second = OrgFormatter.parseCached(2, "Text", context, true, true)
+        val third = OrgFormatter.parseCached(1, "Text", context, false, true)
+
+        assertNotSame(first, second)
+        assertNotSame(first, third)
+        assertSame(first, OrgFormatter.parseCached(1, "Text", context, true, true))
+        assertEquals(1, OrgFormatter.parseCacheHitCount())
+        assertEquals(3, OrgFormatter.parseCacheMissCount())
+    }
+}